@@ -0,0 +1,100 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.desktop;
+
+import java.awt.Font;
+import java.awt.FontFormatException;
+import java.awt.Rectangle;
+import java.awt.font.FontRenderContext;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jraf.android.piclabel.engine.FontBackend;
+import org.jraf.android.piclabel.layout.TextMeasurer;
+
+/**
+ * {@link FontBackend} on Java 2D fonts. A font name is the name of a font file of the fonts folder (like the fonts of the app, in
+ * {@code assets/fonts}), or else the name of a font installed on the system (for instance {@code SansSerif}).
+ */
+public class AwtFontBackend implements FontBackend<Font> {
+    private final File mFontFolder;
+    private final ConcurrentHashMap<String, Font> mFonts = new ConcurrentHashMap<String, Font>();
+
+    /**
+     * @param fontFolder The fonts folder, or {@code null} to only use the fonts of the system.
+     */
+    public AwtFontBackend(File fontFolder) {
+        mFontFolder = fontFolder;
+    }
+
+    @Override
+    public Font getFont(String fontName) throws IOException {
+        Font res = mFonts.get(fontName);
+        if (res != null) return res;
+        File file = mFontFolder == null ? null : new File(mFontFolder, fontName);
+        if (file != null && file.isFile()) {
+            try {
+                res = Font.createFont(Font.TRUETYPE_FONT, file);
+            } catch (FontFormatException e) {
+                IOException ioException = new IOException("Could not load font " + file);
+                ioException.initCause(e);
+                throw ioException;
+            }
+        } else {
+            res = new Font(fontName, Font.PLAIN, 1);
+        }
+        // Fonts are immutable: if 2 threads create the same one, either can be used
+        mFonts.put(fontName, res);
+        return res;
+    }
+
+    @Override
+    public TextMeasurer newTextMeasurer(Font font) {
+        return new AwtTextMeasurer(font);
+    }
+
+    /**
+     * Measures the pixels covered by the glyphs, like {@code Paint.getTextBounds} on Android. Not thread safe.
+     */
+    private static class AwtTextMeasurer implements TextMeasurer {
+        private final FontRenderContext mFontRenderContext = new FontRenderContext(null, true, true);
+        private final Font mFont;
+        private Font mSizedFont;
+
+        public AwtTextMeasurer(Font font) {
+            mFont = font;
+        }
+
+        @Override
+        public void measure(String text, int textSize, int[] bounds) {
+            if (mSizedFont == null || mSizedFont.getSize() != textSize) mSizedFont = mFont.deriveFont((float) textSize);
+            Rectangle pixelBounds = mSizedFont.createGlyphVector(mFontRenderContext, text).getPixelBounds(mFontRenderContext, 0, 0);
+            bounds[0] = pixelBounds.x;
+            bounds[1] = pixelBounds.y;
+            bounds[2] = pixelBounds.x + pixelBounds.width;
+            bounds[3] = pixelBounds.y + pixelBounds.height;
+        }
+    }
+}
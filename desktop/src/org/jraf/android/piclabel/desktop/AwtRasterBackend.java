@@ -0,0 +1,125 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.desktop;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.jraf.android.piclabel.engine.RasterBackend;
+import org.jraf.android.piclabel.layout.LabelLayout;
+
+/**
+ * {@link RasterBackend} on {@link BufferedImage}, decoded with ImageIO and drawn with Java 2D.
+ */
+public class AwtRasterBackend implements RasterBackend<BufferedImage, Font> {
+    private static final Color BACKGROUND_COLOR = new Color(LabelLayout.BACKGROUND_COLOR, true);
+    private static final Color TEXT_COLOR = new Color(LabelLayout.TEXT_COLOR, true);
+
+    @Override
+    public BufferedImage decode(File file) throws IOException {
+        BufferedImage res = ImageIO.read(file);
+        if (res == null) throw new IOException("Could not decode " + file);
+        return res;
+    }
+
+    /**
+     * ImageIO decodes the rows up to the bottom of the region, so this is fast for a band at the top of the stored image, and no faster than
+     * {@link #decode(File)} for a band at the bottom.
+     */
+    @Override
+    public BufferedImage decodeRegion(File file, int left, int top, int right, int bottom) throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(file);
+        if (in == null) throw new IOException("Could not open " + file);
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) throw new IOException("Could not decode " + file);
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(new Rectangle(left, top, right - left, bottom - top));
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public int getWidth(BufferedImage image) {
+        return image.getWidth();
+    }
+
+    @Override
+    public int getHeight(BufferedImage image) {
+        return image.getHeight();
+    }
+
+    @Override
+    public void getPixels(BufferedImage image, int x, int y, int width, int height, int[] argb) {
+        image.getRGB(x, y, width, height, argb, 0, width);
+    }
+
+    @Override
+    public void drawLabel(BufferedImage image, LabelLayout layout, Font font, float[] transform) {
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            graphics.transform(new AffineTransform(transform[0], transform[3], transform[1], transform[4], transform[2], transform[5]));
+
+            // Draw a rectangle
+            graphics.setColor(BACKGROUND_COLOR);
+            graphics.fillRect(0, 0, layout.getWidth(), layout.getHeight());
+
+            // Draw date/time and location
+            graphics.setColor(TEXT_COLOR);
+            graphics.setFont(font.deriveFont((float) layout.getTextSize()));
+            graphics.drawString(layout.getDateTime(), layout.getDateTimeX(), layout.getDateTimeY());
+            graphics.drawString(layout.getLocation(), layout.getLocationX(), layout.getLocationY());
+        } finally {
+            graphics.dispose();
+        }
+    }
+
+    @Override
+    public void release(BufferedImage image) {
+        image.flush();
+    }
+}
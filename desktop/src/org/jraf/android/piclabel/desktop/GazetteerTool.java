@@ -0,0 +1,175 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.desktop;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.jraf.android.piclabel.geo.GazetteerReverseGeocoder;
+import org.jraf.android.piclabel.geo.GazetteerWriter;
+
+/**
+ * Command line tool to build, query and benchmark gazetteer files.
+ * 
+ * <pre>
+ * build &lt;cities.txt&gt; &lt;countryInfo.txt|-&gt; &lt;gazetteer.dat&gt;   build from GeoNames dumps
+ * lookup &lt;gazetteer.dat&gt; &lt;lat&gt; &lt;lon&gt;                    nearest place
+ * bench &lt;gazetteer.dat&gt; [lookupCount]                    lookup latency and memory
+ * </pre>
+ */
+public class GazetteerTool {
+    private static final double MAX_DISTANCE_KM = 25;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 4 && args[0].equals("build")) {
+            build(new File(args[1]), args[2].equals("-") ? null : new File(args[2]), new File(args[3]));
+        } else if (args.length == 4 && args[0].equals("lookup")) {
+            GazetteerReverseGeocoder geocoder = new GazetteerReverseGeocoder(new File(args[1]), MAX_DISTANCE_KM);
+            System.out.println(geocoder.reverseGeocode(Double.parseDouble(args[2]), Double.parseDouble(args[3])));
+        } else if (args.length >= 2 && args[0].equals("bench")) {
+            bench(new File(args[1]), args.length > 2 ? Integer.parseInt(args[2]) : 1000000);
+        } else {
+            System.err.println("Usage: build <cities.txt> <countryInfo.txt|-> <gazetteer.dat>");
+            System.err.println("       lookup <gazetteer.dat> <lat> <lon>");
+            System.err.println("       bench <gazetteer.dat> [lookupCount]");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads GeoNames dumps: {@code cities15000.txt} (or similar) and optionally {@code countryInfo.txt} for the country names.
+     */
+    private static void build(File citiesFile, File countryInfoFile, File outFile) throws IOException {
+        HashMap<String, String> countryNames = new HashMap<String, String>();
+        if (countryInfoFile != null) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(countryInfoFile), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.length() == 0 || line.charAt(0) == '#') continue;
+                    String[] columns = line.split("\t", -1);
+                    if (columns.length > 4) countryNames.put(columns[0], columns[4]);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        GazetteerWriter writer = new GazetteerWriter(GazetteerWriter.DEFAULT_CELLS_PER_DEGREE);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(citiesFile), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Name in column 1, latitude and longitude in columns 4 and 5, country code in column 8
+                String[] columns = line.split("\t", -1);
+                if (columns.length < 9) continue;
+                String country = countryNames.containsKey(columns[8]) ? countryNames.get(columns[8]) : columns[8];
+                try {
+                    writer.addPlace(columns[1], country, Double.parseDouble(columns[4]), Double.parseDouble(columns[5]));
+                } catch (NumberFormatException e) {
+                    // Ignore malformed lines
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        writer.write(outFile);
+        System.out.println(writer.getPlaceCount() + " places written to " + outFile + " (" + outFile.length() + " bytes)");
+    }
+
+    private static void bench(File file, int lookupCount) throws IOException {
+        long rssBefore = getRssKb();
+        long heapBefore = getUsedHeap();
+        GazetteerReverseGeocoder geocoder = new GazetteerReverseGeocoder(file, MAX_DISTANCE_KM);
+        System.out.println("places=" + geocoder.getPlaceCount() + " file=" + file.length() / 1024 + "KB");
+
+        // Random points over land and sea, with a fixed seed so that runs are comparable
+        Random random = new Random(42);
+        double[] lats = new double[lookupCount];
+        double[] lons = new double[lookupCount];
+        for (int i = 0; i < lookupCount; i++) {
+            lats[i] = random.nextDouble() * 140 - 60;
+            lons[i] = random.nextDouble() * 360 - 180;
+        }
+
+        // Warm up
+        int found = 0;
+        for (int i = 0; i < Math.min(lookupCount, 100000); i++) {
+            if (geocoder.findNearestPlace(lats[i], lons[i]) != -1) found++;
+        }
+
+        long[] latencies = new long[lookupCount];
+        found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < lookupCount; i++) {
+            long lookupStart = System.nanoTime();
+            if (geocoder.reverseGeocode(lats[i], lons[i]) != null) found++;
+            latencies[i] = System.nanoTime() - lookupStart;
+        }
+        long total = System.nanoTime() - start;
+        Arrays.sort(latencies);
+
+        System.out.println("lookups=" + lookupCount + " found=" + found);
+        System.out.println("mean=" + total / lookupCount + "ns p50=" + latencies[lookupCount / 2] + "ns p99=" + latencies[(int) (lookupCount * .99)]
+                + "ns max=" + latencies[lookupCount - 1] + "ns");
+        System.out.println("heap delta=" + (getUsedHeap() - heapBefore) / 1024 + "KB (includes the benchmark arrays: " + lookupCount * 24L / 1024
+                + "KB)");
+        if (rssBefore != -1) System.out.println("rss delta=" + (getRssKb() - rssBefore) + "KB (mapped pages touched by the lookups)");
+    }
+
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * @return The resident set size of this process in KB, or -1 if it is not available (only Linux is supported).
+     */
+    private static long getRssKb() {
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("VmRSS:")) return Long.parseLong(line.substring(6).trim().split(" ")[0]);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            // Not available
+        } catch (NumberFormatException e) {
+            // Not available
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.desktop;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.jraf.android.piclabel.engine.EncoderBackend;
+
+/**
+ * {@link EncoderBackend} that writes JPEG files with ImageIO.
+ */
+public class ImageIoJpegEncoder implements EncoderBackend<BufferedImage> {
+    @Override
+    public boolean isJpeg() {
+        return true;
+    }
+
+    @Override
+    public String getExtension() {
+        return ".jpg";
+    }
+
+    @Override
+    public void encode(BufferedImage image, int quality, OutputStream out) throws IOException {
+        // JPEG has no alpha channel
+        if (image.getColorModel().hasAlpha()) {
+            BufferedImage opaque = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            opaque.createGraphics().drawImage(image, 0, 0, null);
+            image = opaque;
+        }
+
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) throw new IOException("No JPEG encoder");
+        ImageWriter writer = writers.next();
+        ImageOutputStream imageOut = ImageIO.createImageOutputStream(out);
+        try {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality / 100f);
+            writer.setOutput(imageOut);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+            imageOut.close();
+        }
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.desktop;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.jraf.android.piclabel.engine.LabelEngine;
+import org.jraf.android.piclabel.exif.ExifMetadata;
+import org.jraf.android.piclabel.exif.ExifOrientation;
+import org.jraf.android.piclabel.exif.ExifReader;
+import org.jraf.android.piclabel.layout.LabelLayout;
+import org.jraf.android.piclabel.layout.LabelLayoutEngine;
+
+/**
+ * Command line tool to benchmark each stage of the labeling pipeline, on the desktop backends.
+ * 
+ * <pre>
+ * generate &lt;folder&gt; [megapixels...]                          write test pictures (default: 2 12 24 50 MP)
+ * bench &lt;folder|picture&gt; [-warmup &lt;count&gt;] [-iterations &lt;count&gt;] [-font &lt;name&gt;]
+ * </pre>
+ * 
+ * For each picture and stage, the throughput, the mean, median and 99th percentile latencies, and the bytes allocated per operation by the
+ * calling thread are reported. Run with a heap big enough for the biggest picture (about 8 bytes per pixel), for instance {@code -Xmx1g} for
+ * 50 MP.
+ */
+public class LabelBenchmark {
+    private static final String LOCATION = "Saint-Remy-de-Provence, France";
+    private static final int QUALITY = 85;
+    private static final int THUMBNAIL_WIDTH = 160;
+    private static final int THUMBNAIL_HEIGHT = 120;
+    private static final byte[] DATE_TIME = "2013:06:01 12:00:00\0".getBytes();
+
+    private static final ThreadMXBean mThreadMXBean = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Results are stored here so that the JIT cannot drop the measured code.
+     */
+    private static volatile Object mSink;
+
+    /**
+     * One stage of the pipeline, run on one picture.
+     */
+    private interface Stage {
+        Object run() throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 2 && args[0].equals("generate")) {
+            int[] megapixels = { 2, 12, 24, 50 };
+            if (args.length > 2) {
+                megapixels = new int[args.length - 2];
+                for (int i = 2; i < args.length; i++) {
+                    megapixels[i - 2] = Integer.parseInt(args[i]);
+                }
+            }
+            generate(new File(args[1]), megapixels);
+        } else if (args.length >= 2 && args[0].equals("bench")) {
+            int warmupCount = 5;
+            int iterationCount = 20;
+            String fontName = "Cabin-Regular.ttf";
+            for (int i = 2; i + 1 < args.length; i += 2) {
+                if (args[i].equals("-warmup")) {
+                    warmupCount = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("-iterations")) {
+                    iterationCount = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("-font")) {
+                    fontName = args[i + 1];
+                }
+            }
+            bench(new File(args[1]), warmupCount, iterationCount, fontName);
+        } else {
+            System.err.println("Usage: generate <folder> [megapixels...]");
+            System.err.println("       bench <folder|picture> [-warmup <count>] [-iterations <count>] [-font <name>]");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Writes pictures of the given sizes, in 4:3, with enough details for the encoder to have some work (gradient and random shapes), and an
+     * EXIF segment like the ones of cameras.
+     */
+    private static void generate(File folder, int[] megapixels) throws IOException {
+        folder.mkdirs();
+        for (int mp : megapixels) {
+            int width = (int) Math.round(Math.sqrt(mp * 1000000 * 4 / 3.));
+            int height = width * 3 / 4;
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = image.createGraphics();
+            graphics.setPaint(new GradientPaint(0, 0, Color.ORANGE, width, height, Color.BLUE));
+            graphics.fillRect(0, 0, width, height);
+            Random random = new Random(mp);
+            for (int i = 0; i < 500; i++) {
+                graphics.setColor(new Color(random.nextInt()));
+                graphics.fillOval(random.nextInt(width), random.nextInt(height), random.nextInt(width / 8), random.nextInt(height / 8));
+            }
+            graphics.dispose();
+            File file = new File(folder, String.format(Locale.US, "%02dmp.jpg", mp));
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            ImageIO.write(image, "jpg", encoded);
+            byte[] jpeg = encoded.toByteArray();
+
+            // Insert the EXIF segment right after the start of image marker
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(jpeg, 0, 2);
+                out.write(buildExifSegment(width, height, encodeThumbnail(image)));
+                out.write(jpeg, 2, jpeg.length - 2);
+            } finally {
+                out.close();
+            }
+            System.out.println(file + " " + width + "x" + height + " " + file.length() / 1024 + "KB");
+        }
+    }
+
+    private static byte[] encodeThumbnail(BufferedImage image) throws IOException {
+        BufferedImage thumbnail = new BufferedImage(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = thumbnail.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(image, 0, 0, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, null);
+        graphics.dispose();
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
+        ImageIO.write(thumbnail, "jpg", res);
+        return res.toByteArray();
+    }
+
+    /**
+     * Builds an APP1 EXIF segment with the tags a camera usually writes: date/time, orientation, size, GPS location, and a thumbnail in IFD1.
+     */
+    private static byte[] buildExifSegment(int width, int height, byte[] thumbnail) {
+        // Layout of the TIFF structure (big endian): header, IFD0, its date/time, EXIF IFD, its date/time, GPS IFD, its 2 rationals, IFD1,
+        // thumbnail
+        int ifd0 = 8;
+        int dateTime = ifd0 + getIfdSize(4);
+        int exifIfd = dateTime + DATE_TIME.length;
+        int dateTimeOriginal = exifIfd + getIfdSize(3);
+        int gpsIfd = dateTimeOriginal + DATE_TIME.length;
+        int latitude = gpsIfd + getIfdSize(4);
+        int longitude = latitude + 24;
+        int ifd1 = longitude + 24;
+        int thumbnailOffset = ifd1 + getIfdSize(2);
+        ByteBuffer tiff = ByteBuffer.allocate(thumbnailOffset + thumbnail.length);
+
+        tiff.put(new byte[] { 'M', 'M', 0, 42 }).putInt(ifd0);
+        tiff.putShort((short) 4);
+        putEntry(tiff, 0x0112, 3, 1, ExifOrientation.NORMAL << 16); // Orientation
+        putEntry(tiff, 0x0132, 2, DATE_TIME.length, dateTime); // DateTime
+        putEntry(tiff, 0x8769, 4, 1, exifIfd);
+        putEntry(tiff, 0x8825, 4, 1, gpsIfd);
+        tiff.putInt(ifd1);
+        tiff.put(DATE_TIME);
+
+        tiff.putShort((short) 3);
+        putEntry(tiff, 0x9003, 2, DATE_TIME.length, dateTimeOriginal); // DateTimeOriginal
+        putEntry(tiff, 0xA002, 4, 1, width); // PixelXDimension
+        putEntry(tiff, 0xA003, 4, 1, height); // PixelYDimension
+        tiff.putInt(0);
+        tiff.put(DATE_TIME);
+
+        tiff.putShort((short) 4);
+        putEntry(tiff, 0x0001, 2, 2, 'N' << 24); // GPSLatitudeRef
+        putEntry(tiff, 0x0002, 5, 3, latitude); // GPSLatitude
+        putEntry(tiff, 0x0003, 2, 2, 'E' << 24); // GPSLongitudeRef
+        putEntry(tiff, 0x0004, 5, 3, longitude); // GPSLongitude
+        tiff.putInt(0);
+        // 43 deg 47' 21.60", 4 deg 49' 58.80" (Saint-Remy-de-Provence)
+        tiff.putInt(43).putInt(1).putInt(47).putInt(1).putInt(2160).putInt(100);
+        tiff.putInt(4).putInt(1).putInt(49).putInt(1).putInt(5880).putInt(100);
+
+        tiff.putShort((short) 2);
+        putEntry(tiff, 0x0201, 4, 1, thumbnailOffset); // JPEGInterchangeFormat
+        putEntry(tiff, 0x0202, 4, 1, thumbnail.length); // JPEGInterchangeFormatLength
+        tiff.putInt(0);
+        tiff.put(thumbnail);
+
+        ByteBuffer res = ByteBuffer.allocate(4 + 6 + tiff.capacity());
+        res.put((byte) 0xFF).put((byte) 0xE1).putShort((short) (2 + 6 + tiff.capacity()));
+        res.put(new byte[] { 'E', 'x', 'i', 'f', 0, 0 }).put(tiff.array());
+        return res.array();
+    }
+
+    private static int getIfdSize(int entryCount) {
+        return 2 + entryCount * 12 + 4;
+    }
+
+    /**
+     * @param value The value itself if it fits in 4 bytes (left aligned), otherwise its offset.
+     */
+    private static void putEntry(ByteBuffer tiff, int tag, int type, int count, int value) {
+        tiff.putShort((short) tag).putShort((short) type).putInt(count).putInt(value);
+    }
+
+    private static void bench(File input, int warmupCount, int iterationCount, final String fontName) throws IOException {
+        ArrayList<File> files = new ArrayList<File>();
+        if (input.isDirectory()) {
+            File[] folderFiles = input.listFiles();
+            Arrays.sort(folderFiles);
+            for (File file : folderFiles) {
+                if (file.getName().toLowerCase(Locale.US).endsWith(".jpg")) files.add(file);
+            }
+        } else {
+            files.add(input);
+        }
+
+        ImageIO.setUseCache(false);
+        final AwtRasterBackend rasterBackend = new AwtRasterBackend();
+        final AwtFontBackend fontBackend = new AwtFontBackend(new File("assets/fonts"));
+        final ImageIoJpegEncoder encoder = new ImageIoJpegEncoder();
+        final LabelEngine<BufferedImage, Font> engine = new LabelEngine<BufferedImage, Font>(rasterBackend, fontBackend, encoder);
+        final LabelEngine<BufferedImage, Font> wholeImageEngine = new LabelEngine<BufferedImage, Font>(rasterBackend, fontBackend, encoder);
+        wholeImageEngine.setAllowBandOnly(false);
+        final Font font = fontBackend.getFont(fontName);
+        final File outFile = File.createTempFile("bench", ".jpg");
+        outFile.deleteOnExit();
+        if (!isAllocationMeasured()) System.out.println("Allocations are not measured on this JVM");
+        System.out.println(String.format(Locale.US, "%-10s %-14s %10s %10s %10s %10s %12s", "picture", "stage", "ops/s", "mean ms", "p50 ms",
+                "p99 ms", "alloc/op"));
+
+        for (final File file : files) {
+            final ExifMetadata exif = ExifReader.read(file);
+            final BufferedImage image = rasterBackend.decode(file);
+            final int orientation = exif.getOrientation();
+            final int displayWidth = ExifOrientation.getDisplayWidth(orientation, image.getWidth(), image.getHeight());
+            final int displayHeight = ExifOrientation.getDisplayHeight(orientation, image.getWidth(), image.getHeight());
+            final String dateTime = engine.getDateTime(file, exif);
+            final LabelLayout layout = LabelLayoutEngine.computeLayout(dateTime, LOCATION, fontBackend.newTextMeasurer(font), displayWidth,
+                    LabelLayoutEngine.getTextSize(displayHeight));
+            final float[] transform = ExifOrientation.getDisplayToStoredTransform(orientation, image.getWidth(), image.getHeight());
+            String name = file.getName();
+
+            measure(name, "exif", warmupCount, iterationCount, new Stage() {
+                @Override
+                public Object run() throws IOException {
+                    return ExifReader.read(file);
+                }
+            });
+            measure(name, "exifFull", warmupCount, iterationCount, new Stage() {
+                @Override
+                public Object run() throws IOException {
+                    // The whole file is read before parsing the tags
+                    byte[] bytes = readFully(file);
+                    return ExifReader.read(new ByteArrayInputStream(bytes));
+                }
+            });
+            measure(name, "exifRepeated", warmupCount, iterationCount, new Stage() {
+                @Override
+                public Object run() throws IOException {
+                    // The same reader, as many times as a save used to parse the tags (date/location, rotation, and source and destination
+                    // to copy the tags). This is not the old path itself: ExifInterface only runs on a device
+                    ExifReader.read(file);
+                    ExifReader.read(file);
+                    ExifReader.read(file);
+                    return ExifReader.read(file);
+                }
+            });
+            measure(name, "dateTime", warmupCount, iterationCount, new Stage() {
+                @Override
+                public Object run() {
+                    return engine.getDateTime(file, exif);
+                }
+            });
+            measure(name, "layout", warmupCount, iterationCount, new Stage() {
+                @Override
+                public Object run() {
+                    // Without the layout cache: the text is measured each time
+                    return LabelLayoutEngine.computeLayout(dateTime, LOCATION, fontBackend.newTextMeasurer(font), displayWidth, LabelLayoutEngine
+                            .getTextSize(displayHeight));
+                }
+            });
+            measure(name, "draw", warmupCount, iterationCount, new Stage() {
+                @Override
+                public Object run() {
+                    rasterBackend.drawLabel(image, layout, font, transform);
+                    return image;
+                }
+            });
+            measure(name, "decode", warmupCount, iterationCount, new Stage() {
+                @Override
+                public Object run() throws IOException {
+                    return rasterBackend.decode(file);
+                }
+            });
+            // Before the orientation was kept, rotated pictures were decoded and rotated into a second bitmap (the generated pictures are not
+            // rotated: they are measured as if they were rotated by 90 degrees)
+            final int matrixOrientation = orientation == ExifOrientation.NORMAL ? ExifOrientation.ROTATE_90 : orientation;
+            measure(name, "matrixRotation", warmupCount, iterationCount, new Stage() {
+                @Override
+                public Object run() throws IOException {
+                    BufferedImage stored = rasterBackend.decode(file);
+                    BufferedImage res = rotate(stored, matrixOrientation);
+                    rasterBackend.release(stored);
+                    return res;
+                }
+            });
+            measure(name, "encode", warmupCount, iterationCount, new Stage() {
+                @Override
+                public Object run() throws IOException {
+                    CountingOutputStream out = new CountingOutputStream();
+                    encoder.encode(image, QUALITY, out);
+                    return out.getCount();
+                }
+            });
+            measure(name, "bandOnly", warmupCount, iterationCount, new Stage() {
+                @Override
+                public Object run() throws IOException {
+                    engine.label(file, exif, dateTime, LOCATION, fontName, outFile);
+                    return outFile;
+                }
+            });
+            measure(name, "wholeImage", warmupCount, iterationCount, new Stage() {
+                @Override
+                public Object run() throws IOException {
+                    wholeImageEngine.label(file, exif, dateTime, LOCATION, fontName, outFile);
+                    return outFile;
+                }
+            });
+            rasterBackend.release(image);
+        }
+        if (engine.getWholeImageCount() > 0) System.out.println("bandOnly fell back to wholeImage " + engine.getWholeImageCount() + " times");
+    }
+
+    /**
+     * @return A new image with the given stored image, displayed with the given orientation.
+     */
+    private static BufferedImage rotate(BufferedImage stored, int orientation) {
+        int width = stored.getWidth();
+        int height = stored.getHeight();
+        float[] t = ExifOrientation.getDisplayToStoredTransform(orientation, width, height);
+        AffineTransform storedToDisplay;
+        try {
+            storedToDisplay = new AffineTransform(t[0], t[3], t[1], t[4], t[2], t[5]).createInverse();
+        } catch (NoninvertibleTransformException e) {
+            throw new IllegalArgumentException(e);
+        }
+        BufferedImage res = new BufferedImage(ExifOrientation.getDisplayWidth(orientation, width, height), ExifOrientation.getDisplayHeight(
+                orientation, width, height), stored.getType());
+        Graphics2D graphics = res.createGraphics();
+        graphics.drawImage(stored, storedToDisplay, null);
+        graphics.dispose();
+        return res;
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        byte[] res = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(res);
+        } finally {
+            in.close();
+        }
+        return res;
+    }
+
+    private static void measure(String pictureName, String stageName, int warmupCount, int iterationCount, Stage stage) throws IOException {
+        for (int i = 0; i < warmupCount; i++) {
+            mSink = stage.run();
+        }
+        long[] latencies = new long[iterationCount];
+        long allocated = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterationCount; i++) {
+            long iterationStart = System.nanoTime();
+            mSink = stage.run();
+            latencies[i] = System.nanoTime() - iterationStart;
+        }
+        long total = System.nanoTime() - start;
+        allocated = getAllocatedBytes() - allocated;
+        Arrays.sort(latencies);
+        long p99 = latencies[(int) Math.ceil(iterationCount * .99) - 1];
+        System.out.println(String.format(Locale.US, "%-10s %-14s %10.1f %10.2f %10.2f %10.2f %12s", pictureName, stageName, iterationCount * 1e9
+                / total, total / 1e6 / iterationCount, latencies[iterationCount / 2] / 1e6, p99 / 1e6,
+                isAllocationMeasured() ? formatBytes(allocated / iterationCount) : "-"));
+    }
+
+    private static boolean isAllocationMeasured() {
+        return mThreadMXBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) mThreadMXBean).isThreadAllocatedMemorySupported();
+    }
+
+    /**
+     * @return The bytes allocated so far by the calling thread, or {@code 0} if this is not available.
+     */
+    private static long getAllocatedBytes() {
+        if (!isAllocationMeasured()) return 0;
+        return ((com.sun.management.ThreadMXBean) mThreadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 10 * 1024) return bytes + "B";
+        if (bytes < 10 * 1024 * 1024) return bytes / 1024 + "KB";
+        return bytes / (1024 * 1024) + "MB";
+    }
+
+    /**
+     * Discards what is written, so that the encoding is measured without the I/O.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private long mCount;
+
+        @Override
+        public void write(int b) {
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            mCount += len;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.desktop;
+
+import java.awt.image.BufferedImage;
+import java.awt.Font;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import org.jraf.android.piclabel.batch.BatchScheduler;
+import org.jraf.android.piclabel.engine.LabelEngine;
+import org.jraf.android.piclabel.geo.GazetteerReverseGeocoder;
+
+/**
+ * Command line tool to label all the pictures of a folder tree, on several threads.
+ * 
+ * <pre>
+ * &lt;inputFolder&gt; &lt;outputFolder&gt; [options]
+ *   -threads &lt;count&gt;       number of pictures processed at the same time (default: number of cores)
+ *   -quality &lt;0-100&gt;       quality of the re-encoded pictures (default: 85)
+ *   -fonts &lt;folder&gt;        fonts folder (default: assets/fonts)
+ *   -font &lt;name&gt;           file of the fonts folder, or system font (default: Cabin-Regular.ttf)
+ *   -gazetteer &lt;file&gt;      gazetteer used to find the locations (default: no location)
+ *   -wholeImage            always re-encode the whole image
+ * </pre>
+ * 
+ * The labeled pictures are written in the output folder, with the same relative paths. Pictures that already have an up to date labeled
+ * version are skipped, so an interrupted run can be resumed.
+ */
+public class LabelTool {
+    private static final double MAX_DISTANCE_KM = 25;
+    private static final long PROGRESS_INTERVAL_MS = 10000;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) usage();
+        File inputFolder = new File(args[0]);
+        File outputFolder = new File(args[1]);
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        int quality = 85;
+        File fontFolder = new File("assets/fonts");
+        String fontName = "Cabin-Regular.ttf";
+        File gazetteerFile = null;
+        boolean wholeImage = false;
+        for (int i = 2; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("-wholeImage")) {
+                wholeImage = true;
+                continue;
+            }
+            if (i + 1 == args.length) usage();
+            String value = args[++i];
+            if (option.equals("-threads")) {
+                threadCount = Integer.parseInt(value);
+            } else if (option.equals("-quality")) {
+                quality = Integer.parseInt(value);
+            } else if (option.equals("-fonts")) {
+                fontFolder = new File(value);
+            } else if (option.equals("-font")) {
+                fontName = value;
+            } else if (option.equals("-gazetteer")) {
+                gazetteerFile = new File(value);
+            } else {
+                usage();
+            }
+        }
+
+        // The default disk cache of ImageIO streams only slows down the encoding
+        ImageIO.setUseCache(false);
+        LabelEngine<BufferedImage, Font> engine = new LabelEngine<BufferedImage, Font>(new AwtRasterBackend(), new AwtFontBackend(
+                fontFolder.isDirectory() ? fontFolder : null), new ImageIoJpegEncoder());
+        engine.setQuality(quality);
+        engine.setAllowBandOnly(!wholeImage);
+        if (gazetteerFile != null) engine.setReverseGeocoder(new GazetteerReverseGeocoder(gazetteerFile, MAX_DISTANCE_KM));
+
+        ArrayList<String> paths = new ArrayList<String>();
+        listPictures(inputFolder, "", paths);
+        System.out.println(paths.size() + " pictures in " + inputFolder + ", " + threadCount + " threads");
+        run(engine, fontName, inputFolder, outputFolder, paths, threadCount);
+    }
+
+    private static void usage() {
+        System.err.println("Usage: <inputFolder> <outputFolder> [-threads <count>] [-quality <0-100>] [-fonts <folder>] [-font <name>]");
+        System.err.println("       [-gazetteer <file>] [-wholeImage]");
+        System.exit(1);
+    }
+
+    /**
+     * Adds the relative paths of the pictures of the given folder and its sub folders, sorted so that runs are repeatable.
+     */
+    private static void listPictures(File folder, String relativePath, ArrayList<String> res) {
+        String[] names = folder.list();
+        if (names == null) return;
+        Arrays.sort(names);
+        for (String name : names) {
+            File file = new File(folder, name);
+            String path = relativePath + name;
+            if (file.isDirectory()) {
+                listPictures(file, path + File.separator, res);
+            } else {
+                String lowerCaseName = name.toLowerCase(Locale.US);
+                if (lowerCaseName.endsWith(".jpg") || lowerCaseName.endsWith(".jpeg") || lowerCaseName.endsWith(".png")) res.add(path);
+            }
+        }
+    }
+
+    private static void run(final LabelEngine<?, ?> engine, final String fontName, final File inputFolder, final File outputFolder,
+            ArrayList<String> paths, int threadCount) throws InterruptedException {
+        final AtomicInteger skippedCount = new AtomicInteger();
+        final AtomicLong inputBytes = new AtomicLong();
+        final long start = System.currentTimeMillis();
+        BatchScheduler.Job<String> job = new BatchScheduler.Job<String>() {
+            @Override
+            public void process(String path) throws IOException {
+                File inputFile = new File(inputFolder, path);
+                File outputFile = new File(outputFolder, replaceExtension(path, engine.getExtension()));
+                if (outputFile.lastModified() >= inputFile.lastModified()) {
+                    skippedCount.incrementAndGet();
+                    return;
+                }
+                outputFile.getParentFile().mkdirs();
+
+                // Written under another name first, so that an interrupted run leaves no truncated pictures
+                File tmpFile = new File(outputFile.getPath() + ".tmp");
+                boolean ok = false;
+                try {
+                    engine.label(inputFile, tmpFile, fontName);
+                    if (!tmpFile.renameTo(outputFile)) throw new IOException("Could not rename " + tmpFile + " to " + outputFile);
+                    ok = true;
+                } finally {
+                    if (!ok) tmpFile.delete();
+                }
+                inputBytes.addAndGet(inputFile.length());
+            }
+        };
+        BatchScheduler.Listener<String> listener = new BatchScheduler.Listener<String>() {
+            private long mLastProgress = start;
+
+            @Override
+            public void onItemFinished(String path, Throwable error, int finishedCount, int totalCount) {
+                if (error != null) System.err.println("Could not label " + path + ": " + error);
+                long now = System.currentTimeMillis();
+                if (now - mLastProgress >= PROGRESS_INTERVAL_MS) {
+                    mLastProgress = now;
+                    System.out.println(finishedCount + "/" + totalCount + " " + finishedCount * 1000L / Math.max(1, now - start) + " pictures/s");
+                }
+            }
+        };
+
+        BatchScheduler.Result result = new BatchScheduler<String>(threadCount).run(paths, job, listener);
+        long duration = Math.max(1, System.currentTimeMillis() - start);
+        int labeledCount = result.succeeded - skippedCount.get();
+        System.out.println("labeled=" + labeledCount + " (bandOnly=" + engine.getBandOnlyCount() + " wholeImage=" + engine.getWholeImageCount()
+                + ") skipped=" + skippedCount.get() + " failed=" + result.failed + " in " + duration + " ms");
+        System.out.println(String.format(Locale.US, "%.1f pictures/s, %.1f pictures/s per thread, %.1f MB/s read", labeledCount * 1000f / duration,
+                labeledCount * 1000f / duration / threadCount, inputBytes.get() * 1000f / duration / (1024 * 1024)));
+    }
+
+    private static String replaceExtension(String path, String extension) {
+        int dotIndex = path.lastIndexOf('.');
+        return (dotIndex == -1 ? path : path.substring(0, dotIndex)) + extension;
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.exif;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+/**
+ * The sample JPEGs are generated: an EXIF segment built tag by tag, followed by the start of a scan (the reader stops before it).
+ */
+public class ExifReaderTest {
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_DATETIME = 0x0132;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_GPS_IFD = 0x8825;
+    private static final int TAG_DATETIME_ORIGINAL = 0x9003;
+    private static final int TAG_GPS_LATITUDE_REF = 0x0001;
+    private static final int TAG_GPS_LATITUDE = 0x0002;
+    private static final int TAG_GPS_LONGITUDE_REF = 0x0003;
+    private static final int TAG_GPS_LONGITUDE = 0x0004;
+
+    private static final int TYPE_ASCII = 2;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_RATIONAL = 5;
+
+    private static final String DATE_TIME = "2013:06:01 12:34:56";
+    private static final String DATE_TIME_ORIGINAL = "2013:06:01 12:00:00";
+
+    /*
+     * 48 degrees 51' 30", and 2 degrees 17' 39.84".
+     */
+    private static final double LATITUDE = 48 + 51 / 60d + 30 / 3600d;
+    private static final double LONGITUDE = 2 + 17 / 60d + 39.84 / 3600d;
+    private static final double DELTA = 1e-9;
+
+    /**
+     * Writes a TIFF structure, in either byte order. The IFD at offset 8 is the first one.
+     */
+    private static class TiffBuilder {
+        private final ByteBuffer mBuffer = ByteBuffer.allocate(1024);
+
+        public TiffBuilder(ByteOrder order) {
+            mBuffer.order(order);
+            byte byteOrderMark = (byte) (order == ByteOrder.LITTLE_ENDIAN ? 'I' : 'M');
+            mBuffer.put(byteOrderMark).put(byteOrderMark).putShort((short) 42).putInt(8);
+        }
+
+        public int getPosition() {
+            return mBuffer.position();
+        }
+
+        public TiffBuilder ifd(int entryCount) {
+            mBuffer.putShort((short) entryCount);
+            return this;
+        }
+
+        /**
+         * @param value The value itself for a single SHORT or LONG, or the offset of the values.
+         */
+        public TiffBuilder entry(int tag, int type, int count, int value) {
+            mBuffer.putShort((short) tag).putShort((short) type).putInt(count);
+            if (type == TYPE_SHORT && count == 1) {
+                mBuffer.putShort((short) value).putShort((short) 0);
+            } else {
+                mBuffer.putInt(value);
+            }
+            return this;
+        }
+
+        /**
+         * An ASCII entry short enough to be stored in the entry itself.
+         */
+        public TiffBuilder entry(int tag, String value) {
+            mBuffer.putShort((short) tag).putShort((short) TYPE_ASCII).putInt(value.length() + 1);
+            mBuffer.put(Arrays.copyOf(value.getBytes(), 4));
+            return this;
+        }
+
+        public TiffBuilder nextIfd(int offset) {
+            mBuffer.putInt(offset);
+            return this;
+        }
+
+        public TiffBuilder ascii(String value) {
+            mBuffer.put(value.getBytes()).put((byte) 0);
+            return this;
+        }
+
+        /**
+         * @param values Numerator and denominator of each rational.
+         */
+        public TiffBuilder rationals(int... values) {
+            for (int value : values) {
+                mBuffer.putInt(value);
+            }
+            return this;
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(mBuffer.array(), mBuffer.position());
+        }
+    }
+
+    private static int getIfdSize(int entryCount) {
+        return 2 + entryCount * 12 + 4;
+    }
+
+    /**
+     * @return The TIFF structure of a camera picture: date/time and orientation in IFD0, original date/time in the EXIF IFD, and the location in
+     *         the GPS IFD (without the refs that are {@code null}).
+     */
+    private static byte[] buildCameraTiff(ByteOrder order, int orientation, String latitudeRef, String longitudeRef) {
+        int gpsEntryCount = 2 + (latitudeRef == null ? 0 : 1) + (longitudeRef == null ? 0 : 1);
+        int dateTime = 8 + getIfdSize(4);
+        int exifIfd = dateTime + DATE_TIME.length() + 1;
+        int dateTimeOriginal = exifIfd + getIfdSize(1);
+        int gpsIfd = dateTimeOriginal + DATE_TIME_ORIGINAL.length() + 1;
+        int latitude = gpsIfd + getIfdSize(gpsEntryCount);
+        int longitude = latitude + 24;
+
+        TiffBuilder res = new TiffBuilder(order);
+        res.ifd(4).entry(TAG_ORIENTATION, TYPE_SHORT, 1, orientation).entry(TAG_DATETIME, TYPE_ASCII, DATE_TIME.length() + 1, dateTime)
+                .entry(TAG_EXIF_IFD, TYPE_LONG, 1, exifIfd).entry(TAG_GPS_IFD, TYPE_LONG, 1, gpsIfd).nextIfd(0);
+        res.ascii(DATE_TIME);
+        res.ifd(1).entry(TAG_DATETIME_ORIGINAL, TYPE_ASCII, DATE_TIME_ORIGINAL.length() + 1, dateTimeOriginal).nextIfd(0);
+        res.ascii(DATE_TIME_ORIGINAL);
+        res.ifd(gpsEntryCount);
+        if (latitudeRef != null) res.entry(TAG_GPS_LATITUDE_REF, latitudeRef);
+        res.entry(TAG_GPS_LATITUDE, TYPE_RATIONAL, 3, latitude);
+        if (longitudeRef != null) res.entry(TAG_GPS_LONGITUDE_REF, longitudeRef);
+        res.entry(TAG_GPS_LONGITUDE, TYPE_RATIONAL, 3, longitude).nextIfd(0);
+        res.rationals(48, 1, 51, 1, 3000, 100);
+        res.rationals(2, 1, 17, 1, 3984, 100);
+        assertEquals(longitude + 24, res.getPosition());
+        return res.toByteArray();
+    }
+
+    private static byte[] buildExifSegment(byte[] tiff) {
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
+        res.write('E');
+        res.write('x');
+        res.write('i');
+        res.write('f');
+        res.write(0);
+        res.write(0);
+        res.write(tiff, 0, tiff.length);
+        return res.toByteArray();
+    }
+
+    private static byte[] buildXmpSegment() {
+        return "http://ns.adobe.com/xap/1.0/\0<x:xmpmeta xmlns:x=\"adobe:ns:meta/\"/>".getBytes();
+    }
+
+    /**
+     * @return A JPEG stream with the given APP1 segments, after a JFIF segment.
+     */
+    private static byte[] buildJpeg(byte[]... app1Segments) {
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
+        res.write(0xFF);
+        res.write(0xD8);
+        writeSegment(res, 0xE0, "JFIF\0\1\1\0\0\1\0\1\0\0".getBytes());
+        for (byte[] segment : app1Segments) {
+            writeSegment(res, 0xE1, segment);
+        }
+        // Start of scan, followed by nothing: the reader must not go further
+        res.write(0xFF);
+        res.write(0xDA);
+        return res.toByteArray();
+    }
+
+    private static void writeSegment(ByteArrayOutputStream out, int marker, byte[] segment) {
+        out.write(0xFF);
+        out.write(marker);
+        out.write((segment.length + 2) >> 8);
+        out.write((segment.length + 2) & 0xFF);
+        out.write(segment, 0, segment.length);
+    }
+
+    private static ExifMetadata read(byte[] jpeg) throws IOException {
+        return ExifReader.read(new ByteArrayInputStream(jpeg));
+    }
+
+    private static ExifMetadata readTiff(byte[] tiff) throws IOException {
+        return read(buildJpeg(buildExifSegment(tiff)));
+    }
+
+    private static void assertCameraTags(ExifMetadata exif) {
+        assertEquals(DATE_TIME, exif.getDateTime());
+        assertEquals(ExifOrientation.ROTATE_90, exif.getOrientation());
+        assertTrue(exif.hasLatLong());
+        assertEquals(LATITUDE, exif.getLatitude(), DELTA);
+        assertEquals(LONGITUDE, exif.getLongitude(), DELTA);
+    }
+
+    @Test
+    public void littleEndian() throws IOException {
+        ExifMetadata exif = readTiff(buildCameraTiff(ByteOrder.LITTLE_ENDIAN, ExifOrientation.ROTATE_90, "N", "E"));
+        assertCameraTags(exif);
+        assertEquals(2 + 18, exif.getSegmentOffset());
+    }
+
+    @Test
+    public void bigEndian() throws IOException {
+        assertCameraTags(readTiff(buildCameraTiff(ByteOrder.BIG_ENDIAN, ExifOrientation.ROTATE_90, "N", "E")));
+    }
+
+    @Test
+    public void xmpBeforeExif() throws IOException {
+        byte[] xmp = buildXmpSegment();
+        byte[] exifSegment = buildExifSegment(buildCameraTiff(ByteOrder.BIG_ENDIAN, ExifOrientation.ROTATE_90, "N", "E"));
+        ExifMetadata exif = read(buildJpeg(xmp, exifSegment));
+        assertCameraTags(exif);
+        // After SOI, JFIF and XMP
+        assertEquals(2 + 18 + 4 + xmp.length, exif.getSegmentOffset());
+        assertEquals(4 + exifSegment.length, exif.getSegmentLength());
+    }
+
+    @Test
+    public void xmpOnly() throws IOException {
+        assertSame(ExifMetadata.EMPTY, read(buildJpeg(buildXmpSegment())));
+    }
+
+    @Test
+    public void gpsRefs() throws IOException {
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN }) {
+            ExifMetadata exif = readTiff(buildCameraTiff(order, ExifOrientation.NORMAL, "S", "W"));
+            assertTrue(exif.hasLatLong());
+            assertEquals(-LATITUDE, exif.getLatitude(), DELTA);
+            assertEquals(-LONGITUDE, exif.getLongitude(), DELTA);
+
+            exif = readTiff(buildCameraTiff(order, ExifOrientation.NORMAL, "N", "W"));
+            assertEquals(LATITUDE, exif.getLatitude(), DELTA);
+            assertEquals(-LONGITUDE, exif.getLongitude(), DELTA);
+
+            exif = readTiff(buildCameraTiff(order, ExifOrientation.NORMAL, "S", "E"));
+            assertEquals(-LATITUDE, exif.getLatitude(), DELTA);
+            assertEquals(LONGITUDE, exif.getLongitude(), DELTA);
+        }
+    }
+
+    @Test
+    public void missingGpsRefHasNoLatLong() throws IOException {
+        assertFalse(readTiff(buildCameraTiff(ByteOrder.LITTLE_ENDIAN, ExifOrientation.NORMAL, null, "E")).hasLatLong());
+        assertFalse(readTiff(buildCameraTiff(ByteOrder.LITTLE_ENDIAN, ExifOrientation.NORMAL, "N", null)).hasLatLong());
+    }
+
+    @Test
+    public void gpsRationalWithZeroDenominatorIsIgnored() throws IOException {
+        int latitude = 8 + getIfdSize(3);
+        TiffBuilder tiff = new TiffBuilder(ByteOrder.LITTLE_ENDIAN);
+        tiff.ifd(1).entry(TAG_GPS_IFD, TYPE_LONG, 1, 8 + getIfdSize(1)).nextIfd(0);
+        tiff.ifd(4).entry(TAG_GPS_LATITUDE_REF, "N").entry(TAG_GPS_LATITUDE, TYPE_RATIONAL, 3, latitude + 12)
+                .entry(TAG_GPS_LONGITUDE_REF, "E").entry(TAG_GPS_LONGITUDE, TYPE_RATIONAL, 3, latitude + 12 + 24).nextIfd(0);
+        tiff.rationals(48, 1, 51, 0, 30, 1);
+        tiff.rationals(2, 1, 17, 1, 3984, 100);
+        assertFalse(readTiff(tiff.toByteArray()).hasLatLong());
+    }
+
+    @Test
+    public void orientation() throws IOException {
+        for (int orientation = ExifOrientation.NORMAL; orientation <= ExifOrientation.ROTATE_270; orientation++) {
+            assertEquals(orientation, readTiff(buildCameraTiff(ByteOrder.LITTLE_ENDIAN, orientation, "N", "E")).getOrientation());
+            assertEquals(orientation, readTiff(buildCameraTiff(ByteOrder.BIG_ENDIAN, orientation, "N", "E")).getOrientation());
+        }
+
+        // Invalid values are ignored
+        assertEquals(ExifOrientation.NORMAL, readTiff(buildCameraTiff(ByteOrder.LITTLE_ENDIAN, 0, "N", "E")).getOrientation());
+        assertEquals(ExifOrientation.NORMAL, readTiff(buildCameraTiff(ByteOrder.BIG_ENDIAN, 9, "N", "E")).getOrientation());
+
+        // Some writers use a LONG
+        TiffBuilder tiff = new TiffBuilder(ByteOrder.BIG_ENDIAN);
+        tiff.ifd(1).entry(TAG_ORIENTATION, TYPE_LONG, 1, ExifOrientation.ROTATE_180).nextIfd(0);
+        assertEquals(ExifOrientation.ROTATE_180, readTiff(tiff.toByteArray()).getOrientation());
+    }
+
+    @Test
+    public void dateTimeOriginalWithoutDateTime() throws IOException {
+        int exifIfd = 8 + getIfdSize(1);
+        TiffBuilder tiff = new TiffBuilder(ByteOrder.LITTLE_ENDIAN);
+        tiff.ifd(1).entry(TAG_EXIF_IFD, TYPE_LONG, 1, exifIfd).nextIfd(0);
+        tiff.ifd(1).entry(TAG_DATETIME_ORIGINAL, TYPE_ASCII, DATE_TIME_ORIGINAL.length() + 1, exifIfd + getIfdSize(1)).nextIfd(0);
+        tiff.ascii(DATE_TIME_ORIGINAL);
+        assertEquals(DATE_TIME_ORIGINAL, readTiff(tiff.toByteArray()).getDateTime());
+    }
+
+    @Test(timeout = 5000)
+    public void loopingIfdOffsets() throws IOException {
+        int exifIfd = 8 + getIfdSize(3);
+        int dateTime = exifIfd + getIfdSize(2);
+        TiffBuilder tiff = new TiffBuilder(ByteOrder.BIG_ENDIAN);
+        // IFD0 points to itself as its GPS IFD and as the next IFD
+        tiff.ifd(3).entry(TAG_ORIENTATION, TYPE_SHORT, 1, ExifOrientation.ROTATE_270).entry(TAG_EXIF_IFD, TYPE_LONG, 1, exifIfd)
+                .entry(TAG_GPS_IFD, TYPE_LONG, 1, 8).nextIfd(8);
+        // The EXIF IFD points back to IFD0, and to itself
+        tiff.ifd(2).entry(TAG_DATETIME, TYPE_ASCII, DATE_TIME.length() + 1, dateTime).entry(TAG_EXIF_IFD, TYPE_LONG, 1, 8).nextIfd(exifIfd);
+        tiff.ascii(DATE_TIME);
+        ExifMetadata exif = readTiff(tiff.toByteArray());
+        assertEquals(DATE_TIME, exif.getDateTime());
+        assertEquals(ExifOrientation.ROTATE_270, exif.getOrientation());
+        assertFalse(exif.hasLatLong());
+        assertNull(exif.getThumbnail());
+    }
+
+    @Test
+    public void truncatedIfdOffsets() throws IOException {
+        // IFD0 past the end of the data
+        TiffBuilder tiff = new TiffBuilder(ByteOrder.LITTLE_ENDIAN);
+        byte[] data = tiff.ifd(0).nextIfd(0).toByteArray();
+        ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).putInt(4, 1000);
+        ExifMetadata exif = readTiff(data);
+        assertTrue(exif.hasTiffData());
+        assertNull(exif.getDateTime());
+        assertEquals(ExifOrientation.NORMAL, exif.getOrientation());
+
+        // More entries than the data holds
+        tiff = new TiffBuilder(ByteOrder.BIG_ENDIAN);
+        tiff.ifd(100).entry(TAG_ORIENTATION, TYPE_SHORT, 1, ExifOrientation.ROTATE_90).nextIfd(0);
+        assertEquals(ExifOrientation.NORMAL, readTiff(tiff.toByteArray()).getOrientation());
+
+        // Sub IFDs and values past the end of the data
+        tiff = new TiffBuilder(ByteOrder.BIG_ENDIAN);
+        tiff.ifd(4).entry(TAG_ORIENTATION, TYPE_SHORT, 1, ExifOrientation.ROTATE_90).entry(TAG_DATETIME, TYPE_ASCII, DATE_TIME.length() + 1, 1000)
+                .entry(TAG_EXIF_IFD, TYPE_LONG, 1, 2000).entry(TAG_GPS_IFD, TYPE_LONG, 1, 8 + getIfdSize(4)).nextIfd(3000);
+        tiff.ifd(4).entry(TAG_GPS_LATITUDE_REF, "N").entry(TAG_GPS_LATITUDE, TYPE_RATIONAL, 3, 1000).entry(TAG_GPS_LONGITUDE_REF, "E")
+                .entry(TAG_GPS_LONGITUDE, TYPE_RATIONAL, 3, -8).nextIfd(0);
+        exif = readTiff(tiff.toByteArray());
+        assertEquals(ExifOrientation.ROTATE_90, exif.getOrientation());
+        assertNull(exif.getDateTime());
+        assertFalse(exif.hasLatLong());
+        assertNull(exif.getThumbnail());
+
+        // Not even a header
+        exif = readTiff(new byte[] { 'I', 'I', 42 });
+        assertTrue(exif.hasTiffData());
+        assertEquals(ExifOrientation.NORMAL, exif.getOrientation());
+    }
+
+    @Test
+    public void noExif() throws IOException {
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", out);
+        assertSame(ExifMetadata.EMPTY, read(out.toByteArray()));
+    }
+
+    @Test
+    public void notJpeg() throws IOException {
+        assertSame(ExifMetadata.EMPTY, read("GIF89a".getBytes()));
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.geo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingReverseGeocoderTest {
+    private static final int PRECISION = 7;
+    private static final long TIME_TO_LIVE = 1000;
+
+    /*
+     * A cell of precision 7 is 0.0013733 degrees wide in latitude and longitude.
+     */
+    private static final double LAT = 48.85835;
+    private static final double LON = 2.29440;
+    private static final double LAT_SAME_CELL = 48.85845;
+    private static final double LON_SAME_CELL = 2.29450;
+    private static final double LON_NEIGHBOUR_CELL = LON + 0.0014;
+
+    /**
+     * Returns a different address for each call, so that a cached address can be told from a new one.
+     */
+    private static class CountingReverseGeocoder implements ReverseGeocoder {
+        public int callCount;
+        public boolean returnNull;
+        public boolean fail;
+
+        @Override
+        public String reverseGeocode(double lat, double lon) throws IOException {
+            callCount++;
+            if (fail) throw new IOException("Network problem");
+            if (returnNull) return null;
+            return "Address " + callCount;
+        }
+    }
+
+    private static class ClockCachingReverseGeocoder extends CachingReverseGeocoder {
+        public long now;
+
+        public IOException saveError;
+
+        public ClockCachingReverseGeocoder(ReverseGeocoder reverseGeocoder, int maxSize, File file) {
+            super(reverseGeocoder, PRECISION, maxSize, TIME_TO_LIVE, file);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+
+        @Override
+        protected void onSaveFailed(IOException e) {
+            saveError = e;
+        }
+    }
+
+    private CountingReverseGeocoder mReverseGeocoder;
+    private ClockCachingReverseGeocoder mCachingReverseGeocoder;
+
+    @Before
+    public void setUp() {
+        mReverseGeocoder = new CountingReverseGeocoder();
+        mCachingReverseGeocoder = new ClockCachingReverseGeocoder(mReverseGeocoder, 2, null);
+    }
+
+    @Test
+    public void sameCellIsCached() throws IOException {
+        assertEquals(GeoHash.encode(LAT, LON, PRECISION), GeoHash.encode(LAT_SAME_CELL, LON_SAME_CELL, PRECISION));
+
+        assertEquals("Address 1", mCachingReverseGeocoder.reverseGeocode(LAT, LON));
+        assertEquals("Address 1", mCachingReverseGeocoder.reverseGeocode(LAT_SAME_CELL, LON_SAME_CELL));
+        assertEquals(1, mReverseGeocoder.callCount);
+        assertEquals(1, mCachingReverseGeocoder.getHitCount());
+        assertEquals(1, mCachingReverseGeocoder.getMissCount());
+    }
+
+    @Test
+    public void neighbourCellIsNotCached() throws IOException {
+        assertFalse(GeoHash.encode(LAT, LON, PRECISION).equals(GeoHash.encode(LAT, LON_NEIGHBOUR_CELL, PRECISION)));
+
+        assertEquals("Address 1", mCachingReverseGeocoder.reverseGeocode(LAT, LON));
+        assertEquals("Address 2", mCachingReverseGeocoder.reverseGeocode(LAT, LON_NEIGHBOUR_CELL));
+        assertEquals(2, mReverseGeocoder.callCount);
+        assertEquals(0, mCachingReverseGeocoder.getHitCount());
+    }
+
+    @Test
+    public void nullAddressIsCached() throws IOException {
+        mReverseGeocoder.returnNull = true;
+        assertNull(mCachingReverseGeocoder.reverseGeocode(LAT, LON));
+        assertNull(mCachingReverseGeocoder.reverseGeocode(LAT_SAME_CELL, LON_SAME_CELL));
+        assertEquals(1, mReverseGeocoder.callCount);
+    }
+
+    @Test
+    public void failureIsNotCached() throws IOException {
+        mReverseGeocoder.fail = true;
+        try {
+            mCachingReverseGeocoder.reverseGeocode(LAT, LON);
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+        assertEquals(0, mCachingReverseGeocoder.getSize());
+
+        mReverseGeocoder.fail = false;
+        assertEquals("Address 2", mCachingReverseGeocoder.reverseGeocode(LAT, LON));
+        assertEquals(2, mReverseGeocoder.callCount);
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvictedAtCapacity() throws IOException {
+        double lonB = LON_NEIGHBOUR_CELL;
+        double lonC = LON_NEIGHBOUR_CELL + 0.0014;
+        mCachingReverseGeocoder.reverseGeocode(LAT, LON);
+        mCachingReverseGeocoder.reverseGeocode(LAT, lonB);
+        // Uses the first cell, so that the second one is the eldest
+        mCachingReverseGeocoder.reverseGeocode(LAT, LON);
+        mCachingReverseGeocoder.reverseGeocode(LAT, lonC);
+        assertEquals(2, mCachingReverseGeocoder.getSize());
+        assertEquals(3, mReverseGeocoder.callCount);
+
+        assertEquals("Address 1", mCachingReverseGeocoder.reverseGeocode(LAT, LON));
+        assertEquals(3, mReverseGeocoder.callCount);
+        assertEquals("Address 4", mCachingReverseGeocoder.reverseGeocode(LAT, lonB));
+        assertEquals(4, mReverseGeocoder.callCount);
+    }
+
+    @Test
+    public void entryExpires() throws IOException {
+        mCachingReverseGeocoder.reverseGeocode(LAT, LON);
+        mCachingReverseGeocoder.now = TIME_TO_LIVE - 1;
+        assertEquals("Address 1", mCachingReverseGeocoder.reverseGeocode(LAT, LON));
+        mCachingReverseGeocoder.now = TIME_TO_LIVE;
+        assertEquals("Address 2", mCachingReverseGeocoder.reverseGeocode(LAT, LON));
+    }
+
+    @Test
+    public void persistedEntriesAreLoaded() throws IOException {
+        File file = File.createTempFile("geocoder", ".txt");
+        try {
+            ClockCachingReverseGeocoder cachingReverseGeocoder = new ClockCachingReverseGeocoder(mReverseGeocoder, 2, file);
+            cachingReverseGeocoder.reverseGeocode(LAT, LON);
+            mReverseGeocoder.returnNull = true;
+            cachingReverseGeocoder.reverseGeocode(LAT, LON_NEIGHBOUR_CELL);
+            cachingReverseGeocoder.flush();
+
+            ClockCachingReverseGeocoder loaded = new ClockCachingReverseGeocoder(mReverseGeocoder, 2, file);
+            loaded.load();
+            assertEquals(2, loaded.getSize());
+            assertEquals("Address 1", loaded.reverseGeocode(LAT_SAME_CELL, LON_SAME_CELL));
+            assertNull(loaded.reverseGeocode(LAT, LON_NEIGHBOUR_CELL));
+            assertEquals(2, mReverseGeocoder.callCount);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void savedEverySaveMissCount() throws IOException {
+        File file = File.createTempFile("geocoder", ".txt");
+        file.delete();
+        try {
+            ClockCachingReverseGeocoder cachingReverseGeocoder = new ClockCachingReverseGeocoder(mReverseGeocoder, 100, file);
+            for (int i = 0; i < CachingReverseGeocoder.SAVE_MISS_COUNT - 1; i++) {
+                cachingReverseGeocoder.reverseGeocode(LAT, LON + i * 0.0014);
+            }
+            assertFalse(file.exists());
+            cachingReverseGeocoder.reverseGeocode(LAT, LON + CachingReverseGeocoder.SAVE_MISS_COUNT * 0.0014);
+            assertTrue(file.exists());
+
+            ClockCachingReverseGeocoder loaded = new ClockCachingReverseGeocoder(mReverseGeocoder, 100, file);
+            loaded.load();
+            assertEquals(CachingReverseGeocoder.SAVE_MISS_COUNT, loaded.getSize());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void saveFailureDoesNotFailLookup() throws IOException {
+        File file = new File(File.createTempFile("geocoder", ".txt").getPath() + ".missing", "geocoder.txt");
+        ClockCachingReverseGeocoder cachingReverseGeocoder = new ClockCachingReverseGeocoder(mReverseGeocoder, 100, file);
+        for (int i = 0; i < CachingReverseGeocoder.SAVE_MISS_COUNT - 1; i++) {
+            cachingReverseGeocoder.reverseGeocode(LAT, LON + i * 0.0014);
+        }
+        assertNull(cachingReverseGeocoder.saveError);
+        // This lookup writes the cache, in a folder that does not exist
+        assertEquals("Address " + CachingReverseGeocoder.SAVE_MISS_COUNT, cachingReverseGeocoder.reverseGeocode(LAT, LON - 0.0014));
+        assertNotNull(cachingReverseGeocoder.saveError);
+        assertEquals(CachingReverseGeocoder.SAVE_MISS_COUNT, cachingReverseGeocoder.getSize());
+
+        // The entries are still written by the next save
+        cachingReverseGeocoder.saveError = null;
+        cachingReverseGeocoder.flush();
+        assertNotNull(cachingReverseGeocoder.saveError);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.geo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.jraf.android.piclabel.desktop.GazetteerTool;
+
+/**
+ * Builds a tiny gazetteer with {@link GazetteerTool} (cells of a quarter of a degree) and looks places up in it.
+ */
+public class GazetteerReverseGeocoderTest {
+    private static final double MAX_DISTANCE_KM = 25;
+
+    private static final String[][] CITIES = {
+            // Name, latitude, longitude, country code
+            { "Paris", "48.85341", "2.3488", "FR" },
+            { "Boulogne-Billancourt", "48.83545", "2.24128", "FR" },
+            { "Saint-Denis", "48.93564", "2.35387", "FR" },
+            { "Lone Town", "10.24", "20.24", "TD" },
+            { "Island East", "-16.74", "179.99", "FJ" },
+            { "Island West", "-14.0", "-179.98", "WF" }, };
+
+    private static GazetteerReverseGeocoder sGeocoder;
+
+    @BeforeClass
+    public static void buildGazetteer() throws IOException {
+        File citiesFile = File.createTempFile("cities", ".txt");
+        File countryInfoFile = File.createTempFile("countryInfo", ".txt");
+        File gazetteerFile = File.createTempFile("gazetteer", ".dat");
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(citiesFile), "UTF-8");
+            try {
+                int id = 1;
+                for (String[] city : CITIES) {
+                    writer.write(id++ + "\t" + city[0] + "\t" + city[0] + "\t\t" + city[1] + "\t" + city[2] + "\tP\tPPL\t" + city[3] + "\n");
+                }
+                writer.write("malformed line\n");
+            } finally {
+                writer.close();
+            }
+            writer = new OutputStreamWriter(new FileOutputStream(countryInfoFile), "UTF-8");
+            try {
+                writer.write("#ISO\tISO3\tISO-Numeric\tfips\tCountry\n");
+                writer.write("FR\tFRA\t250\tFR\tFrance\n");
+                writer.write("FJ\tFJI\t242\tFJ\tFiji\n");
+            } finally {
+                writer.close();
+            }
+            GazetteerTool.main(new String[] { "build", citiesFile.getPath(), countryInfoFile.getPath(), gazetteerFile.getPath() });
+            sGeocoder = new GazetteerReverseGeocoder(gazetteerFile, MAX_DISTANCE_KM);
+        } finally {
+            citiesFile.delete();
+            countryInfoFile.delete();
+            // The mapping stays valid after the file is deleted
+            gazetteerFile.delete();
+        }
+    }
+
+    @AfterClass
+    public static void releaseGazetteer() {
+        sGeocoder = null;
+    }
+
+    @Test
+    public void placeCount() {
+        assertEquals(CITIES.length, sGeocoder.getPlaceCount());
+    }
+
+    @Test
+    public void nearestPlace() {
+        assertEquals("Paris, France", sGeocoder.reverseGeocode(48.857, 2.352));
+        assertEquals("Boulogne-Billancourt, France", sGeocoder.reverseGeocode(48.838, 2.25));
+        assertEquals("Saint-Denis, France", sGeocoder.reverseGeocode(48.92, 2.36));
+    }
+
+    @Test
+    public void countryWithoutName() {
+        // Not in countryInfo.txt: the code is used
+        assertEquals("Lone Town, TD", sGeocoder.reverseGeocode(10.24, 20.24));
+    }
+
+    @Test
+    public void emptyCellFindsNeighbourCell() {
+        // In the cell diagonal to the one of the place, about 3 km away
+        assertEquals("Lone Town, TD", sGeocoder.reverseGeocode(10.26, 20.26));
+    }
+
+    @Test
+    public void emptyCellTooFar() {
+        // About 55 km away
+        assertNull(sGeocoder.reverseGeocode(10.6, 20.6));
+        assertNull(sGeocoder.reverseGeocode(0, 0));
+    }
+
+    @Test
+    public void acrossAntimeridian() {
+        // About 3 km away, on the other side of the 180th meridian, in the row of cells below
+        assertEquals("Island East, Fiji", sGeocoder.reverseGeocode(-16.76, -179.99));
+        assertEquals("Island West, WF", sGeocoder.reverseGeocode(-14.0, 179.98));
+        assertEquals("Island West, WF", sGeocoder.reverseGeocode(-14.0, 180));
+    }
+
+    @Test
+    public void nearPoles() {
+        assertNull(sGeocoder.reverseGeocode(90, 0));
+        assertNull(sGeocoder.reverseGeocode(-90, 180));
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.jpeg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.Test;
+import org.w3c.dom.Node;
+
+import org.jraf.android.piclabel.raster.RasterSource;
+
+/**
+ * The fixtures are generated with the JPEG writer of the JVM, and the transcoded images are checked by decoding their coefficients (which must be
+ * the same as the original ones outside of the band) and their pixels.
+ */
+public class JpegBandTranscoderTest {
+    /*
+     * Not a multiple of the MCU size, so that the last MCU row and column are partial.
+     */
+    private static final int WIDTH = 83;
+    private static final int HEIGHT = 61;
+
+    private static final int BAND_COLOR = 0xFF3060C0;
+    private static final int BAND_TOLERANCE = 12;
+
+    private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+    private static class Result {
+        public JpegFrame frame;
+        public JpegBandTranscoder transcoder;
+        public byte[] source;
+        public byte[] transcoded;
+    }
+
+    @Test
+    public void bottomBand444() throws IOException {
+        check(1, 0, 0, 40, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void bottomBand420() throws IOException {
+        check(2, 0, 0, 40, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void bottomBandWithRestarts() throws IOException {
+        check(1, 5, 0, 40, WIDTH, HEIGHT);
+        check(2, 2, 0, 40, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void topBand() throws IOException {
+        check(1, 0, 0, 0, WIDTH, 10);
+        check(2, 0, 0, 0, WIDTH, 10);
+    }
+
+    @Test
+    public void topBandWithRestarts() throws IOException {
+        check(1, 5, 0, 0, WIDTH, 10);
+        check(2, 4, 0, 0, WIDTH, 10);
+    }
+
+    /**
+     * The MCUs that follow the band on its last MCU row are re-encoded until the DC predictors are in sync again.
+     */
+    @Test
+    public void bandEndingMidMcuRow() throws IOException {
+        check(1, 0, 10, 20, 40, 30);
+        check(2, 0, 10, 20, 40, 30);
+    }
+
+    @Test
+    public void bandEndingMidMcuRowWithRestarts() throws IOException {
+        check(1, 7, 10, 20, 40, 30);
+        check(2, 3, 10, 20, 40, 30);
+    }
+
+    @Test
+    public void bandBoundsAreRoundedToMcus() throws IOException {
+        Result result = check(2, 0, 10, 20, 40, 30);
+        assertEquals(0, result.transcoder.getEncodedLeft());
+        assertEquals(16, result.transcoder.getEncodedTop());
+        assertEquals(48, result.transcoder.getEncodedRight());
+        assertEquals(32, result.transcoder.getEncodedBottom());
+
+        result = check(2, 0, 0, 40, WIDTH, HEIGHT);
+        assertEquals(WIDTH, result.transcoder.getEncodedRight());
+        assertEquals(HEIGHT, result.transcoder.getEncodedBottom());
+    }
+
+    @Test
+    public void progressiveIsRejected() throws IOException {
+        assertRejected(generate(2, 0, true));
+    }
+
+    @Test
+    public void arithmeticCodingIsRejected() throws IOException {
+        byte[] jpeg = generate(2, 0, false);
+        // Turn the baseline frame into an arithmetic-coded one (SOF9): the parser must stop at the frame header
+        for (int i = 2; i < jpeg.length - 1; i++) {
+            if ((jpeg[i] & 0xFF) == 0xFF && (jpeg[i + 1] & 0xFF) == JpegParser.SOF0) {
+                jpeg[i + 1] = (byte) 0xC9;
+                break;
+            }
+        }
+        assertRejected(jpeg);
+    }
+
+    private static void assertRejected(byte[] jpeg) throws IOException {
+        try {
+            JpegParser.parse(new ByteArrayInputStream(jpeg));
+            fail();
+        } catch (JpegException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Unsupported coding process"));
+        }
+    }
+
+    /**
+     * Transcodes a band of a generated image, and checks the result.
+     * 
+     * @param chromaFactor 1 for 4:4:4, 2 for 4:2:0.
+     */
+    private static Result check(int chromaFactor, int restartInterval, int left, int top, int right, int bottom) throws IOException {
+        Result res = transcode(generate(chromaFactor, restartInterval, false), left, top, right, bottom);
+        assertEquals(chromaFactor * 8, res.frame.getMcuWidth());
+        assertEquals(chromaFactor * 8, res.frame.getMcuHeight());
+        assertEquals(restartInterval, res.frame.getRestartInterval());
+
+        // Outside of the band, the coefficients are the ones of the original
+        JpegBandTranscoder transcoder = res.transcoder;
+        int mcuWidth = res.frame.getMcuWidth();
+        int mcuHeight = res.frame.getMcuHeight();
+        List<int[]> sourceBlocks = readBlocks(res.source);
+        List<int[]> transcodedBlocks = readBlocks(res.transcoded);
+        assertEquals(sourceBlocks.size(), transcodedBlocks.size());
+        int blocksPerMcu = res.frame.getBlocksPerMcu();
+        int bandBlockCount = 0;
+        for (int i = 0; i < sourceBlocks.size(); i++) {
+            int mcu = i / blocksPerMcu;
+            int x = mcu % res.frame.getMcusPerRow() * mcuWidth;
+            int y = mcu / res.frame.getMcusPerRow() * mcuHeight;
+            boolean inBand = x >= transcoder.getEncodedLeft() && x < transcoder.getEncodedRight() && y >= transcoder.getEncodedTop()
+                    && y < transcoder.getEncodedBottom();
+            if (inBand) {
+                bandBlockCount++;
+            } else {
+                assertArrayEquals("Block " + i, sourceBlocks.get(i), transcodedBlocks.get(i));
+            }
+        }
+        assertTrue(bandBlockCount > 0);
+
+        // The band has its new pixels (away from its edges, where the chroma is upsampled from the neighbour MCUs), and the pixels below the
+        // band (and the MCU row that the upsampling reads) are the original ones
+        BufferedImage sourceImage = ImageIO.read(new ByteArrayInputStream(res.source));
+        BufferedImage transcodedImage = ImageIO.read(new ByteArrayInputStream(res.transcoded));
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int pixel = transcodedImage.getRGB(x, y);
+                if (x >= transcoder.getEncodedLeft() + 2 && x < transcoder.getEncodedRight() - 2 && y >= transcoder.getEncodedTop() + 2
+                        && y < transcoder.getEncodedBottom() - 2) {
+                    assertClose("Pixel " + x + "," + y, BAND_COLOR, pixel);
+                } else if (y >= transcoder.getEncodedBottom() + mcuHeight) {
+                    assertEquals("Pixel " + x + "," + y, sourceImage.getRGB(x, y), pixel);
+                }
+            }
+        }
+
+        // With restart markers, everything from the first marker after the band is copied as is
+        if (restartInterval > 0) {
+            int lastBandMcu = (transcoder.getEncodedBottom() - 1) / mcuHeight * res.frame.getMcusPerRow() + (transcoder.getEncodedRight() - 1)
+                    / mcuWidth;
+            int marker = lastBandMcu / restartInterval + 1;
+            int mcuCount = res.frame.getMcusPerRow() * res.frame.getMcuRows();
+            if (marker * restartInterval < mcuCount) {
+                int sourceOffset = findRestartMarker(res.source, res.frame.getHeaderBytes().length, marker);
+                int transcodedOffset = findRestartMarker(res.transcoded, res.frame.getHeaderBytes().length, marker);
+                assertArrayEquals(Arrays.copyOfRange(res.source, sourceOffset, res.source.length),
+                        Arrays.copyOfRange(res.transcoded, transcodedOffset, res.transcoded.length));
+            }
+        }
+        return res;
+    }
+
+    private static Result transcode(byte[] jpeg, int left, int top, int right, int bottom) throws IOException {
+        Result res = new Result();
+        res.source = jpeg;
+        InputStream in = new ByteArrayInputStream(jpeg);
+        res.frame = JpegParser.parse(in);
+        res.transcoder = new JpegBandTranscoder(res.frame, left, top, right, bottom);
+        final JpegBandTranscoder transcoder = res.transcoder;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        transcoder.transcode(in, out, new RasterSource() {
+            @Override
+            public void readPixels(int x, int y, int width, int height, int[] argb) {
+                assertTrue(x >= transcoder.getEncodedLeft() && x + width <= transcoder.getEncodedRight());
+                assertTrue(y >= transcoder.getEncodedTop() && y + height <= transcoder.getEncodedBottom());
+                Arrays.fill(argb, 0, width * height, BAND_COLOR);
+            }
+        });
+        res.transcoded = out.toByteArray();
+        return res;
+    }
+
+    /**
+     * @return The coefficients of all the blocks, in the order of the stream.
+     */
+    private static List<int[]> readBlocks(byte[] jpeg) throws IOException {
+        InputStream in = new ByteArrayInputStream(jpeg);
+        JpegFrame frame = JpegParser.parse(in);
+        JpegFrame.Component[] components = frame.getComponents();
+        EntropyReader reader = new EntropyReader(in);
+        int[] predictors = new int[components.length];
+        int mcuCount = frame.getMcusPerRow() * frame.getMcuRows();
+        int restartInterval = frame.getRestartInterval();
+        List<int[]> res = new ArrayList<int[]>();
+        for (int mcu = 0; mcu < mcuCount; mcu++) {
+            if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+                assertEquals(JpegParser.RST0 + ((mcu / restartInterval - 1) & 7), reader.nextMarker());
+                Arrays.fill(predictors, 0);
+            }
+            for (int c = 0; c < components.length; c++) {
+                JpegFrame.Component component = components[c];
+                for (int i = 0; i < component.getHorizontalFactor() * component.getVerticalFactor(); i++) {
+                    int[] coefficients = new int[64];
+                    predictors[c] = BlockCodec.decodeBlock(reader, component.getDcTable(), component.getAcTable(), predictors[c], coefficients);
+                    res.add(coefficients);
+                }
+            }
+        }
+        assertEquals(JpegParser.EOI, reader.nextMarker());
+        return res;
+    }
+
+    /**
+     * @return The offset of the {@code n}th restart marker (starting at 1) of the entropy-coded data.
+     */
+    private static int findRestartMarker(byte[] jpeg, int dataOffset, int n) {
+        int count = 0;
+        for (int i = dataOffset; i < jpeg.length - 1; i++) {
+            if ((jpeg[i] & 0xFF) != 0xFF) continue;
+            int marker = jpeg[i + 1] & 0xFF;
+            if (marker >= JpegParser.RST0 && marker <= JpegParser.RST0 + 7 && ++count == n) return i;
+        }
+        throw new AssertionError("Restart marker " + n + " not found");
+    }
+
+    private static void assertClose(String message, int expected, int actual) {
+        for (int shift = 0; shift < 24; shift += 8) {
+            int difference = Math.abs(((expected >> shift) & 0xFF) - ((actual >> shift) & 0xFF));
+            if (difference > BAND_TOLERANCE) {
+                fail(message + ": expected " + Integer.toHexString(expected) + " but was " + Integer.toHexString(actual));
+            }
+        }
+    }
+
+    /**
+     * Encodes a colorful pattern, so that the blocks have AC coefficients.
+     * 
+     * @param chromaFactor The sampling factors of the luma component: 1 for 4:4:4, 2 for 4:2:0.
+     * @param restartInterval The number of MCUs between restart markers, or 0 for none.
+     */
+    private static byte[] generate(int chromaFactor, int restartInterval, boolean progressive) throws IOException {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int r = (x * 7 + y * 3) & 0xFF;
+                int g = (x * y) & 0xFF;
+                int b = ((x * 31) ^ (y * 17)) & 0xFF;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (progressive) param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), param);
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(JPEG_METADATA_FORMAT);
+        IIOMetadataNode markerSequence = (IIOMetadataNode) root.getElementsByTagName("markerSequence").item(0);
+        IIOMetadataNode sof = (IIOMetadataNode) markerSequence.getElementsByTagName("sof").item(0);
+        for (Node componentSpec = sof.getFirstChild(); componentSpec != null; componentSpec = componentSpec.getNextSibling()) {
+            IIOMetadataNode element = (IIOMetadataNode) componentSpec;
+            boolean luma = "1".equals(element.getAttribute("componentId"));
+            element.setAttribute("HsamplingFactor", luma ? String.valueOf(chromaFactor) : "1");
+            element.setAttribute("VsamplingFactor", luma ? String.valueOf(chromaFactor) : "1");
+        }
+        if (restartInterval > 0) {
+            IIOMetadataNode dri = new IIOMetadataNode("dri");
+            dri.setAttribute("interval", String.valueOf(restartInterval));
+            markerSequence.insertBefore(dri, sof);
+        }
+        metadata.setFromTree(JPEG_METADATA_FORMAT, root);
+
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
+        ImageOutputStream out = ImageIO.createImageOutputStream(res);
+        try {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, metadata), param);
+        } finally {
+            out.close();
+            writer.dispose();
+        }
+        return res.toByteArray();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.layout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LabelLayoutEngineTest {
+    private static final int IMAGE_HEIGHT = 700;
+    private static final int TEXT_SIZE = IMAGE_HEIGHT / 35;
+    private static final int MARGIN = TEXT_SIZE / 5;
+
+    private static final String DATE_TIME = "2013-06-01 12:00";
+    private static final String LOCATION = "Paris, France";
+
+    /**
+     * Each character is half the text size wide, with some space on the left. Text goes 3/4 of the size above the baseline, and 1/4 below it
+     * (1/2 for texts with a comma, so that the two texts have different bounds).
+     */
+    private static class StubTextMeasurer implements TextMeasurer {
+        public int measureCount;
+
+        @Override
+        public void measure(String text, int textSize, int[] bounds) {
+            measureCount++;
+            bounds[0] = 1;
+            bounds[1] = -textSize * 3 / 4;
+            bounds[2] = 1 + text.length() * textSize / 2;
+            bounds[3] = text.indexOf(',') == -1 ? textSize / 4 : textSize / 2;
+        }
+    }
+
+    private StubTextMeasurer mTextMeasurer;
+    private int[] mBoundsDateTime;
+    private int[] mBoundsLocation;
+
+    @Before
+    public void setUp() {
+        mTextMeasurer = new StubTextMeasurer();
+        mBoundsDateTime = new int[4];
+        mTextMeasurer.measure(DATE_TIME, TEXT_SIZE, mBoundsDateTime);
+        mBoundsLocation = new int[4];
+        mTextMeasurer.measure(LOCATION, TEXT_SIZE, mBoundsLocation);
+        mTextMeasurer.measureCount = 0;
+    }
+
+    private int getOneLineWidth() {
+        return mBoundsDateTime[2] - mBoundsDateTime[0] + TEXT_SIZE * 2 + mBoundsLocation[2] - mBoundsLocation[0];
+    }
+
+    @Test
+    public void oneLine() {
+        int imageWidth = getOneLineWidth();
+        LabelLayout layout = new LabelLayoutEngine(4).getLayout(DATE_TIME, LOCATION, "font", mTextMeasurer, imageWidth, IMAGE_HEIGHT);
+
+        assertFalse(layout.isTwoLines());
+        assertEquals(TEXT_SIZE, layout.getTextSize());
+        assertEquals(imageWidth, layout.getWidth());
+        int heightDateTime = mBoundsDateTime[3] - mBoundsDateTime[1];
+        int heightLocation = mBoundsLocation[3] - mBoundsLocation[1];
+        assertEquals(MARGIN + Math.max(heightDateTime, heightLocation) + MARGIN, layout.getHeight());
+        assertEquals(DATE_TIME, layout.getDateTime());
+        assertEquals(MARGIN, layout.getDateTimeX());
+        assertEquals(MARGIN + -mBoundsDateTime[1], layout.getDateTimeY());
+        assertEquals(LOCATION, layout.getLocation());
+        assertEquals(imageWidth - mBoundsLocation[2] - mBoundsLocation[0] - MARGIN, layout.getLocationX());
+        assertEquals(MARGIN + -mBoundsLocation[1], layout.getLocationY());
+    }
+
+    @Test
+    public void twoLines() {
+        int imageWidth = getOneLineWidth() - 1;
+        LabelLayout layout = new LabelLayoutEngine(4).getLayout(DATE_TIME, LOCATION, "font", mTextMeasurer, imageWidth, IMAGE_HEIGHT);
+
+        assertTrue(layout.isTwoLines());
+        assertEquals(TEXT_SIZE, layout.getTextSize());
+        assertEquals(imageWidth, layout.getWidth());
+        assertEquals(-mBoundsDateTime[1] + mBoundsDateTime[3] + -mBoundsLocation[1] + mBoundsLocation[3] + MARGIN * 3, layout.getHeight());
+        assertEquals(MARGIN, layout.getDateTimeX());
+        assertEquals(MARGIN + -mBoundsDateTime[1], layout.getDateTimeY());
+        assertEquals(imageWidth - mBoundsLocation[2] - mBoundsLocation[0] - MARGIN, layout.getLocationX());
+        assertEquals(MARGIN + -mBoundsDateTime[1] + mBoundsDateTime[3] + MARGIN + -mBoundsLocation[1], layout.getLocationY());
+    }
+
+    @Test
+    public void sameKeyIsCached() {
+        LabelLayoutEngine engine = new LabelLayoutEngine(4);
+        LabelLayout first = engine.getLayout(DATE_TIME, LOCATION, "font", mTextMeasurer, 1000, IMAGE_HEIGHT);
+        assertEquals(1, engine.getMissCount());
+        assertEquals(0, engine.getHitCount());
+        assertEquals(2, mTextMeasurer.measureCount);
+
+        LabelLayout second = engine.getLayout(DATE_TIME, LOCATION, "font", mTextMeasurer, 1000, IMAGE_HEIGHT);
+        assertSame(first, second);
+        assertEquals(1, engine.getMissCount());
+        assertEquals(1, engine.getHitCount());
+        assertEquals(2, mTextMeasurer.measureCount);
+    }
+
+    @Test
+    public void otherKeyIsNotCached() {
+        LabelLayoutEngine engine = new LabelLayoutEngine(4);
+        engine.getLayout(DATE_TIME, LOCATION, "font", mTextMeasurer, 1000, IMAGE_HEIGHT);
+        engine.getLayout(DATE_TIME, LOCATION, "otherFont", mTextMeasurer, 1000, IMAGE_HEIGHT);
+        engine.getLayout(DATE_TIME, LOCATION, "font", mTextMeasurer, 1001, IMAGE_HEIGHT);
+        engine.getLayout(DATE_TIME, "Lyon, France", "font", mTextMeasurer, 1000, IMAGE_HEIGHT);
+        assertEquals(4, engine.getMissCount());
+        assertEquals(0, engine.getHitCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() {
+        LabelLayoutEngine engine = new LabelLayoutEngine(2);
+        engine.getLayout(DATE_TIME, LOCATION, "a", mTextMeasurer, 1000, IMAGE_HEIGHT);
+        engine.getLayout(DATE_TIME, LOCATION, "b", mTextMeasurer, 1000, IMAGE_HEIGHT);
+        // Uses a, so that b is the eldest
+        engine.getLayout(DATE_TIME, LOCATION, "a", mTextMeasurer, 1000, IMAGE_HEIGHT);
+        engine.getLayout(DATE_TIME, LOCATION, "c", mTextMeasurer, 1000, IMAGE_HEIGHT);
+        assertEquals(3, engine.getMissCount());
+
+        engine.getLayout(DATE_TIME, LOCATION, "a", mTextMeasurer, 1000, IMAGE_HEIGHT);
+        assertEquals(3, engine.getMissCount());
+        engine.getLayout(DATE_TIME, LOCATION, "b", mTextMeasurer, 1000, IMAGE_HEIGHT);
+        assertEquals(4, engine.getMissCount());
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.raster;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import org.jraf.android.piclabel.jpeg.JpegStripEncoder;
+
+public class StripPipelineTest {
+    private static final int WIDTH = 37;
+    private static final int HEIGHT = 100;
+    private static final int OVERLAY_COLOR = 0xFFFF00FF;
+
+    /**
+     * An image in memory, whose pixels tell their position.
+     */
+    private static class ArrayRasterSource implements RasterSource {
+        public final List<Integer> readTops = new ArrayList<Integer>();
+
+        public static int getPixel(int x, int y) {
+            return 0xFF000000 | y * WIDTH + x;
+        }
+
+        @Override
+        public void readPixels(int x, int y, int width, int height, int[] argb) {
+            assertEquals(0, x);
+            assertEquals(WIDTH, width);
+            readTops.add(y);
+            for (int row = 0; row < height; row++) {
+                for (int column = 0; column < width; column++) {
+                    argb[row * width + column] = getPixel(x + column, y + row);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the rows between its top and bottom, and records the strips it is drawn on.
+     */
+    private static class FillOverlay implements StripOverlay {
+        private final int mTop;
+        private final int mBottom;
+        public final List<Integer> drawTops = new ArrayList<Integer>();
+
+        public FillOverlay(int top, int bottom) {
+            mTop = top;
+            mBottom = bottom;
+        }
+
+        @Override
+        public void draw(int[] argb, int y, int width, int rowCount) {
+            drawTops.add(y);
+            for (int row = Math.max(0, mTop - y); row < Math.min(rowCount, mBottom - y); row++) {
+                for (int x = 0; x < width; x++) {
+                    argb[row * width + x] = OVERLAY_COLOR;
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the rows it is given, in order, and checks the calls.
+     */
+    private static class RecordingEncoder implements StripEncoder {
+        private final int mRowAlignment;
+        public final List<Integer> stripHeights = new ArrayList<Integer>();
+        public int[] image;
+        public int rowsWritten;
+        public boolean finished;
+
+        public RecordingEncoder(int rowAlignment) {
+            mRowAlignment = rowAlignment;
+        }
+
+        @Override
+        public int getRowAlignment() {
+            return mRowAlignment;
+        }
+
+        @Override
+        public void start(int width, int height) {
+            assertEquals(null, image);
+            image = new int[width * height];
+        }
+
+        @Override
+        public void writeStrip(int[] argb, int rowCount) {
+            assertTrue(image != null && !finished);
+            // All the strips but the last are aligned
+            if (!stripHeights.isEmpty()) assertEquals(0, stripHeights.get(stripHeights.size() - 1) % mRowAlignment);
+            stripHeights.add(rowCount);
+            System.arraycopy(argb, 0, image, rowsWritten * WIDTH, rowCount * WIDTH);
+            rowsWritten += rowCount;
+        }
+
+        @Override
+        public void finish() {
+            assertTrue(!finished);
+            finished = true;
+        }
+    }
+
+    @Test
+    public void stripBoundaries() throws IOException {
+        ArrayRasterSource source = new ArrayRasterSource();
+        RecordingEncoder encoder = new RecordingEncoder(8);
+        new StripPipeline(source, WIDTH, HEIGHT, encoder).run(16);
+        assertEquals(list(0, 16, 32, 48, 64, 80, 96), source.readTops);
+        // The last strip is shorter
+        assertEquals(list(16, 16, 16, 16, 16, 16, 4), encoder.stripHeights);
+    }
+
+    @Test
+    public void stripHeightEqualToImageHeight() throws IOException {
+        RecordingEncoder encoder = new RecordingEncoder(4);
+        new StripPipeline(new ArrayRasterSource(), WIDTH, HEIGHT, encoder).run(HEIGHT);
+        assertEquals(list(HEIGHT), encoder.stripHeights);
+    }
+
+    @Test
+    public void everyRowOnceInOrder() throws IOException {
+        for (int stripHeight : new int[] { 16, 32, 48, 112 }) {
+            RecordingEncoder encoder = new RecordingEncoder(16);
+            new StripPipeline(new ArrayRasterSource(), WIDTH, HEIGHT, encoder).run(stripHeight);
+            assertTrue(encoder.finished);
+            assertEquals(HEIGHT, encoder.rowsWritten);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    assertEquals("Pixel " + x + "," + y, ArrayRasterSource.getPixel(x, y), encoder.image[y * WIDTH + x]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void overlayOnlyOnCrossedStrips() throws IOException {
+        RecordingEncoder encoder = new RecordingEncoder(16);
+        StripPipeline pipeline = new StripPipeline(new ArrayRasterSource(), WIDTH, HEIGHT, encoder);
+        FillOverlay overlay = new FillOverlay(40, 58);
+        pipeline.setOverlay(overlay, 40, 58);
+        pipeline.run(16);
+        assertEquals(list(32, 48), overlay.drawTops);
+        for (int y = 0; y < HEIGHT; y++) {
+            int expected = y >= 40 && y < 58 ? OVERLAY_COLOR : ArrayRasterSource.getPixel(0, y);
+            assertEquals("Row " + y, expected, encoder.image[y * WIDTH]);
+        }
+    }
+
+    @Test
+    public void overlayOnLastShorterStrip() throws IOException {
+        RecordingEncoder encoder = new RecordingEncoder(16);
+        StripPipeline pipeline = new StripPipeline(new ArrayRasterSource(), WIDTH, HEIGHT, encoder);
+        FillOverlay overlay = new FillOverlay(90, HEIGHT);
+        pipeline.setOverlay(overlay, 90, HEIGHT);
+        pipeline.run(32);
+        assertEquals(list(64, 96), overlay.drawTops);
+        assertEquals(list(32, 32, 32, 4), encoder.stripHeights);
+        assertEquals(ArrayRasterSource.getPixel(0, 89), encoder.image[89 * WIDTH]);
+        assertEquals(OVERLAY_COLOR, encoder.image[(HEIGHT - 1) * WIDTH]);
+    }
+
+    @Test
+    public void unalignedStripHeightIsRejected() throws IOException {
+        try {
+            new StripPipeline(new ArrayRasterSource(), WIDTH, HEIGHT, new RecordingEncoder(16)).run(24);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void stripHeight() {
+        StripPipeline pipeline = new StripPipeline(new ArrayRasterSource(), WIDTH, HEIGHT, new RecordingEncoder(16));
+        // 40 rows fit, rounded down to the alignment
+        assertEquals(32, pipeline.getStripHeight(WIDTH * 4 * 40));
+        // At least the minimum height
+        assertEquals(16, pipeline.getStripHeight(0));
+        // At most the image height, rounded up to the alignment
+        assertEquals(112, pipeline.getStripHeight(Long.MAX_VALUE / 2));
+    }
+
+    /**
+     * The pipeline feeding the JPEG encoder: the decoded image has the source pixels and the overlay.
+     */
+    @Test
+    public void jpegStripEncoder() throws IOException {
+        final int width = 50;
+        final int height = 70;
+        RasterSource source = new RasterSource() {
+            @Override
+            public void readPixels(int x, int y, int w, int h, int[] argb) {
+                for (int i = 0; i < w * h; i++) {
+                    // Horizontal gray gradient
+                    int gray = (x + i % w) * 255 / (width - 1);
+                    argb[i] = 0xFF000000 | gray << 16 | gray << 8 | gray;
+                }
+            }
+        };
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StripPipeline pipeline = new StripPipeline(source, width, height, new JpegStripEncoder(out, 95));
+        pipeline.setOverlay(new StripOverlay() {
+            @Override
+            public void draw(int[] argb, int y, int w, int rowCount) {
+                for (int row = Math.max(0, 50 - y); row < rowCount; row++) {
+                    for (int x = 0; x < w; x++) {
+                        argb[row * w + x] = 0xFF000000;
+                    }
+                }
+            }
+        }, 50, height);
+        pipeline.run(pipeline.getStripHeight(width * 4 * 20));
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        for (int y = 0; y < height; y += 3) {
+            for (int x = 0; x < width; x += 3) {
+                int expected = y >= 50 ? 0 : x * 255 / (width - 1);
+                int actual = image.getRGB(x, y) & 0xFF;
+                // Away from the edge of the overlay, where the JPEG blocks blur it
+                if (y < 45 || y > 55) assertClose("Pixel " + x + "," + y, expected, actual, 12);
+            }
+        }
+    }
+
+    private static void assertClose(String message, int expected, int actual, int delta) {
+        if (Math.abs(expected - actual) > delta) fail(message + ": expected " + expected + " but was " + actual);
+    }
+
+    private static List<Integer> list(int... values) {
+        List<Integer> res = new ArrayList<Integer>();
+        for (int value : values) {
+            res.add(value);
+        }
+        return res;
+    }
+}
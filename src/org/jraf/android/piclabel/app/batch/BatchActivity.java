@@ -0,0 +1,210 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.app.batch;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v4.app.FragmentActivity;
+import android.util.Log;
+import android.view.View;
+import android.view.View.OnClickListener;
+import android.widget.Spinner;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import org.jraf.android.piclabel.Constants;
+import org.jraf.android.piclabel.R;
+import org.jraf.android.piclabel.app.form.ProgressDialogFragment;
+import org.jraf.android.piclabel.app.form.TypefaceAdapter;
+import org.jraf.android.piclabel.bitmap.ImageSource;
+import org.jraf.android.piclabel.util.MediaUtil;
+import org.jraf.android.util.async.Task;
+import org.jraf.android.util.async.TaskFragment;
+
+/**
+ * Labels several pictures at once, each with its own date and location.<br/>
+ * The pictures are given as a list of uris in {@link Intent#EXTRA_STREAM} (as sent by {@link Intent#ACTION_SEND_MULTIPLE}), or as a single uri in
+ * the data. An uri pointing to a folder means all the pictures of that folder.
+ */
+public class BatchActivity extends FragmentActivity {
+    private static final String TAG = Constants.TAG + BatchActivity.class.getSimpleName();
+
+    private static final String FRAGMENT_RETAINED_STATE = "FRAGMENT_RETAINED_STATE";
+    private static final String FRAGMENT_DIALOG_PROGRESS = "FRAGMENT_DIALOG_PROGRESS";
+
+    private TextView mTxtCount;
+    private Spinner mSpnFont;
+    private TypefaceAdapter mTypefaceAdapter;
+    private View mBtnStart;
+    private View mConLoading;
+
+    private BatchStateFragment mState;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.batch);
+        mTxtCount = (TextView) findViewById(R.id.txtCount);
+        mSpnFont = (Spinner) findViewById(R.id.spnFont);
+        mTypefaceAdapter = new TypefaceAdapter(this);
+        mSpnFont.setAdapter(mTypefaceAdapter);
+
+        mBtnStart = findViewById(R.id.btnStart);
+        mBtnStart.setOnClickListener(mStartOnClickListener);
+        mConLoading = findViewById(R.id.pgbLoading);
+
+        restoreState();
+    }
+
+    private void restoreState() {
+        mState = (BatchStateFragment) getSupportFragmentManager().findFragmentByTag(FRAGMENT_RETAINED_STATE);
+        if (mState == null) {
+            mState = new BatchStateFragment();
+            getSupportFragmentManager().beginTransaction().add(mState, FRAGMENT_RETAINED_STATE).commit();
+
+            retrieveFiles();
+        } else if (mState.imageSources != null) {
+            updateViews();
+        }
+    }
+
+    @Override
+    protected void onResumeFragments() {
+        super.onResumeFragments();
+        // The batch may have progressed (or finished) while there was no activity to notify
+        if (mState.isFinished()) {
+            onBatchFinished();
+        } else if (mState.isRunning()) {
+            onBatchProgress();
+        }
+    }
+
+    private void retrieveFiles() {
+        final Intent intent = getIntent();
+        new TaskFragment(new Task<BatchActivity>() {
+            private ArrayList<ImageSource> mImageSources;
+
+            @Override
+            protected void doInBackground() {
+                mImageSources = getImageSources(intent);
+            }
+
+            @Override
+            protected void onPostExecuteOk() {
+                if (mImageSources.isEmpty()) {
+                    Toast.makeText(getActivity(), R.string.batch_noPictures, Toast.LENGTH_LONG).show();
+                    getActivity().finish();
+                    return;
+                }
+                getActivity().mState.imageSources = mImageSources;
+                getActivity().updateViews();
+            }
+        }).execute(getSupportFragmentManager());
+    }
+
+    private ArrayList<ImageSource> getImageSources(Intent intent) {
+        ArrayList<Uri> uris = intent.getParcelableArrayListExtra(Intent.EXTRA_STREAM);
+        if (uris == null) {
+            uris = new ArrayList<Uri>(1);
+            if (intent.getData() != null) uris.add(intent.getData());
+        }
+
+        ArrayList<ImageSource> res = new ArrayList<ImageSource>(uris.size());
+        for (Uri uri : uris) {
+            File file = MediaUtil.getFileFromMediaUri(this, uri);
+            if (file == null) {
+                // The user probably picked a Picasa picture: it is read through its uri
+                Log.w(TAG, "getImageSources No file for " + uri);
+                res.add(ImageSource.fromUri(this, uri));
+                continue;
+            }
+            if (file.isDirectory()) {
+                File[] folderFiles = file.listFiles(IMAGE_FILE_FILTER);
+                if (folderFiles == null) continue;
+                Arrays.sort(folderFiles);
+                for (File folderFile : folderFiles) {
+                    res.add(ImageSource.fromFile(folderFile));
+                }
+            } else {
+                res.add(ImageSource.fromFile(file));
+            }
+        }
+        return res;
+    }
+
+    private static final FileFilter IMAGE_FILE_FILTER = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            if (!file.isFile()) return false;
+            String name = file.getName().toLowerCase(Locale.US);
+            return name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png");
+        }
+    };
+
+    private void updateViews() {
+        mTxtCount.setText(getResources().getQuantityString(R.plurals.batch_count, mState.imageSources.size(), mState.imageSources.size()));
+        mConLoading.setVisibility(View.GONE);
+        mSpnFont.setEnabled(true);
+        mBtnStart.setEnabled(true);
+    }
+
+
+    /*
+     * Start.
+     */
+
+    private final OnClickListener mStartOnClickListener = new OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            if (mState.isRunning()) return;
+            ProgressDialogFragment.newInstance(mState.imageSources.size()).show(getSupportFragmentManager(), FRAGMENT_DIALOG_PROGRESS);
+            mState.start(BatchActivity.this, mTypefaceAdapter.getTypefaceName(mSpnFont.getSelectedItemPosition()));
+        }
+    };
+
+    void onBatchProgress() {
+        ProgressDialogFragment progressDialogFragment = (ProgressDialogFragment) getSupportFragmentManager().findFragmentByTag(FRAGMENT_DIALOG_PROGRESS);
+        if (progressDialogFragment != null) progressDialogFragment.setProgress(mState.getFinishedCount());
+    }
+
+    void onBatchFinished() {
+        int failedCount = mState.getFailedCount();
+        int succeededCount = mState.getFinishedCount() - failedCount;
+        String message;
+        if (failedCount == 0) {
+            message = getResources().getQuantityString(R.plurals.batch_success, succeededCount, succeededCount);
+        } else {
+            message = getResources().getQuantityString(R.plurals.batch_partialSuccess, failedCount, succeededCount, failedCount);
+        }
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+        finish();
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.app.batch;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Process;
+import android.support.v4.app.Fragment;
+import android.util.Log;
+
+import org.jraf.android.piclabel.Config;
+import org.jraf.android.piclabel.Constants;
+import org.jraf.android.piclabel.batch.BatchScheduler;
+import org.jraf.android.piclabel.bitmap.ImageSource;
+import org.jraf.android.piclabel.label.ImageInfo;
+import org.jraf.android.piclabel.label.ImageInfoExtractor;
+import org.jraf.android.piclabel.label.ImageLabeler;
+import org.jraf.android.piclabel.label.MediaScanAggregator;
+import org.jraf.android.piclabel.label.PipelineStatsStore;
+
+/**
+ * Retained fragment that holds the pictures of the batch and runs it, so that it survives configuration changes.
+ */
+public class BatchStateFragment extends Fragment {
+    private static final String TAG = Constants.TAG + BatchStateFragment.class.getSimpleName();
+
+    private static final int SCAN_GROUP_SIZE = 16;
+    private static final long SCAN_TIMEOUT_MS = 30 * 1000;
+
+    public ArrayList<ImageSource> imageSources;
+
+    private final Handler mHandler = new Handler();
+    private volatile BatchScheduler<ImageSource> mScheduler;
+    private volatile boolean mCancelled;
+    private boolean mRunning;
+    private boolean mFinished;
+    private int mFinishedCount;
+    private int mFailedCount;
+
+    public BatchStateFragment() {}
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setRetainInstance(true);
+    }
+
+    @Override
+    public void onDestroy() {
+        mCancelled = true;
+        BatchScheduler<ImageSource> scheduler = mScheduler;
+        if (scheduler != null) scheduler.cancel();
+        super.onDestroy();
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    public int getFinishedCount() {
+        return mFinishedCount;
+    }
+
+    public int getFailedCount() {
+        return mFailedCount;
+    }
+
+    /**
+     * Labels all the pictures in the background, each with its own date and location.
+     */
+    public void start(Context context, final String fontName) {
+        mRunning = true;
+        final Context appContext = context.getApplicationContext();
+        final ArrayList<ImageSource> batchImageSources = imageSources;
+        new Thread(TAG) {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final ImageInfoExtractor imageInfoExtractor = new ImageInfoExtractor(appContext);
+                final ImageLabeler imageLabeler = new ImageLabeler(appContext);
+                imageLabeler.setAllowWholeImageDecode(false);
+                final MediaScanAggregator mediaScanAggregator = new MediaScanAggregator(appContext);
+
+                // Size the pool for the biggest picture of the batch
+                long itemMemory = 0;
+                for (ImageSource imageSource : batchImageSources) {
+                    itemMemory = Math.max(itemMemory, imageLabeler.estimateMemoryUsage(imageSource));
+                }
+                Runtime runtime = Runtime.getRuntime();
+                int poolSize = BatchScheduler.getPoolSize(runtime.availableProcessors(), runtime.maxMemory() / 2, itemMemory);
+                if (Config.LOGD) Log.d(TAG, "start " + batchImageSources.size() + " pictures itemMemory=" + itemMemory + " poolSize=" + poolSize);
+                mScheduler = new BatchScheduler<ImageSource>(poolSize);
+                if (mCancelled) mScheduler.cancel();
+
+                BatchScheduler.Job<ImageSource> job = new BatchScheduler.Job<ImageSource>() {
+                    @Override
+                    public void process(ImageSource imageSource) throws Exception {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        File processedImageFile;
+                        try {
+                            ImageInfo imageInfo = imageInfoExtractor.extractImageInfo(imageSource);
+                            processedImageFile = imageLabeler.label(imageSource, imageInfo.exif, imageInfo.dateTime, imageInfo.location, fontName);
+                        } finally {
+                            imageSource.release();
+                        }
+                        // Scan the pictures by groups, so that they appear in the gallery during long batches
+                        mediaScanAggregator.add(processedImageFile);
+                        if (mediaScanAggregator.getPendingCount() >= SCAN_GROUP_SIZE) mediaScanAggregator.flush(null);
+                    }
+                };
+                BatchScheduler.Listener<ImageSource> listener = new BatchScheduler.Listener<ImageSource>() {
+                    @Override
+                    public void onItemFinished(ImageSource imageSource, Throwable error, final int finishedCount, int totalCount) {
+                        if (error != null) Log.w(TAG, "onItemFinished Could not process " + imageSource, error);
+                        final boolean failed = error != null;
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                mFinishedCount = finishedCount;
+                                if (failed) mFailedCount++;
+                                BatchActivity activity = (BatchActivity) getActivity();
+                                if (activity != null) activity.onBatchProgress();
+                            }
+                        });
+                    }
+                };
+
+                try {
+                    BatchScheduler.Result result = mScheduler.run(batchImageSources, job, listener);
+                    if (Config.LOGD) Log.d(TAG, "run succeeded=" + result.succeeded + " failed=" + result.failed + " cancelled=" + result.cancelled);
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "run Interrupted", e);
+                }
+                try {
+                    mediaScanAggregator.flushAndWait(SCAN_TIMEOUT_MS);
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "run Interrupted", e);
+                }
+                ImageInfoExtractor.saveGeocodeCache();
+                PipelineStatsStore.save(appContext);
+
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mRunning = false;
+                        mFinished = true;
+                        BatchActivity activity = (BatchActivity) getActivity();
+                        if (activity != null) activity.onBatchFinished();
+                    }
+                });
+            }
+        }.start();
+    }
+}
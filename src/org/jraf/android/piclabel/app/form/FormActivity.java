@@ -24,42 +24,24 @@
 package org.jraf.android.piclabel.app.form;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-import java.util.Locale;
-
-import android.content.Context;
+
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.Bitmap.CompressFormat;
-import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Matrix;
-import android.graphics.Paint;
-import android.graphics.Rect;
 import android.graphics.Typeface;
-import android.location.Address;
-import android.location.Geocoder;
-import android.location.Location;
-import android.location.LocationManager;
-import android.media.ExifInterface;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Environment;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.v4.app.FragmentActivity;
-import android.text.TextUtils;
-import android.text.format.DateUtils;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.view.ViewTreeObserver.OnPreDrawListener;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
+import android.widget.AdapterView;
+import android.widget.AdapterView.OnItemSelectedListener;
 import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.Spinner;
@@ -68,18 +50,29 @@ import android.widget.Toast;
 import org.jraf.android.piclabel.Config;
 import org.jraf.android.piclabel.Constants;
 import org.jraf.android.piclabel.R;
+import org.jraf.android.piclabel.app.save.SaveService;
+import org.jraf.android.piclabel.bitmap.BitmapPool;
+import org.jraf.android.piclabel.bitmap.ImageSource;
+import org.jraf.android.piclabel.exif.ExifMetadata;
+import org.jraf.android.piclabel.label.ImageInfo;
+import org.jraf.android.piclabel.label.ImageInfoExtractor;
+import org.jraf.android.piclabel.label.ImageLabeler;
+import org.jraf.android.piclabel.label.TypefaceRegistry;
+import org.jraf.android.piclabel.label.TypefaceRegistry.OnTypefaceLoadedListener;
 import org.jraf.android.util.async.Task;
 import org.jraf.android.util.async.TaskFragment;
-import org.jraf.android.util.bitmap.BitmapUtil;
-import org.jraf.android.util.io.IoUtil;
-import org.jraf.android.util.mediascanner.MediaScannerUtil;
 
 public class FormActivity extends FragmentActivity {
     private static final String TAG = Constants.TAG + FormActivity.class.getSimpleName();
 
-    private static final int JPEG_QUALITY = 85;
-
     private static final String FRAGMENT_RETAINED_STATE = "FRAGMENT_RETAINED_STATE";
+    private static final int PREVIEW_DELAY_MS = 150;
+
+    /*
+     * Shared pictures are made smaller, to be sent quickly over mobile networks.
+     */
+    private static final int SHARE_MAX_LONG_EDGE = 2048;
+    private static final long SHARE_MAX_FILE_SIZE = 1024 * 1024;
 
     private ImageView mImgThumbnail;
     private EditText mEdtDateTime;
@@ -91,10 +84,12 @@ public class FormActivity extends FragmentActivity {
     private View mConLoading;
 
     private FormStateFragment mState;
-    private File mImageFile;
+    private ImageSource mImageSource;
+    private final Handler mHandler = new Handler();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long startTime = SystemClock.uptimeMillis();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.form);
         mImgThumbnail = (ImageView) findViewById(R.id.imgThumbnail);
@@ -103,6 +98,9 @@ public class FormActivity extends FragmentActivity {
         mSpnFont = (Spinner) findViewById(R.id.spnFont);
         mTypefaceAdapter = new TypefaceAdapter(this);
         mSpnFont.setAdapter(mTypefaceAdapter);
+        mEdtDateTime.addTextChangedListener(mPreviewTextWatcher);
+        mEdtLocation.addTextChangedListener(mPreviewTextWatcher);
+        mSpnFont.setOnItemSelectedListener(mPreviewOnItemSelectedListener);
 
         mBtnSave = findViewById(R.id.btnSave);
         mBtnSave.setOnClickListener(mSaveOnClickListener);
@@ -110,8 +108,24 @@ public class FormActivity extends FragmentActivity {
         mBtnShare.setOnClickListener(mShareOnClickListener);
         mConLoading = findViewById(R.id.pgbLoading);
 
-        mImageFile = new File(getIntent().getData().getPath());
+        mImageSource = ImageSource.fromUri(this, getIntent().getData());
         restoreState();
+        if (Config.LOGD) logTimeToFirstFrame(startTime);
+    }
+
+    /**
+     * Logs the time between {@code startTime} and the first frame of this activity.
+     */
+    private void logTimeToFirstFrame(final long startTime) {
+        final View contentView = findViewById(android.R.id.content);
+        contentView.getViewTreeObserver().addOnPreDrawListener(new OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                contentView.getViewTreeObserver().removeOnPreDrawListener(this);
+                Log.d(TAG, "logTimeToFirstFrame timeToFirstFrame=" + (SystemClock.uptimeMillis() - startTime) + "ms");
+                return true;
+            }
+        });
     }
 
     private void restoreState() {
@@ -120,165 +134,154 @@ public class FormActivity extends FragmentActivity {
             mState = new FormStateFragment();
             getSupportFragmentManager().beginTransaction().add(mState, FRAGMENT_RETAINED_STATE).commit();
 
-            retrieveInfoFromImage();
+            mState.startLoading(this, mImageSource);
         } else {
-            mImgThumbnail.setImageBitmap(mState.thumbnailBitmap);
-            if (mState.thumbnailBitmap != null) {
-                mEdtDateTime.setEnabled(true);
-                mEdtLocation.setEnabled(true);
-                mSpnFont.setEnabled(true);
-                mBtnSave.setEnabled(true);
-                mBtnShare.setEnabled(true);
+            if (mState.thumbnailShown) {
+                mImgThumbnail.setImageBitmap(mState.labelPreview != null ? mState.labelPreview.getBitmap() : mState.thumbnailBitmap);
                 mConLoading.setVisibility(View.GONE);
             }
+            updateEnabledViews();
         }
     }
 
-    private void retrieveInfoFromImage() {
-        new TaskFragment(new Task<FormActivity>() {
-            private ImageInfo mImageInfo;
+    @Override
+    protected void onPostCreate(Bundle savedInstanceState) {
+        super.onPostCreate(savedInstanceState);
+        // Some results may have arrived while there was no activity (done after the views have restored their state, to not be overwritten)
+        onInfoLoaded();
+    }
 
-            @Override
-            protected void doInBackground() {
-                mState.thumbnailBitmap = BitmapUtil.createThumbnail(mImageFile, 320, 320);
-                mImageInfo = extractImageInfo(mImageFile);
+    /**
+     * Shows the results of the loading tasks that are done and have not been shown yet: the date first, then the location and the thumbnail when
+     * they arrive.
+     */
+    void onInfoLoaded() {
+        if (!mState.dateTimeShown && mState.dateTimeFuture.isDone()) {
+            mState.dateTimeShown = true;
+            ImageInfo imageInfo = FormStateFragment.getResult(mState.dateTimeFuture);
+            if (imageInfo != null) {
+                mEdtDateTime.setText("");
+                mEdtDateTime.append(imageInfo.dateTime);
+                if (imageInfo.isLocalDateTime) mEdtDateTime.setError(getString(R.string.form_useLocalDate));
             }
+        }
 
-            @Override
-            protected void onPostExecuteOk() {
-                if (getActivity().mState.thumbnailBitmap == null) {
-                    Toast.makeText(getActivity(), R.string.form_couldNotDecodeImage, Toast.LENGTH_LONG).show();
-                    getActivity().finish();
-                    return;
+        if (!mState.locationShown && mState.locationFuture.isDone()) {
+            mState.locationShown = true;
+            ImageInfo imageInfo = FormStateFragment.getResult(mState.locationFuture);
+            if (imageInfo != null) {
+                mEdtLocation.setText("");
+                mEdtLocation.append(imageInfo.location);
+                if (imageInfo.reverseGeocodeProblem && imageInfo.offlineReverseGeocoderMissing) {
+                    mEdtLocation.setError(getString(R.string.form_cannotReverseGeocode_noGazetteer));
+                } else if (imageInfo.reverseGeocodeProblem) {
+                    mEdtLocation.setError(getString(R.string.form_cannotReverseGeocode));
+                } else if (imageInfo.isLocalLocation) {
+                    mEdtLocation.setError(getString(R.string.form_useLocalLocation));
                 }
+            }
+        }
 
-                Animation anim = AnimationUtils.loadAnimation(getActivity(), android.R.anim.fade_out);
-                getActivity().mConLoading.startAnimation(anim);
-                getActivity().mConLoading.setVisibility(View.GONE);
+        // The preview needs the size of the image, which comes with the date
+        if (!mState.thumbnailShown && mState.thumbnailFuture.isDone() && mState.dateTimeShown) {
+            mState.thumbnailShown = true;
+            mState.thumbnailBitmap = FormStateFragment.getResult(mState.thumbnailFuture);
+            if (mState.thumbnailBitmap == null) {
+                Toast.makeText(this, R.string.form_couldNotDecodeImage, Toast.LENGTH_LONG).show();
+                finish();
+                return;
+            }
+            ImageInfo imageInfo = FormStateFragment.getResult(mState.dateTimeFuture);
+            if (imageInfo != null && imageInfo.displayWidth > 0) {
+                mState.labelPreview = new LabelPreview(this, mState.thumbnailBitmap, BitmapPool.get(this), imageInfo.displayWidth,
+                        imageInfo.displayHeight);
+            }
 
-                getActivity().mEdtDateTime.setText("");
-                getActivity().mEdtDateTime.append(mImageInfo.dateTime);
-                if (mImageInfo.isLocalDateTime) getActivity().mEdtDateTime.setError(getActivity().getString(R.string.form_useLocalDate));
+            Animation anim = AnimationUtils.loadAnimation(this, android.R.anim.fade_out);
+            mConLoading.startAnimation(anim);
+            mConLoading.setVisibility(View.GONE);
+            mImgThumbnail.setImageBitmap(mState.labelPreview != null ? mState.labelPreview.getBitmap() : mState.thumbnailBitmap);
+            schedulePreviewUpdate();
+        }
 
-                getActivity().mEdtLocation.setText("");
-                getActivity().mEdtLocation.append(mImageInfo.location);
-                if (mImageInfo.reverseGeocodeProblem) {
-                    getActivity().mEdtLocation.setError(getActivity().getString(R.string.form_cannotReverseGeocode));
-                } else if (mImageInfo.isLocalLocation) {
-                    getActivity().mEdtLocation.setError(getActivity().getString(R.string.form_useLocalLocation));
-                }
+        updateEnabledViews();
+    }
 
-                getActivity().mImgThumbnail.setImageBitmap(mState.thumbnailBitmap);
-                getActivity().mEdtDateTime.setEnabled(true);
-                getActivity().mEdtLocation.setEnabled(true);
-                getActivity().mSpnFont.setEnabled(true);
-                getActivity().mBtnSave.setEnabled(true);
-                getActivity().mBtnShare.setEnabled(true);
-            }
-        }).execute(getSupportFragmentManager());
+    private void updateEnabledViews() {
+        mEdtDateTime.setEnabled(mState.dateTimeShown);
+        mEdtLocation.setEnabled(mState.locationShown);
+        mSpnFont.setEnabled(true);
+        boolean canSave = mState.dateTimeShown && mState.locationShown;
+        mBtnSave.setEnabled(canSave);
+        mBtnShare.setEnabled(canSave);
     }
 
-    private static class ImageInfo {
-        public String dateTime;
-        public String location;
-        public boolean isLocalDateTime;
-        public boolean isLocalLocation;
-        public boolean reverseGeocodeProblem;
+
+    @Override
+    protected void onDestroy() {
+        mHandler.removeCallbacks(mUpdatePreviewRunnable);
+        // The source is created again after a configuration change: only release it when leaving
+        if (isFinishing()) mImageSource.release();
+        super.onDestroy();
     }
 
-    protected ImageInfo extractImageInfo(File file) {
-        ImageInfo res = new ImageInfo();
-        ExifInterface exifInterface = null;
-        try {
-            exifInterface = new ExifInterface(file.getPath());
-        } catch (IOException e) {
-            Log.e(TAG, "extractImageInfo Could not read exif", e);
-        }
 
-        // Date
-        String dateTimeStr = null;
-        if (exifInterface != null) dateTimeStr = exifInterface.getAttribute(ExifInterface.TAG_DATETIME);
-        if (TextUtils.isEmpty(dateTimeStr)) {
-            // No date in exif: use 'local' date
-            res.dateTime = DateUtils.formatDateTime(this, System.currentTimeMillis(), DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME
-                    | DateUtils.FORMAT_SHOW_WEEKDAY | DateUtils.FORMAT_SHOW_YEAR);
-            res.isLocalDateTime = true;
-        } else {
-            res.dateTime = parseExifDateTime(dateTimeStr);
-            if (res.dateTime == null) {
-                // Date in exif could not be parsed: use 'local' date
-                DateUtils.formatDateTime(this, System.currentTimeMillis(), DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME
-                        | DateUtils.FORMAT_SHOW_WEEKDAY | DateUtils.FORMAT_SHOW_YEAR);
-                res.isLocalDateTime = true;
-            }
-        }
+    /*
+     * Preview.
+     */
 
-        // Location
-        float[] latLon = new float[2];
-        boolean latLonPresent = exifInterface != null && exifInterface.getLatLong(latLon);
-        if (!latLonPresent) {
-            // No location in exif: use 'local' location
-            res.isLocalLocation = true;
-            latLonPresent = getLatestLocalLocation(latLon);
-            if (latLonPresent) res.location = reverseGeocode(latLon[0], latLon[1]);
-        } else {
-            res.location = reverseGeocode(latLon[0], latLon[1]);
-        }
-        if (res.location == null) {
-            res.reverseGeocodeProblem = true;
-            res.location = "";
-        }
-        return res;
-    }
+    private final TextWatcher mPreviewTextWatcher = new TextWatcher() {
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
 
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {}
 
-    private boolean getLatestLocalLocation(float[] latLon) {
-        LocationManager locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
-        List<String> providers = locationManager.getProviders(true);
-        Location location = null;
-        for (int i = providers.size() - 1; i >= 0; i--) {
-            location = locationManager.getLastKnownLocation(providers.get(i));
-            if (location != null) break;
+        @Override
+        public void afterTextChanged(Editable s) {
+            schedulePreviewUpdate();
         }
+    };
 
-        if (location == null) return false;
-        latLon[0] = (float) location.getLatitude();
-        latLon[1] = (float) location.getLongitude();
-        return true;
-    }
+    private final OnItemSelectedListener mPreviewOnItemSelectedListener = new OnItemSelectedListener() {
+        @Override
+        public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+            schedulePreviewUpdate();
+        }
 
+        @Override
+        public void onNothingSelected(AdapterView<?> parent) {}
+    };
 
-    private String reverseGeocode(float lat, float lon) {
-        Geocoder geocoder = new Geocoder(this, Locale.getDefault());
-        List<Address> addresses;
-        try {
-            addresses = geocoder.getFromLocation(lat, lon, 1);
-        } catch (Throwable t) {
-            Log.w(TAG, "reverseGeocode Could not reverse geocode", t);
-            return null;
-        }
-        if (addresses == null || addresses.isEmpty()) return null;
-        Address address = addresses.get(0);
-        ArrayList<String> strings = new ArrayList<String>(5);
-        if (address.getMaxAddressLineIndex() > 0) strings.add(address.getAddressLine(0));
-        if (!TextUtils.isEmpty(address.getLocality())) strings.add(address.getLocality());
-        if (!TextUtils.isEmpty(address.getCountryName())) strings.add(address.getCountryName());
-        return TextUtils.join(", ", strings);
+    /**
+     * Updates the preview after a short delay, so that typing quickly only updates it once.
+     */
+    private void schedulePreviewUpdate() {
+        mHandler.removeCallbacks(mUpdatePreviewRunnable);
+        mHandler.postDelayed(mUpdatePreviewRunnable, PREVIEW_DELAY_MS);
     }
 
+    private final Runnable mUpdatePreviewRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mState == null || mState.labelPreview == null || mTypefaceAdapter.isEmpty()) return;
+            String fontName = getSelectedFontName();
+            boolean fontLoaded = mState.labelPreview.update(mEdtDateTime.getText().toString(), mEdtLocation.getText().toString(), fontName);
+            mImgThumbnail.invalidate();
+            // Parsing a font takes too long for the main thread: draw again when it is loaded
+            if (!fontLoaded) TypefaceRegistry.get(FormActivity.this).loadAsync(new String[] { fontName }, mPreviewOnTypefaceLoadedListener);
+        }
+    };
 
-    private String parseExifDateTime(String s) {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy':'MM':'dd' 'HH':'mm':'ss", Locale.US);
-        Date date;
-        try {
-            date = sdf.parse(s);
-        } catch (ParseException e) {
-            Log.e(TAG, "decodeExifDateTime Could not parse " + s, e);
-            return null;
+    /*
+     * Only weakly referenced by the registry: kept in a field so that it lives as long as this activity.
+     */
+    private final OnTypefaceLoadedListener mPreviewOnTypefaceLoadedListener = new OnTypefaceLoadedListener() {
+        @Override
+        public void onTypefaceLoaded(String fileName, Typeface typeface) {
+            if (!mTypefaceAdapter.isEmpty() && fileName.equals(getSelectedFontName())) schedulePreviewUpdate();
         }
-        return DateUtils.formatDateTime(this, date.getTime(), DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME | DateUtils.FORMAT_SHOW_WEEKDAY
-                | DateUtils.FORMAT_SHOW_YEAR);
-    }
+    };
 
 
     /*
@@ -288,19 +291,22 @@ public class FormActivity extends FragmentActivity {
     private final OnClickListener mSaveOnClickListener = new OnClickListener() {
         @Override
         public void onClick(View v) {
+            final String dateTime = mEdtDateTime.getText().toString();
+            final String location = mEdtLocation.getText().toString();
+            final String fontName = getSelectedFontName();
+            // The picture is labeled in the background: the user can go on with the next one
             new TaskFragment(new Task<FormActivity>() {
                 @Override
                 protected void doInBackground() throws Exception {
-                    Uri uri = processAndSaveImage();
-                    if (uri == null) throw new Exception("Received null processed image");
+                    // A picture that is not a local file is copied first, while it can still be read
+                    SaveService.save(FormActivity.this, mImageSource, dateTime, location, fontName);
                 }
 
                 @Override
                 protected void onPostExecuteOk() {
-                    super.onPostExecuteOk();
                     getActivity().finish();
                 }
-            }.toastOk(R.string.form_process_success).toastFail(R.string.form_couldNotProcessImage)).execute(getSupportFragmentManager());
+            }.toastOk(R.string.form_process_queued).toastFail(R.string.form_couldNotProcessImage)).execute(getSupportFragmentManager());
         }
     };
 
@@ -317,8 +323,7 @@ public class FormActivity extends FragmentActivity {
 
                 @Override
                 protected void doInBackground() throws Exception {
-                    mUri = processAndSaveImage();
-                    if (mUri == null) throw new Exception("Received null processed image");
+                    mUri = Uri.fromFile(labelForSharing());
                 }
 
                 @Override
@@ -338,128 +343,25 @@ public class FormActivity extends FragmentActivity {
     };
 
 
-    private Uri processAndSaveImage() throws Exception {
-        BitmapFactory.Options options = new BitmapFactory.Options();
-
-        Bitmap bitmap = BitmapUtil.tryDecodeFile(mImageFile, options);
-        if (bitmap == null) {
-            Log.w(TAG, "processImage Could not decode file, returning null");
-            return null;
-        }
-
-        // Rotate if necessary
-        int rotation = BitmapUtil.getExifRotation(mImageFile);
-        if (rotation != 0) {
-            if (Config.LOGD) Log.d(TAG, "processImage rotating bitmap");
-            Matrix matrix = new Matrix();
-            matrix.postRotate(rotation);
-            Bitmap rotatedBitmap = null;
-            try {
-                rotatedBitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, false);
-                bitmap.recycle();
-                bitmap = rotatedBitmap;
-            } catch (OutOfMemoryError exception) {
-                Log.w(TAG, "processImage Could not rotate bitmap, keeping original orientation", exception);
-            }
-        }
-
-        // To draw text we need a mutable bitmap
-        try {
-            bitmap = BitmapUtil.asImmutable(bitmap);
-        } catch (Throwable t) {
-            throw new Exception(t);
-        }
-        Canvas canvas = new Canvas(bitmap);
-
-        // Draw text
-        drawText(canvas);
-
-        // Save the new bitmap to a file
-        File processedImageFile = createProcessedFile();
-        try {
-            saveBitmap(bitmap, mImageFile, processedImageFile);
-            bitmap.recycle();
-        } catch (IOException e) {
-            Log.e(TAG, "processImage Could not save bitmap, returning null", e);
-            return null;
-        }
-
-        // Scan it
-        return MediaScannerUtil.scanFileNow(this, processedImageFile);
-    }
-
-    private void drawText(Canvas canvas) {
-        Paint paint = new Paint();
-        paint.setStyle(Paint.Style.FILL);
-        paint.setAntiAlias(true);
-        paint.setTypeface(Typeface.createFromAsset(getAssets(), "fonts/" + getSelectedFontName()));
-
-        int textSize = canvas.getHeight() / 35;
-        paint.setTextSize(textSize);
-        int margin = textSize / 5;
-
-        // Measure date/time
+    /**
+     * Labels a smaller version of the picture, more suitable to be sent over mobile networks. It is added to the media store in the background.
+     */
+    private File labelForSharing() throws Exception {
         String dateTime = mEdtDateTime.getText().toString();
-        Rect boundsDateTime = new Rect();
-        paint.getTextBounds(dateTime, 0, dateTime.length(), boundsDateTime);
-
-        // Measure location
         String location = mEdtLocation.getText().toString();
-        Rect boundsLocation = new Rect();
-        paint.getTextBounds(location, 0, location.length(), boundsLocation);
-
-        int totalWidth = boundsDateTime.width() + textSize * 2 + boundsLocation.width();
-        if (totalWidth > canvas.getWidth()) {
-            // Draw on 2 lines
-
-            // Draw a rectangle
-            paint.setColor(Color.argb(180, 0, 0, 0));
-            canvas.drawRect(0, 0, canvas.getWidth(), -boundsDateTime.top + boundsDateTime.bottom + -boundsLocation.top + boundsLocation.bottom + margin * 3,
-                    paint);
-
-            // Draw date/time
-            paint.setColor(Color.WHITE);
-            canvas.drawText(dateTime, margin, margin + -boundsDateTime.top, paint);
-
-            // Draw location
-            canvas.drawText(location, canvas.getWidth() - boundsLocation.right - boundsLocation.left - margin, margin + -boundsDateTime.top
-                    + boundsDateTime.bottom + margin + -boundsLocation.top, paint);
-
-        } else {
-            // Draw on 1 line
-
-            // Draw a rectangle
-            paint.setColor(Color.argb(180, 0, 0, 0));
-            canvas.drawRect(0, 0, canvas.getWidth(), margin + Math.max(boundsDateTime.height(), boundsLocation.height()) + margin, paint);
-
-            // Draw date/time
-            paint.setColor(Color.WHITE);
-            canvas.drawText(dateTime, margin, margin + -boundsDateTime.top, paint);
-
-            // Draw location
-            canvas.drawText(location, canvas.getWidth() - boundsLocation.right - boundsLocation.left - margin, margin + -boundsLocation.top, paint);
-        }
-    }
-
-    private File createProcessedFile() {
-        File picturesPath = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES);
-        File albumPath = new File(picturesPath, Constants.ALBUM_NAME);
-        albumPath.mkdirs();
-        String fileDateName = new SimpleDateFormat("yyyy-MM-dd'_'HH-mm-ss", Locale.US).format(new Date());
-        File res = new File(albumPath, fileDateName + ".jpg");
+        // The exif tags have already been read to fill the form (save is only enabled after that)
+        ExifMetadata exif = FormStateFragment.getResult(mState.exifFuture);
+        if (exif == null) exif = ImageInfoExtractor.readExif(mImageSource);
+        ImageLabeler imageLabeler = new ImageLabeler(this);
+        imageLabeler.setMaxLongEdge(SHARE_MAX_LONG_EDGE);
+        imageLabeler.setMaxFileSize(SHARE_MAX_FILE_SIZE);
+        File res = imageLabeler.label(mImageSource, exif, dateTime, location, getSelectedFontName());
+
+        // The scan also saves the stats
+        SaveService.scan(this, res);
         return res;
     }
 
-    private static void saveBitmap(Bitmap bitmap, File originalFile, File outFile) throws IOException {
-        // Compress to a new file
-        FileOutputStream fileOutputStream = new FileOutputStream(outFile);
-        bitmap.compress(CompressFormat.JPEG, JPEG_QUALITY, fileOutputStream);
-        IoUtil.closeSilently(fileOutputStream);
-
-        // Copy exif tags from original file
-        BitmapUtil.copyExifTags(originalFile, outFile);
-    }
-
     private String getSelectedFontName() {
         return mTypefaceAdapter.getTypefaceName(mSpnFont.getSelectedItemPosition());
     }
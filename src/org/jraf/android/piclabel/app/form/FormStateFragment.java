@@ -23,12 +23,47 @@
  */
 package org.jraf.android.piclabel.app.form;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.v4.app.Fragment;
+import android.util.Log;
+
+import org.jraf.android.piclabel.Constants;
+import org.jraf.android.piclabel.bitmap.BitmapPool;
+import org.jraf.android.piclabel.bitmap.ImageSource;
+import org.jraf.android.piclabel.bitmap.ThumbnailCache;
+import org.jraf.android.piclabel.exif.ExifMetadata;
+import org.jraf.android.piclabel.label.ImageInfo;
+import org.jraf.android.piclabel.label.ImageInfoExtractor;
 
 public class FormStateFragment extends Fragment {
+    private static final String TAG = Constants.TAG + FormStateFragment.class.getSimpleName();
+
     public Bitmap thumbnailBitmap;
+    public LabelPreview labelPreview;
+
+    public Future<ExifMetadata> exifFuture;
+    public Future<Bitmap> thumbnailFuture;
+    public Future<ImageInfo> dateTimeFuture;
+    public Future<ImageInfo> locationFuture;
+
+    /*
+     * Whether the result of each future has been shown in the form.
+     */
+    public boolean thumbnailShown;
+    public boolean dateTimeShown;
+    public boolean locationShown;
+
+    private final Handler mHandler = new Handler();
 
     public FormStateFragment() {}
 
@@ -37,4 +72,87 @@ public class FormStateFragment extends Fragment {
         super.onCreate(savedInstanceState);
         setRetainInstance(true);
     }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        // The form is closed: the preview bitmap can be reused (the thumbnail stays in the cache)
+        if (labelPreview != null) BitmapPool.get(getActivity()).put(labelPreview.getBitmap());
+    }
+
+    /**
+     * Decodes the thumbnail, extracts the date/time and finds the location concurrently. The activity is notified each time one of them is
+     * done.
+     */
+    public void startLoading(Context context, final ImageSource imageSource) {
+        final ImageInfoExtractor imageInfoExtractor = new ImageInfoExtractor(context);
+        final ThumbnailCache thumbnailCache = ThumbnailCache.get(context);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        // Read by whichever of the date/time and location tasks comes first, the other one waits for it
+        final FutureTask<ExifMetadata> exifTask = new FutureTask<ExifMetadata>(new Callable<ExifMetadata>() {
+            @Override
+            public ExifMetadata call() {
+                return ImageInfoExtractor.readExif(imageSource);
+            }
+        });
+        exifFuture = exifTask;
+        thumbnailFuture = submit(executor, new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws Exception {
+                exifTask.run();
+                return thumbnailCache.getThumbnail(imageSource, exifTask.get(), 320, 320);
+            }
+        });
+        dateTimeFuture = submit(executor, new Callable<ImageInfo>() {
+            @Override
+            public ImageInfo call() throws Exception {
+                exifTask.run();
+                return imageInfoExtractor.extractDateTime(imageSource, exifTask.get());
+            }
+        });
+        locationFuture = submit(executor, new Callable<ImageInfo>() {
+            @Override
+            public ImageInfo call() throws Exception {
+                exifTask.run();
+                ImageInfo res = imageInfoExtractor.extractLocation(exifTask.get());
+                ImageInfoExtractor.saveGeocodeCache();
+                return res;
+            }
+        });
+        // The threads stop once the 3 tasks are done
+        executor.shutdown();
+    }
+
+    private <V> Future<V> submit(ExecutorService executor, Callable<V> callable) {
+        FutureTask<V> res = new FutureTask<V>(callable) {
+            @Override
+            protected void done() {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        FormActivity activity = (FormActivity) getActivity();
+                        if (activity != null) activity.onInfoLoaded();
+                    }
+                });
+            }
+        };
+        executor.execute(res);
+        return res;
+    }
+
+    /**
+     * @return The result of the given future, which must be done, or {@code null} if it failed.
+     */
+    public static <V> V getResult(Future<V> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Log.w(TAG, "getResult Task failed", e);
+            return null;
+        } catch (InterruptedException e) {
+            Log.w(TAG, "getResult Interrupted", e);
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
 }
@@ -0,0 +1,95 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.app.form;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+import org.jraf.android.piclabel.bitmap.BitmapPool;
+import org.jraf.android.piclabel.label.LabelRenderer;
+import org.jraf.android.piclabel.label.TypefaceRegistry;
+
+/**
+ * Preview of the label on the thumbnail of the picture.<br/>
+ * The label is laid out for the full resolution picture and drawn scaled down, so the preview has the geometry of the final render. An update
+ * only redraws the band at the top of the preview.
+ */
+public class LabelPreview {
+    private final Context mContext;
+    private final Bitmap mThumbnail;
+    private final Bitmap mBitmap;
+    private final int mImageWidth;
+    private final int mImageHeight;
+    private final float mScale;
+    private final Rect mBandRect = new Rect();
+    private int mBandHeight;
+
+    /**
+     * @param thumbnail The thumbnail of the picture, as displayed. It is not modified.
+     * @param bitmapPool The pool the bitmap of the preview is taken from. It should be given back when the preview is not used anymore.
+     * @param imageWidth The width of the full resolution picture, as displayed.
+     * @param imageHeight The height of the full resolution picture, as displayed.
+     */
+    public LabelPreview(Context context, Bitmap thumbnail, BitmapPool bitmapPool, int imageWidth, int imageHeight) {
+        mContext = context.getApplicationContext();
+        mThumbnail = thumbnail;
+        mBitmap = bitmapPool.get(thumbnail.getWidth(), thumbnail.getHeight(), Bitmap.Config.ARGB_8888);
+        new Canvas(mBitmap).drawBitmap(thumbnail, 0, 0, null);
+        mImageWidth = imageWidth;
+        mImageHeight = imageHeight;
+        mScale = (float) thumbnail.getWidth() / imageWidth;
+    }
+
+    /**
+     * @return The thumbnail with the label on it.
+     */
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    /**
+     * Redraws the label band with the given text and font. This never parses the font: if it is not loaded yet, the label is drawn with the
+     * default typeface.
+     * 
+     * @return {@code true} if the label was drawn with the given font, {@code false} if it was drawn with the default typeface.
+     */
+    public boolean update(String dateTime, String location, String fontName) {
+        Typeface typeface = TypefaceRegistry.get(mContext).getLoadedTypeface(fontName);
+        LabelRenderer labelRenderer = new LabelRenderer(typeface, dateTime, location, fontName, mImageWidth, mImageHeight);
+        int bandHeight = Math.min(mBitmap.getHeight(), (int) Math.ceil(labelRenderer.getLayout().getHeight() * mScale));
+
+        // Restore the thumbnail under the previous band (which may be taller than the new one)
+        Canvas canvas = new Canvas(mBitmap);
+        mBandRect.set(0, 0, mBitmap.getWidth(), Math.max(mBandHeight, bandHeight));
+        canvas.drawBitmap(mThumbnail, mBandRect, mBandRect, null);
+
+        canvas.scale(mScale, mScale);
+        labelRenderer.draw(canvas);
+        mBandHeight = bandHeight;
+        return typeface != null;
+    }
+}
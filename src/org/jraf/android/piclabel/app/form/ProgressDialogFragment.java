@@ -31,6 +31,21 @@ import android.support.v4.app.DialogFragment;
 import org.jraf.android.piclabel.R;
 
 public class ProgressDialogFragment extends DialogFragment {
+    private static final String ARG_MAX = "max";
+
+    private int mProgress;
+
+    /**
+     * @return A dialog that shows a progress bar going from 0 to {@code max}.
+     */
+    public static ProgressDialogFragment newInstance(int max) {
+        ProgressDialogFragment res = new ProgressDialogFragment();
+        Bundle args = new Bundle();
+        args.putInt(ARG_MAX, max);
+        res.setArguments(args);
+        return res;
+    }
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -41,6 +56,18 @@ public class ProgressDialogFragment extends DialogFragment {
     public Dialog onCreateDialog(Bundle savedInstanceState) {
         ProgressDialog res = new ProgressDialog(getActivity());
         res.setMessage(getString(R.string.common_pleaseWait));
+        int max = getArguments() == null ? 0 : getArguments().getInt(ARG_MAX);
+        if (max > 0) {
+            res.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            res.setMax(max);
+            res.setProgress(mProgress);
+        }
         return res;
     }
+
+    public void setProgress(int progress) {
+        mProgress = progress;
+        ProgressDialog dialog = (ProgressDialog) getDialog();
+        if (dialog != null) dialog.setProgress(progress);
+    }
 }
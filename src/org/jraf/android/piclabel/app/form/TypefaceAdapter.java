@@ -34,70 +34,47 @@
  */
 package org.jraf.android.piclabel.app.form;
 
-import java.io.IOException;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Locale;
-
 import android.content.Context;
 import android.graphics.Typeface;
-import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
 import android.widget.TextView;
 
-import org.jraf.android.piclabel.Constants;
 import org.jraf.android.piclabel.R;
+import org.jraf.android.piclabel.label.TypefaceRegistry;
+import org.jraf.android.piclabel.label.TypefaceRegistry.OnTypefaceLoadedListener;
 
-public class TypefaceAdapter extends ArrayAdapter<String> {
-    private static final String TAG = Constants.TAG + TypefaceAdapter.class.getSimpleName();
-    private static String[] mTypefaceFileNames;
-    private static String[] mTypefaceNames;
-    private static Typeface[] mTypefaces;
+/**
+ * Adapter on the available fonts. The names are shown right away, and each row gets its typeface when it has been loaded in the background.
+ */
+public class TypefaceAdapter extends ArrayAdapter<String> implements OnTypefaceLoadedListener {
+    private final TypefaceRegistry mTypefaceRegistry;
+    private final String[] mTypefaceFileNames;
 
     public TypefaceAdapter(Context context) {
-        super(context, android.R.layout.simple_spinner_item, getTypefaces(context));
+        this(context, TypefaceRegistry.get(context));
+    }
+
+    private TypefaceAdapter(Context context, TypefaceRegistry typefaceRegistry) {
+        super(context, android.R.layout.simple_spinner_item, typefaceRegistry.getFileNames());
         //setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        mTypefaceRegistry = typefaceRegistry;
+        mTypefaceFileNames = typefaceRegistry.getFileNames();
+        typefaceRegistry.loadAsync(mTypefaceFileNames, this);
     }
 
-    private static String[] getTypefaces(Context context) {
-        if (mTypefaceFileNames == null) {
-            try {
-                mTypefaceFileNames = context.getAssets().list("fonts");
-                List<String> typefaceFileNameList = Arrays.asList(mTypefaceFileNames);
-                Collections.sort(typefaceFileNameList, new Comparator<String>() {
-                    @Override
-                    public int compare(String lhs, String rhs) {
-                        return lhs.compareToIgnoreCase(rhs);
-                    }
-                });
-                mTypefaceFileNames = typefaceFileNameList.toArray(mTypefaceFileNames);
-                mTypefaceNames = new String[mTypefaceFileNames.length];
-                mTypefaces = new Typeface[mTypefaceFileNames.length];
-                int i = 0;
-                for (String fileName : mTypefaceFileNames) {
-                    mTypefaceNames[i] = fileName.substring(0, fileName.indexOf('.'));
-                    mTypefaceNames[i] = mTypefaceNames[i].substring(0, 1).toUpperCase(Locale.US) + mTypefaceNames[i].substring(1).toLowerCase(Locale.US);
-                    mTypefaces[i] = Typeface.createFromAsset(context.getAssets(), "fonts/" + fileName);
-                    i++;
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "getTypefaces Could not list fonts", e);
-                return new String[0];
-            }
-        }
-        return mTypefaceFileNames;
+    @Override
+    public void onTypefaceLoaded(String fileName, Typeface typeface) {
+        notifyDataSetChanged();
     }
 
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
         TextView res = (TextView) super.getView(position, convertView, parent);
         res.setTextSize(getContext().getResources().getDimension(R.dimen.typefaceAdapter_fontSize));
-        res.setTypeface(mTypefaces[position]);
-        res.setText(mTypefaceNames[position]);
+        res.setTypeface(mTypefaceRegistry.getLoadedTypeface(mTypefaceFileNames[position]));
+        res.setText(TypefaceRegistry.getDisplayName(mTypefaceFileNames[position]));
         return res;
     }
 
@@ -107,12 +84,12 @@ public class TypefaceAdapter extends ArrayAdapter<String> {
         int padding = getContext().getResources().getDimensionPixelSize(R.dimen.typefaceAdapter_padding_dropDown);
         res.setPadding(padding, padding, padding, padding);
         res.setTextSize(getContext().getResources().getDimension(R.dimen.typefaceAdapter_fontSize_dropDown));
-        res.setTypeface(mTypefaces[position]);
-        res.setText(mTypefaceNames[position]);
+        res.setTypeface(mTypefaceRegistry.getLoadedTypeface(mTypefaceFileNames[position]));
+        res.setText(TypefaceRegistry.getDisplayName(mTypefaceFileNames[position]));
         return res;
     }
 
     public String getTypefaceName(int position) {
         return mTypefaceFileNames[position];
     }
-}
\ No newline at end of file
+}
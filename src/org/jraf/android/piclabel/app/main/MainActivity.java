@@ -24,17 +24,22 @@
 package org.jraf.android.piclabel.app.main;
 
 import java.io.File;
+import java.util.ArrayList;
 
+import android.annotation.TargetApi;
 import android.app.Activity;
+import android.content.ClipData;
+import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
 import android.provider.MediaStore;
-import android.provider.MediaStore.MediaColumns;
 import android.support.v4.app.FragmentActivity;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.Toast;
@@ -42,7 +47,10 @@ import android.widget.Toast;
 import org.jraf.android.piclabel.Config;
 import org.jraf.android.piclabel.Constants;
 import org.jraf.android.piclabel.R;
+import org.jraf.android.piclabel.app.batch.BatchActivity;
 import org.jraf.android.piclabel.app.form.FormActivity;
+import org.jraf.android.piclabel.label.MediaScanBenchmark;
+import org.jraf.android.piclabel.util.MediaUtil;
 import org.jraf.android.util.file.FileUtil;
 import org.jraf.android.util.string.StringUtil;
 
@@ -51,6 +59,15 @@ public class MainActivity extends FragmentActivity {
 
     protected static final int REQUEST_TAKE_PICTURE = 0;
     protected static final int REQUEST_PICK_FROM_GALLERY = 1;
+    protected static final int REQUEST_PICK_SEVERAL = 2;
+    protected static final int REQUEST_PICK_FOLDER = 3;
+
+    /**
+     * Same as {@code Intent.EXTRA_ALLOW_MULTIPLE}, which is only available in API 18.
+     */
+    private static final String EXTRA_ALLOW_MULTIPLE = "android.intent.extra.ALLOW_MULTIPLE";
+
+    private static final int MENU_BENCHMARK_MEDIA_SCAN = 1;
 
     private File mImageCaptureFile;
 
@@ -60,6 +77,8 @@ public class MainActivity extends FragmentActivity {
         setContentView(R.layout.main);
         findViewById(R.id.btnTakePicture).setOnClickListener(mTakePictureOnClickListener);
         findViewById(R.id.btnPickFromGallery).setOnClickListener(mPickFromGalleryOnClickListener);
+        findViewById(R.id.btnPickSeveral).setOnClickListener(mPickSeveralOnClickListener);
+        findViewById(R.id.btnPickFolder).setOnClickListener(mPickFolderOnClickListener);
 
         if (savedInstanceState != null) {
             mImageCaptureFile = (File) savedInstanceState.getSerializable("mImageCaptureFile");
@@ -73,6 +92,51 @@ public class MainActivity extends FragmentActivity {
     }
 
 
+    /*
+     * Menu.
+     */
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        if (Config.LOGD) menu.add(Menu.NONE, MENU_BENCHMARK_MEDIA_SCAN, Menu.NONE, R.string.main_benchmarkMediaScan);
+        return super.onCreateOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case MENU_BENCHMARK_MEDIA_SCAN:
+                benchmarkMediaScan();
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Debug builds only: compares the media scan of several pictures together with one scan per picture (see {@link MediaScanBenchmark}).
+     */
+    private void benchmarkMediaScan() {
+        final Context context = getApplicationContext();
+        new AsyncTask<Void, Void, String>() {
+            @Override
+            protected String doInBackground(Void... params) {
+                try {
+                    String res = MediaScanBenchmark.run(context);
+                    return res == null ? context.getString(R.string.main_benchmarkMediaScan_noPictures) : res;
+                } catch (Exception e) {
+                    Log.w(TAG, "benchmarkMediaScan Could not run the benchmark", e);
+                    return context.getString(R.string.main_benchmarkMediaScan_failed);
+                }
+            }
+
+            @Override
+            protected void onPostExecute(String result) {
+                Toast.makeText(context, result, Toast.LENGTH_LONG).show();
+            }
+        }.execute();
+    }
+
+
     /*
      * Take picture.
      */
@@ -100,6 +164,44 @@ public class MainActivity extends FragmentActivity {
         }
     };
 
+
+
+    /*
+     * Batch.
+     */
+
+    private final OnClickListener mPickSeveralOnClickListener = new OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            Intent galleryIntent = new Intent(Intent.ACTION_GET_CONTENT).setType("image/*").putExtra(EXTRA_ALLOW_MULTIPLE, true);
+            startActivityForResult(Intent.createChooser(galleryIntent, null), REQUEST_PICK_SEVERAL);
+        }
+    };
+
+    private final OnClickListener mPickFolderOnClickListener = new OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            // There is no folder picker: the folder of the picked picture is used
+            Toast.makeText(MainActivity.this, R.string.main_pickFolder, Toast.LENGTH_LONG).show();
+            Intent galleryIntent = new Intent(Intent.ACTION_PICK, MediaStore.Images.Media.INTERNAL_CONTENT_URI);
+            startActivityForResult(Intent.createChooser(galleryIntent, null), REQUEST_PICK_FOLDER);
+        }
+    };
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static ArrayList<Uri> getPickedUris(Intent data) {
+        ArrayList<Uri> res = new ArrayList<Uri>();
+        ClipData clipData = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ? data.getClipData() : null;
+        if (clipData != null) {
+            for (int i = 0; i < clipData.getItemCount(); i++) {
+                res.add(clipData.getItemAt(i).getUri());
+            }
+        } else if (data.getData() != null) {
+            res.add(data.getData());
+        }
+        return res;
+    }
+
     @Override
     public void onActivityResult(final int requestCode, int resultCode, final Intent data) {
         if (Config.LOGD) Log.d(TAG, "onActivityResult requestCode=" + requestCode + " resultCode=" + resultCode + " data=" + StringUtil.toString(data));
@@ -113,11 +215,32 @@ public class MainActivity extends FragmentActivity {
                 break;
 
             case REQUEST_PICK_FROM_GALLERY:
-                // The picture is stored in the media store: get the corresponding file
+                // The picture is stored in the media store: get the corresponding file, which is faster to read than the uri
                 new AsyncTask<Void, Void, File>() {
                     @Override
                     protected File doInBackground(Void... params) {
-                        return getFileFromMediaUri(data.getData());
+                        return MediaUtil.getFileFromMediaUri(MainActivity.this, data.getData());
+                    }
+
+                    @Override
+                    protected void onPostExecute(File result) {
+                        // The user probably picked a Picasa picture: it is read through its uri
+                        Uri picUri = result != null ? Uri.fromFile(result) : data.getData();
+                        startActivity(new Intent(MainActivity.this, FormActivity.class).setData(picUri).addFlags(
+                                Intent.FLAG_GRANT_READ_URI_PERMISSION));
+                    }
+                }.execute();
+                break;
+
+            case REQUEST_PICK_SEVERAL:
+                startActivity(new Intent(MainActivity.this, BatchActivity.class).putParcelableArrayListExtra(Intent.EXTRA_STREAM, getPickedUris(data)));
+                break;
+
+            case REQUEST_PICK_FOLDER:
+                new AsyncTask<Void, Void, File>() {
+                    @Override
+                    protected File doInBackground(Void... params) {
+                        return MediaUtil.getFileFromMediaUri(MainActivity.this, data.getData());
                     }
 
                     @Override
@@ -127,43 +250,11 @@ public class MainActivity extends FragmentActivity {
                             Toast.makeText(MainActivity.this, R.string.main_externalSource, Toast.LENGTH_LONG).show();
                             return;
                         }
-                        Uri picUri = Uri.fromFile(result);
-                        startActivity(new Intent(MainActivity.this, FormActivity.class).setData(picUri));
+                        Uri folderUri = Uri.fromFile(result.getParentFile());
+                        startActivity(new Intent(MainActivity.this, BatchActivity.class).setData(folderUri));
                     }
                 }.execute();
                 break;
         }
     }
-
-    private File getFileFromMediaUri(Uri mediaUri) {
-        if (Config.LOGD) Log.d(TAG, "getFileFromMediaUri mediaUri=" + mediaUri);
-
-        // Sometimes the image picker returns a file uri directly
-        if ("file".equals(mediaUri.getScheme())) {
-            File res = new File(mediaUri.getPath());
-            if (!res.exists()) {
-                return null;
-            }
-            return res;
-        }
-
-        // Do a query to get the path
-        String[] projection = { MediaColumns.DATA };
-        Cursor cursor = getContentResolver().query(mediaUri, projection, null, null, null);
-        try {
-            if (cursor == null || !cursor.moveToFirst()) {
-                Log.w(TAG, "getFileFromMediaUri null or empty cursor, returning null");
-                return null;
-            }
-            String filePath = cursor.getString(0);
-            if (Config.LOGD) Log.d(TAG, "getFileFromMediaUri filePath=" + filePath);
-            if (filePath == null) {
-                Log.w(TAG, "getFileFromMediaUri Returned filePath is null (Picasa?)");
-                return null;
-            }
-            return new File(filePath);
-        } finally {
-            if (cursor != null) cursor.close();
-        }
-    }
 }
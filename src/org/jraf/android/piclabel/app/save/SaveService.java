@@ -0,0 +1,198 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.app.save;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.app.ActivityManager;
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Process;
+import android.text.format.DateUtils;
+import android.util.Log;
+import android.widget.Toast;
+
+import org.jraf.android.piclabel.Config;
+import org.jraf.android.piclabel.Constants;
+import org.jraf.android.piclabel.R;
+import org.jraf.android.piclabel.bitmap.ImageSource;
+import org.jraf.android.piclabel.label.ImageLabeler;
+import org.jraf.android.piclabel.label.MediaScanAggregator;
+import org.jraf.android.piclabel.label.PipelineStatsStore;
+
+/**
+ * Labels and saves pictures in the background, one at a time, so that the form can be closed right away.<br/>
+ * The queue survives the activity: the intents are redelivered if the process is killed before they are handled. Pictures read through a
+ * content uri are copied before they are queued, since the permission to read them does not survive the activity that got it.<br/>
+ * The labeled pictures are added to the media store when the queue is empty, in one scan.
+ */
+public class SaveService extends IntentService {
+    private static final String TAG = Constants.TAG + SaveService.class.getSimpleName();
+
+    private static final String ACTION_SAVE = "org.jraf.android.piclabel.ACTION_SAVE";
+    private static final String ACTION_SCAN = "org.jraf.android.piclabel.ACTION_SCAN";
+    private static final String EXTRA_DATE_TIME = "EXTRA_DATE_TIME";
+    private static final String EXTRA_LOCATION = "EXTRA_LOCATION";
+    private static final String EXTRA_FONT_NAME = "EXTRA_FONT_NAME";
+    private static final String EXTRA_DELETE_SOURCE = "EXTRA_DELETE_SOURCE";
+
+    private static final String QUEUE_FOLDER = "queue";
+    private static final long QUEUE_TIME_TO_LIVE = DateUtils.DAY_IN_MILLIS;
+
+    private static final long SCAN_TIMEOUT_MS = 30 * 1000;
+    private static final int LOW_MEMORY_CLASS_MB = 32;
+
+    private final Handler mHandler = new Handler();
+    private final AtomicInteger mPendingCount = new AtomicInteger();
+    private ImageLabeler mImageLabeler;
+    private MediaScanAggregator mMediaScanAggregator;
+
+    public SaveService() {
+        super(TAG);
+        setIntentRedelivery(true);
+    }
+
+    /**
+     * Adds a picture to label and save to the queue.<br/>
+     * A picture that is not a local file is first copied to the files folder, and the copy is deleted once it is saved: this should not be
+     * called on the main thread.
+     */
+    public static void save(Context context, ImageSource source, String dateTime, String location, String fontName) throws IOException {
+        File file = source.getFile();
+        boolean deleteSource = false;
+        if (file == null) {
+            File folder = new File(context.getFilesDir(), QUEUE_FOLDER);
+            folder.mkdirs();
+            deleteOldQueuedFiles(folder);
+            file = File.createTempFile("queued", null, folder);
+            source.copyTo(file);
+            deleteSource = true;
+            if (Config.LOGD) Log.d(TAG, "save Copied " + source + " to " + file);
+        }
+        Intent intent = new Intent(context, SaveService.class);
+        intent.setAction(ACTION_SAVE);
+        intent.setData(Uri.fromFile(file));
+        intent.putExtra(EXTRA_DATE_TIME, dateTime);
+        intent.putExtra(EXTRA_LOCATION, location);
+        intent.putExtra(EXTRA_FONT_NAME, fontName);
+        intent.putExtra(EXTRA_DELETE_SOURCE, deleteSource);
+        context.startService(intent);
+    }
+
+    /**
+     * Deletes the copies whose intent was lost (for instance if the app was force stopped before they were saved).
+     */
+    private static void deleteOldQueuedFiles(File folder) {
+        File[] files = folder.listFiles();
+        if (files == null) return;
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            if (now - file.lastModified() > QUEUE_TIME_TO_LIVE) file.delete();
+        }
+    }
+
+    /**
+     * Adds an already labeled picture to the media store, with the next scan of the queue.
+     */
+    public static void scan(Context context, File processedImageFile) {
+        Intent intent = new Intent(context, SaveService.class);
+        intent.setAction(ACTION_SCAN);
+        intent.setData(Uri.fromFile(processedImageFile));
+        context.startService(intent);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mImageLabeler = new ImageLabeler(this);
+        // With a small heap, big pictures are decoded in 16 bits rather than not at all
+        ActivityManager activityManager = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+        if (activityManager.getMemoryClass() <= LOW_MEMORY_CLASS_MB) mImageLabeler.setDecodeConfig(Bitmap.Config.RGB_565);
+        mMediaScanAggregator = new MediaScanAggregator(this);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        mPendingCount.incrementAndGet();
+        return super.onStartCommand(intent, flags, startId);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try {
+            if (ACTION_SAVE.equals(intent.getAction())) {
+                handleSave(intent);
+            } else if (ACTION_SCAN.equals(intent.getAction())) {
+                mMediaScanAggregator.add(new File(intent.getData().getPath()));
+            }
+        } finally {
+            // Scan everything at once when there is nothing more to save
+            if (mPendingCount.decrementAndGet() == 0) scanAll();
+        }
+    }
+
+    private void handleSave(Intent intent) {
+        ImageSource imageSource = ImageSource.fromUri(this, intent.getData());
+        try {
+            File processedImageFile = mImageLabeler.label(imageSource, intent.getStringExtra(EXTRA_DATE_TIME),
+                    intent.getStringExtra(EXTRA_LOCATION), intent.getStringExtra(EXTRA_FONT_NAME));
+            mMediaScanAggregator.add(processedImageFile);
+            toast(R.string.form_process_success);
+        } catch (Throwable t) {
+            Log.e(TAG, "handleSave Could not process " + imageSource, t);
+            toast(R.string.form_couldNotProcessImage);
+        } finally {
+            imageSource.release();
+            if (intent.getBooleanExtra(EXTRA_DELETE_SOURCE, false)) new File(intent.getData().getPath()).delete();
+        }
+    }
+
+    /**
+     * Scans the saved pictures, and waits for the scan to finish so that this service (and the process) stays alive until then.
+     */
+    private void scanAll() {
+        try {
+            mMediaScanAggregator.flushAndWait(SCAN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Log.w(TAG, "scanAll Interrupted", e);
+        }
+        PipelineStatsStore.save(this);
+    }
+
+    private void toast(final int textResId) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(getApplicationContext(), textResId, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.batch;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a job on every item of a list, on a bounded pool of worker threads.<br/>
+ * The pool size is bounded both by the number of cores and by the memory budget (see {@link #getPoolSize(int, long, long)}), so that a batch of
+ * big pictures does not run out of memory. This class does not depend on Android.
+ * 
+ * @param <T> The type of the items.
+ */
+public class BatchScheduler<T> {
+    public interface Job<T> {
+        /**
+         * Processes one item. Called from a worker thread.
+         */
+        void process(T item) throws Exception;
+    }
+
+    public interface Listener<T> {
+        /**
+         * Called from a worker thread each time an item has been processed. Calls are serialized, and {@code finishedCount} grows by 1 each time.
+         * 
+         * @param error The error thrown by the job, or {@code null} if the item was processed successfully.
+         */
+        void onItemFinished(T item, Throwable error, int finishedCount, int totalCount);
+    }
+
+    public static class Result {
+        public int succeeded;
+        public int failed;
+        public int cancelled;
+    }
+
+    private final int mPoolSize;
+    private volatile boolean mCancelled;
+
+    public BatchScheduler(int poolSize) {
+        if (poolSize < 1) throw new IllegalArgumentException("poolSize must be at least 1");
+        mPoolSize = poolSize;
+    }
+
+    /**
+     * Computes how many items can be processed at the same time.
+     * 
+     * @param coreCount The number of available cores.
+     * @param memoryBudget The memory that the whole batch may use, in bytes.
+     * @param itemMemory The peak memory used to process one item, in bytes.
+     * @return A pool size between 1 and {@code coreCount}.
+     */
+    public static int getPoolSize(int coreCount, long memoryBudget, long itemMemory) {
+        long res = coreCount;
+        if (itemMemory > 0) res = Math.min(res, memoryBudget / itemMemory);
+        return (int) Math.max(1, res);
+    }
+
+    public int getPoolSize() {
+        return mPoolSize;
+    }
+
+    /**
+     * Stops the batch: the items being processed are finished, the others are skipped.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Processes all the items, and blocks until they are all finished (or the batch is cancelled).
+     * 
+     * @param listener Notified after each item, can be {@code null}.
+     * @throws InterruptedException If the calling thread is interrupted. The batch is cancelled in that case.
+     */
+    public Result run(final List<T> items, final Job<T> job, final Listener<T> listener) throws InterruptedException {
+        final Result res = new Result();
+        final int totalCount = items.size();
+        final AtomicInteger nextIndex = new AtomicInteger();
+        final Object lock = new Object();
+
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int index;
+                while (!mCancelled && (index = nextIndex.getAndIncrement()) < totalCount) {
+                    T item = items.get(index);
+                    Throwable error = null;
+                    try {
+                        job.process(item);
+                    } catch (Throwable t) {
+                        error = t;
+                    }
+                    synchronized (lock) {
+                        if (error == null) {
+                            res.succeeded++;
+                        } else {
+                            res.failed++;
+                        }
+                        if (listener != null) listener.onItemFinished(item, error, res.succeeded + res.failed, totalCount);
+                    }
+                }
+            }
+        };
+
+        int threadCount = Math.min(mPoolSize, totalCount);
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(worker, BatchScheduler.class.getSimpleName() + "-" + i);
+            threads[i].start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            cancel();
+            throw e;
+        }
+
+        synchronized (lock) {
+            res.cancelled = totalCount - res.succeeded - res.failed;
+        }
+        return res;
+    }
+}
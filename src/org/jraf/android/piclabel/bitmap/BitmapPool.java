@@ -0,0 +1,290 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.bitmap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+import android.util.Log;
+
+import org.jraf.android.piclabel.Config;
+import org.jraf.android.piclabel.Constants;
+
+/**
+ * Mutable bitmaps that are not used anymore, kept to be reused instead of allocating new ones (directly, or through
+ * {@link BitmapFactory.Options#inBitmap}).<br/>
+ * Bitmaps are grouped by size and config, since only a bitmap of the exact same size can be reused before API 19. The least recently released
+ * bitmaps are recycled when the pool holds more bytes than its maximum size.<br/>
+ * Instances can be used from several threads.
+ */
+public class BitmapPool {
+    private static final String TAG = Constants.TAG + BitmapPool.class.getSimpleName();
+
+    private static BitmapPool mInstance;
+
+    private final long mMaxSize;
+    private final Map<Key, List<Bitmap>> mBuckets = new HashMap<Key, List<Bitmap>>();
+    /**
+     * All the pooled bitmaps, least recently released first.
+     */
+    private final LinkedList<Bitmap> mLru = new LinkedList<Bitmap>();
+    private long mSize;
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * @param maxSize Maximum number of bytes of the pooled bitmaps.
+     */
+    public BitmapPool(long maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * @return The pool shared by the whole app, which uses up to an eighth of the heap and is trimmed when the system is low on memory.
+     */
+    public static synchronized BitmapPool get(Context context) {
+        if (mInstance == null) {
+            mInstance = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) registerComponentCallbacks(context.getApplicationContext());
+        }
+        return mInstance;
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private static void registerComponentCallbacks(Context context) {
+        context.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                mInstance.trimMemory(level);
+            }
+
+            @Override
+            public void onLowMemory() {
+                mInstance.clear();
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {}
+        });
+    }
+
+    /**
+     * @return A mutable bitmap of the given size and config, filled with transparent pixels: a pooled one if possible, or a new one.
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap res = take(width, height, config);
+        if (res == null) return Bitmap.createBitmap(width, height, config);
+        res.eraseColor(0);
+        return res;
+    }
+
+    /**
+     * Decodes a picture into a pooled bitmap if possible. The result is mutable from API 11.
+     * 
+     * @param width The width of the decoded bitmap (the width of the picture, divided by the sample size).
+     * @param height The height of the decoded bitmap.
+     * @return The decoded bitmap, or {@code null} if the picture could not be decoded.
+     * @throws IOException If the picture could not be opened.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public Bitmap decode(ImageSource source, int width, int height, BitmapFactory.Options options) throws IOException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return source.decode(options);
+        // Decode directly to a mutable bitmap, so that no copy is needed to draw on it
+        options.inMutable = true;
+        // Before API 19, a bitmap can only be decoded into if the sample size is 1
+        if (options.inSampleSize > 1) return source.decode(options);
+        options.inBitmap = take(width, height, options.inPreferredConfig == null ? Bitmap.Config.ARGB_8888 : options.inPreferredConfig);
+        try {
+            return source.decode(options);
+        } catch (IllegalArgumentException e) {
+            // Nothing was taken from the pool (miss): the error is not about the pooled bitmap
+            if (options.inBitmap == null) throw e;
+            Log.w(TAG, "decode Could not decode into a pooled bitmap", e);
+            options.inBitmap.recycle();
+            options.inBitmap = null;
+            return source.decode(options);
+        } finally {
+            options.inBitmap = null;
+        }
+    }
+
+    /**
+     * Decodes a region into a pooled bitmap if possible (from API 16).
+     * 
+     * @return The decoded region, or {@code null} if it could not be decoded.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Bitmap decodeRegion(BitmapRegionDecoder regionDecoder, Rect rect, BitmapFactory.Options options) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN || options.inSampleSize > 1) return regionDecoder.decodeRegion(rect, options);
+        options.inBitmap = take(rect.width(), rect.height(), options.inPreferredConfig == null ? Bitmap.Config.ARGB_8888 : options.inPreferredConfig);
+        try {
+            return regionDecoder.decodeRegion(rect, options);
+        } catch (IllegalArgumentException e) {
+            // Nothing was taken from the pool (miss): the error is not about the pooled bitmap
+            if (options.inBitmap == null) throw e;
+            Log.w(TAG, "decodeRegion Could not decode into a pooled bitmap", e);
+            options.inBitmap.recycle();
+            options.inBitmap = null;
+            return regionDecoder.decodeRegion(rect, options);
+        } finally {
+            options.inBitmap = null;
+        }
+    }
+
+    /**
+     * Gives a bitmap back to the pool. It must not be used by the caller anymore. Bitmaps that cannot be reused (immutable, or too big) are
+     * recycled.
+     */
+    public void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) return;
+        long byteCount = getByteCount(bitmap);
+        if (!bitmap.isMutable() || byteCount > mMaxSize) {
+            bitmap.recycle();
+            return;
+        }
+        synchronized (this) {
+            if (mLru.contains(bitmap)) return;
+            Key key = new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            List<Bitmap> bucket = mBuckets.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<Bitmap>(2);
+                mBuckets.put(key, bucket);
+            }
+            bucket.add(bitmap);
+            mLru.addLast(bitmap);
+            mSize += byteCount;
+            trimToSize(mMaxSize);
+        }
+    }
+
+    private synchronized Bitmap take(int width, int height, Bitmap.Config config) {
+        List<Bitmap> bucket = mBuckets.get(new Key(width, height, config));
+        if (bucket == null || bucket.isEmpty()) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        Bitmap res = bucket.remove(bucket.size() - 1);
+        mLru.remove(res);
+        mSize -= getByteCount(res);
+        return res;
+    }
+
+    /**
+     * Recycles the least recently released bitmaps until the pool holds at most the given number of bytes.
+     */
+    public synchronized void trimToSize(long size) {
+        while (mSize > size && !mLru.isEmpty()) {
+            Bitmap bitmap = mLru.removeFirst();
+            mBuckets.get(new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig())).remove(bitmap);
+            mSize -= getByteCount(bitmap);
+            bitmap.recycle();
+        }
+    }
+
+    public void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Releases memory according to the given level (one of the {@code ComponentCallbacks2.TRIM_MEMORY_*} constants).
+     */
+    public void trimMemory(int level) {
+        if (Config.LOGD) Log.d(TAG, "trimMemory level=" + level + " " + this);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(mMaxSize / 2);
+        }
+    }
+
+    /**
+     * @return The bytes used by the pixels of the given bitmap ({@link Bitmap#getByteCount()} needs API 12).
+     */
+    public static long getByteCount(Bitmap bitmap) {
+        return (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return The number of bytes of the pooled bitmaps.
+     */
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool [size=" + mSize + "/" + mMaxSize + " count=" + mLru.size() + " hits=" + mHitCount + " misses=" + mMissCount + "]";
+    }
+
+
+    private static class Key {
+        private final int mWidth;
+        private final int mHeight;
+        private final Bitmap.Config mConfig;
+
+        public Key(int width, int height, Bitmap.Config config) {
+            mWidth = width;
+            mHeight = height;
+            mConfig = config;
+        }
+
+        @Override
+        public int hashCode() {
+            return (mWidth * 31 + mHeight) * 31 + (mConfig == null ? 0 : mConfig.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return mWidth == other.mWidth && mHeight == other.mHeight && mConfig == other.mConfig;
+        }
+    }
+}
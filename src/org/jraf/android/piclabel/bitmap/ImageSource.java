@@ -0,0 +1,583 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.bitmap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore.MediaColumns;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import org.jraf.android.piclabel.Config;
+import org.jraf.android.piclabel.Constants;
+import org.jraf.android.util.io.IoUtil;
+
+/**
+ * A picture to read: a local file, or the content of a uri (for instance a picture of a cloud album picked in the gallery), which is read
+ * through the file descriptor given by its provider, without needing a path.<br/>
+ * Every method opens the picture again: none of them should be called on the main thread. {@link #release()} should be called when the
+ * picture is not needed anymore.<br/>
+ * Instances can be used from several threads.
+ */
+public abstract class ImageSource {
+    private static final String TAG = Constants.TAG + ImageSource.class.getSimpleName();
+
+    private static final String SPOOL_FOLDER = "sources";
+    private static final long SPOOL_TIME_TO_LIVE = DateUtils.DAY_IN_MILLIS;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Bytes of a piped content kept in memory: enough for the exif segment and the header of the frame.
+     */
+    private static final int HEAD_SIZE = 256 * 1024;
+
+    public static ImageSource fromFile(File file) {
+        return new FileImageSource(file);
+    }
+
+    /**
+     * @param uri A {@code file} or {@code content} uri.
+     */
+    public static ImageSource fromUri(Context context, Uri uri) {
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) return new FileImageSource(new File(uri.getPath()));
+        return new UriImageSource(context, uri);
+    }
+
+    /**
+     * @return The local file of this picture, or {@code null} if it is only available through a uri.
+     */
+    public File getFile() {
+        return null;
+    }
+
+    /**
+     * @return A new (unbuffered) stream on the picture.
+     */
+    public abstract InputStream openInputStream() throws IOException;
+
+    /**
+     * @return A new descriptor on the picture, positioned at its start. It must be closed by the caller.
+     */
+    public abstract ParcelFileDescriptor openFileDescriptor() throws IOException;
+
+    /**
+     * @return The size of the picture in bytes, or {@code 0} if it could not be read.
+     */
+    public abstract long getLength();
+
+    /**
+     * @return A string identifying this version of the picture, to be used as a cache key.
+     */
+    public abstract String getKey();
+
+    /**
+     * Decodes the picture, like {@link BitmapFactory#decodeFile(String, BitmapFactory.Options)}.
+     */
+    public Bitmap decode(BitmapFactory.Options options) throws IOException {
+        ParcelFileDescriptor fileDescriptor = openFileDescriptor();
+        try {
+            return BitmapFactory.decodeFileDescriptor(fileDescriptor.getFileDescriptor(), null, options);
+        } finally {
+            close(fileDescriptor);
+        }
+    }
+
+    /**
+     * @return The size of the picture in {@code outWidth} and {@code outHeight}, which are {@code -1} if it could not be decoded.
+     */
+    public BitmapFactory.Options decodeBounds() {
+        BitmapFactory.Options res = new BitmapFactory.Options();
+        res.inJustDecodeBounds = true;
+        try {
+            decode(res);
+        } catch (IOException e) {
+            Log.w(TAG, "decodeBounds Could not open " + this, e);
+            res.outWidth = -1;
+            res.outHeight = -1;
+        }
+        return res;
+    }
+
+    /**
+     * @return A new region decoder on the picture. It must be recycled by the caller, before {@link #release()} is called.
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+    public abstract BitmapRegionDecoder newRegionDecoder() throws IOException;
+
+    /**
+     * Copies the picture to the given file.
+     */
+    public void copyTo(File file) throws IOException {
+        InputStream in = openInputStream();
+        OutputStream out = null;
+        boolean ok = false;
+        try {
+            out = new FileOutputStream(file);
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            out.close();
+            ok = true;
+        } finally {
+            IoUtil.closeSilently(in);
+            IoUtil.closeSilently(out);
+            if (!ok) file.delete();
+        }
+    }
+
+    /**
+     * Deletes the temporary copy of the picture made by this source, if no other source of the same picture still uses it, and closes the
+     * descriptors of its region decoders. The source can still be used afterwards.
+     */
+    public void release() {}
+
+    /**
+     * {@link ParcelFileDescriptor} is only {@link java.io.Closeable} from API 16.
+     */
+    private static void close(ParcelFileDescriptor fileDescriptor) {
+        try {
+            fileDescriptor.close();
+        } catch (IOException e) {
+            Log.w(TAG, "close Could not close " + fileDescriptor, e);
+        }
+    }
+
+
+    private static class FileImageSource extends ImageSource {
+        private final File mFile;
+
+        public FileImageSource(File file) {
+            mFile = file;
+        }
+
+        @Override
+        public File getFile() {
+            return mFile;
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            return new FileInputStream(mFile);
+        }
+
+        @Override
+        public ParcelFileDescriptor openFileDescriptor() throws IOException {
+            return ParcelFileDescriptor.open(mFile, ParcelFileDescriptor.MODE_READ_ONLY);
+        }
+
+        @Override
+        public Bitmap decode(BitmapFactory.Options options) {
+            return BitmapFactory.decodeFile(mFile.getPath(), options);
+        }
+
+        @Override
+        public long getLength() {
+            return mFile.length();
+        }
+
+        @Override
+        public String getKey() {
+            return mFile.getAbsolutePath() + "|" + mFile.length() + "|" + mFile.lastModified();
+        }
+
+        @Override
+        @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+        public BitmapRegionDecoder newRegionDecoder() throws IOException {
+            return BitmapRegionDecoder.newInstance(mFile.getPath(), false);
+        }
+
+        @Override
+        public String toString() {
+            return mFile.toString();
+        }
+    }
+
+    /**
+     * The content of a uri. Providers usually give a descriptor on a file, which is read in place.<br/>
+     * When they stream the content through a pipe instead (it has no size, and cannot be read several times), its first bytes are kept in memory:
+     * the exif tags and the bounds are read from them, and the rest is streamed from the provider again when needed. Only
+     * {@link #openFileDescriptor()} needs the content to be copied to the cache folder: this copy is shared by all the sources of the same uri,
+     * and deleted when they are all {@link #release() released}.
+     */
+    private static class UriImageSource extends ImageSource {
+        private static final HashMap<Uri, Spool> SPOOLS = new HashMap<Uri, Spool>();
+
+        /**
+         * Column of the documents providers (DocumentsContract.Document.COLUMN_LAST_MODIFIED, API 19), in milliseconds.
+         */
+        private static final String COLUMN_LAST_MODIFIED = "last_modified";
+
+        private final Context mContext;
+        private final Uri mUri;
+        private boolean mChecked;
+        private long mLength;
+        private byte[] mHead;
+        private int mHeadLength;
+        private Spool mSpool;
+        private boolean mLastModifiedQueried;
+        private long mLastModified;
+
+        /**
+         * Descriptors of the region decoders, which read them for as long as they are used.
+         */
+        private final ArrayList<ParcelFileDescriptor> mRegionDecoderFileDescriptors = new ArrayList<ParcelFileDescriptor>();
+
+        /**
+         * A copy of the content of a uri, shared by all its sources.
+         */
+        private static class Spool {
+            public int refCount;
+            public volatile File file;
+        }
+
+        public UriImageSource(Context context, Uri uri) {
+            mContext = context.getApplicationContext();
+            mUri = uri;
+        }
+
+        /**
+         * Checks whether the content is seekable the first time it is read. If it is not, reads its first bytes.
+         * 
+         * @return {@code true} if the content is streamed through a pipe, {@code false} if it is read in place.
+         */
+        private synchronized boolean isPipe() throws IOException {
+            if (mChecked) return mHead != null;
+            ParcelFileDescriptor fileDescriptor = openProviderFileDescriptor();
+            try {
+                mLength = fileDescriptor.getStatSize();
+            } finally {
+                close(fileDescriptor);
+            }
+            if (mLength < 0) readHead();
+            if (Config.LOGD) Log.d(TAG, "isPipe " + mUri + " length=" + mLength + " head=" + mHeadLength);
+            mChecked = true;
+            return mHead != null;
+        }
+
+        private InputStream openProviderInputStream() throws IOException {
+            InputStream res = mContext.getContentResolver().openInputStream(mUri);
+            if (res == null) throw new FileNotFoundException("Could not open " + mUri);
+            return res;
+        }
+
+        private ParcelFileDescriptor openProviderFileDescriptor() throws IOException {
+            ParcelFileDescriptor res = mContext.getContentResolver().openFileDescriptor(mUri, "r");
+            if (res == null) throw new FileNotFoundException("Could not open " + mUri);
+            return res;
+        }
+
+        /**
+         * Reads the first {@link #HEAD_SIZE} bytes of the content. If the whole content fits, its length is known.
+         */
+        private void readHead() throws IOException {
+            byte[] head = new byte[HEAD_SIZE];
+            int headLength = 0;
+            InputStream in = openProviderInputStream();
+            try {
+                int read;
+                while (headLength < HEAD_SIZE && (read = in.read(head, headLength, HEAD_SIZE - headLength)) != -1) {
+                    headLength += read;
+                }
+                if (headLength < HEAD_SIZE) mLength = headLength;
+            } finally {
+                IoUtil.closeSilently(in);
+            }
+            mHead = head;
+            mHeadLength = headLength;
+        }
+
+        /**
+         * @return The copy of the content, made if no other source of this uri has made it yet.
+         */
+        private File getSpoolFile() throws IOException {
+            Spool spool;
+            synchronized (this) {
+                if (mSpool == null) {
+                    synchronized (SPOOLS) {
+                        mSpool = SPOOLS.get(mUri);
+                        if (mSpool == null) {
+                            mSpool = new Spool();
+                            SPOOLS.put(mUri, mSpool);
+                        }
+                        mSpool.refCount++;
+                    }
+                }
+                spool = mSpool;
+            }
+            File res;
+            synchronized (spool) {
+                if (spool.file == null) spool.file = spool();
+                res = spool.file;
+            }
+            synchronized (this) {
+                if (mLength < 0) mLength = res.length();
+            }
+            return res;
+        }
+
+        private File spool() throws IOException {
+            File folder = new File(mContext.getCacheDir(), SPOOL_FOLDER);
+            folder.mkdirs();
+            deleteOldSpoolFiles(folder);
+            File res = new File(folder, Integer.toHexString(mUri.toString().hashCode()) + "-" + System.currentTimeMillis());
+            copyTo(res);
+            if (Config.LOGD) Log.d(TAG, "spool Copied " + mUri + " to " + res + " (" + res.length() + " bytes)");
+            return res;
+        }
+
+        /**
+         * Deletes the copies left by a previous run that did not release them (for instance because the process was killed).
+         */
+        private static void deleteOldSpoolFiles(File folder) {
+            File[] files = folder.listFiles();
+            if (files == null) return;
+            long now = System.currentTimeMillis();
+            for (File file : files) {
+                if (now - file.lastModified() > SPOOL_TIME_TO_LIVE) file.delete();
+            }
+        }
+
+        @Override
+        public void release() {
+            Spool spool;
+            ArrayList<ParcelFileDescriptor> regionDecoderFileDescriptors;
+            synchronized (this) {
+                spool = mSpool;
+                mSpool = null;
+                regionDecoderFileDescriptors = new ArrayList<ParcelFileDescriptor>(mRegionDecoderFileDescriptors);
+                mRegionDecoderFileDescriptors.clear();
+            }
+            for (ParcelFileDescriptor fileDescriptor : regionDecoderFileDescriptors) {
+                close(fileDescriptor);
+            }
+            if (spool == null) return;
+            synchronized (SPOOLS) {
+                if (--spool.refCount > 0) return;
+                SPOOLS.remove(mUri);
+            }
+            synchronized (spool) {
+                if (spool.file != null && !spool.file.delete()) Log.w(TAG, "release Could not delete " + spool.file);
+                spool.file = null;
+            }
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            if (!isPipe()) return openProviderInputStream();
+            File spoolFile;
+            synchronized (this) {
+                spoolFile = mSpool == null ? null : mSpool.file;
+            }
+            if (spoolFile != null) return new FileInputStream(spoolFile);
+            return new HeadInputStream();
+        }
+
+        @Override
+        public ParcelFileDescriptor openFileDescriptor() throws IOException {
+            if (!isPipe()) return openProviderFileDescriptor();
+            return ParcelFileDescriptor.open(getSpoolFile(), ParcelFileDescriptor.MODE_READ_ONLY);
+        }
+
+        /**
+         * A pipe is decoded from a stream, which does not need a copy of the content.
+         */
+        @Override
+        public Bitmap decode(BitmapFactory.Options options) throws IOException {
+            if (!isPipe()) return super.decode(options);
+            InputStream in = openInputStream();
+            try {
+                return BitmapFactory.decodeStream(in, null, options);
+            } finally {
+                IoUtil.closeSilently(in);
+            }
+        }
+
+        /**
+         * @return The size of the content, or {@code 0} if it is streamed through a pipe, bigger than the bytes kept in memory, and not copied.
+         */
+        @Override
+        public long getLength() {
+            try {
+                isPipe();
+            } catch (IOException e) {
+                Log.w(TAG, "getLength Could not open " + mUri, e);
+            }
+            synchronized (this) {
+                return Math.max(mLength, 0);
+            }
+        }
+
+        @Override
+        public String getKey() {
+            long lastModified = getLastModified();
+            if (lastModified == 0) return mUri + "|" + getLength();
+            return mUri + "|" + getLength() + "|" + lastModified;
+        }
+
+        /**
+         * Asks the provider the first time it is called: media providers give {@link MediaColumns#DATE_MODIFIED}, documents providers
+         * {@link #COLUMN_LAST_MODIFIED}.
+         * 
+         * @return The last modification date of the content, or {@code 0} if the provider does not give it.
+         */
+        private long getLastModified() {
+            synchronized (this) {
+                if (mLastModifiedQueried) return mLastModified;
+            }
+            long res = 0;
+            Cursor cursor = null;
+            try {
+                cursor = mContext.getContentResolver().query(mUri, null, null, null, null);
+                if (cursor != null && cursor.moveToFirst()) {
+                    int index = cursor.getColumnIndex(COLUMN_LAST_MODIFIED);
+                    if (index != -1 && !cursor.isNull(index)) {
+                        res = cursor.getLong(index);
+                    } else {
+                        index = cursor.getColumnIndex(MediaColumns.DATE_MODIFIED);
+                        // In seconds
+                        if (index != -1 && !cursor.isNull(index)) res = cursor.getLong(index) * 1000;
+                    }
+                }
+            } catch (RuntimeException e) {
+                // Some providers do not support queries, or only with given columns
+                Log.w(TAG, "getLastModified Could not query " + mUri, e);
+            } finally {
+                if (cursor != null) cursor.close();
+            }
+            synchronized (this) {
+                mLastModified = res;
+                mLastModifiedQueried = true;
+            }
+            return res;
+        }
+
+        /**
+         * The region decoder reads the descriptor for as long as it is used: it is kept open until the source is {@link #release() released}.
+         * A pipe cannot be read in place, so the region decoder is created from a stream instead, which the platform copies in memory (the
+         * compressed size of the picture).
+         */
+        @Override
+        @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+        public BitmapRegionDecoder newRegionDecoder() throws IOException {
+            if (isPipe()) {
+                InputStream in = openInputStream();
+                try {
+                    return BitmapRegionDecoder.newInstance(in, false);
+                } finally {
+                    IoUtil.closeSilently(in);
+                }
+            }
+            ParcelFileDescriptor fileDescriptor = openProviderFileDescriptor();
+            boolean ok = false;
+            try {
+                BitmapRegionDecoder res = BitmapRegionDecoder.newInstance(fileDescriptor.getFileDescriptor(), false);
+                synchronized (this) {
+                    mRegionDecoderFileDescriptors.add(fileDescriptor);
+                }
+                ok = true;
+                return res;
+            } finally {
+                if (!ok) close(fileDescriptor);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return mUri.toString();
+        }
+
+        /**
+         * Reads the bytes kept in memory, then the rest of the content from the provider, which is only opened if they are not enough.
+         */
+        private class HeadInputStream extends InputStream {
+            private int mPosition;
+            private InputStream mRest;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                if (mPosition < mHeadLength) {
+                    int res = Math.min(len, mHeadLength - mPosition);
+                    System.arraycopy(mHead, mPosition, b, off, res);
+                    mPosition += res;
+                    return res;
+                }
+                if (mHeadLength < HEAD_SIZE) return -1;
+                if (mRest == null) openRest();
+                return mRest.read(b, off, len);
+            }
+
+            private void openRest() throws IOException {
+                if (Config.LOGD) Log.d(TAG, "openRest Reading " + mUri + " past " + mHeadLength + " bytes");
+                mRest = openProviderInputStream();
+                long skipped = 0;
+                while (skipped < mHeadLength) {
+                    long res = mRest.skip(mHeadLength - skipped);
+                    if (res <= 0) {
+                        if (mRest.read() == -1) throw new IOException("Content of " + mUri + " is shorter than before");
+                        res = 1;
+                    }
+                    skipped += res;
+                }
+            }
+
+            @Override
+            public int available() throws IOException {
+                if (mPosition < mHeadLength) return mHeadLength - mPosition;
+                return mRest == null ? 0 : mRest.available();
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (mRest != null) mRest.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.bitmap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.BitmapFactory;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import org.jraf.android.piclabel.Config;
+import org.jraf.android.piclabel.Constants;
+import org.jraf.android.piclabel.exif.ExifMetadata;
+import org.jraf.android.util.io.IoUtil;
+
+/**
+ * Thumbnails of pictures, cached in memory and on disk (as small JPEG files in the cache folder).<br/>
+ * Entries are keyed by {@link ImageSource#getKey()} (the path, size and modification date of a file), so a modified picture gets a new
+ * thumbnail. The returned bitmaps are shared: they must not be modified or recycled.<br/>
+ * Instances can be used from several threads.
+ */
+public class ThumbnailCache {
+    private static final String TAG = Constants.TAG + ThumbnailCache.class.getSimpleName();
+
+    private static final String DISK_CACHE_FOLDER = "thumbnails";
+    private static final int DISK_CACHE_MAX_COUNT = 200;
+    private static final int DISK_CACHE_QUALITY = 85;
+
+    private static ThumbnailCache mInstance;
+
+    private final BitmapPool mBitmapPool;
+    private final File mDiskCacheFolder;
+    private final LruCache<String, Bitmap> mMemoryCache;
+
+    private ThumbnailCache(Context context, int memoryCacheMaxSize) {
+        mBitmapPool = BitmapPool.get(context);
+        mDiskCacheFolder = new File(context.getCacheDir(), DISK_CACHE_FOLDER);
+        mMemoryCache = new LruCache<String, Bitmap>(memoryCacheMaxSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getRowBytes() * value.getHeight();
+            }
+        };
+    }
+
+    /**
+     * @return The cache shared by the whole app, which uses up to a sixteenth of the heap.
+     */
+    public static synchronized ThumbnailCache get(Context context) {
+        if (mInstance == null) mInstance = new ThumbnailCache(context.getApplicationContext(), (int) (Runtime.getRuntime().maxMemory() / 16));
+        return mInstance;
+    }
+
+    /**
+     * Gets the thumbnail of a picture from the memory cache, the disk cache, the thumbnail embedded in the exif tags, or by decoding the picture,
+     * in that order.
+     * 
+     * @return A thumbnail that fits in the given size, in the displayed orientation, or {@code null} if the picture could not be decoded.
+     */
+    public Bitmap getThumbnail(ImageSource source, ExifMetadata exif, int maxWidth, int maxHeight) {
+        long start = System.currentTimeMillis();
+        String key = source.getKey() + "|" + maxWidth + "x" + maxHeight;
+        Bitmap res = mMemoryCache.get(key);
+        if (res != null) return res;
+
+        File diskFile = new File(mDiskCacheFolder, getDiskFileName(key));
+        String origin = "disk";
+        if (diskFile.exists()) {
+            res = BitmapFactory.decodeFile(diskFile.getPath());
+            // Mark it as recently used
+            if (res != null) diskFile.setLastModified(System.currentTimeMillis());
+        }
+        if (res == null) {
+            origin = "exif";
+            res = ThumbnailDecoder.decodeExifThumbnail(mBitmapPool, source, exif, maxWidth, maxHeight);
+            if (res == null) {
+                origin = "picture";
+                res = ThumbnailDecoder.decode(mBitmapPool, source, exif.getOrientation(), maxWidth, maxHeight);
+                if (res == null) return null;
+            }
+            writeToDisk(res, diskFile);
+        }
+        mMemoryCache.put(key, res);
+        if (Config.LOGD) Log.d(TAG, "getThumbnail " + source + " from " + origin + " in " + (System.currentTimeMillis() - start) + " ms");
+        return res;
+    }
+
+    private void writeToDisk(Bitmap bitmap, File diskFile) {
+        mDiskCacheFolder.mkdirs();
+        OutputStream out = null;
+        File tmpFile = null;
+        try {
+            tmpFile = File.createTempFile("thumbnail", ".tmp", mDiskCacheFolder);
+            out = new FileOutputStream(tmpFile);
+            bitmap.compress(CompressFormat.JPEG, DISK_CACHE_QUALITY, out);
+            out.close();
+            if (!tmpFile.renameTo(diskFile)) throw new IOException("Could not rename " + tmpFile + " to " + diskFile);
+            tmpFile = null;
+        } catch (IOException e) {
+            Log.w(TAG, "writeToDisk Could not write " + diskFile, e);
+        } finally {
+            IoUtil.closeSilently(out);
+            if (tmpFile != null) tmpFile.delete();
+        }
+        trimDiskCache();
+    }
+
+    /**
+     * Deletes the least recently used files of the disk cache, to keep at most {@link #DISK_CACHE_MAX_COUNT} of them.
+     */
+    private void trimDiskCache() {
+        File[] files = mDiskCacheFolder.listFiles();
+        if (files == null || files.length <= DISK_CACHE_MAX_COUNT) return;
+        final long[] lastModified = new long[files.length];
+        Integer[] indexes = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            indexes[i] = i;
+        }
+        Arrays.sort(indexes, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return lastModified[lhs] < lastModified[rhs] ? -1 : lastModified[lhs] == lastModified[rhs] ? 0 : 1;
+            }
+        });
+        for (int i = 0; i < files.length - DISK_CACHE_MAX_COUNT; i++) {
+            files[indexes[i]].delete();
+        }
+    }
+
+    private static String getDiskFileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            StringBuilder res = new StringBuilder(digest.length * 2 + 4);
+            for (byte b : digest) {
+                res.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return res.append(".jpg").toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.bitmap;
+
+import java.io.IOException;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.util.Log;
+
+import org.jraf.android.piclabel.Constants;
+import org.jraf.android.piclabel.exif.ExifMetadata;
+import org.jraf.android.piclabel.exif.ExifOrientation;
+
+/**
+ * Decodes thumbnails of pictures, in their displayed orientation, into bitmaps of a {@link BitmapPool}.
+ */
+public class ThumbnailDecoder {
+    private static final String TAG = Constants.TAG + ThumbnailDecoder.class.getSimpleName();
+
+    /**
+     * Tolerance on the aspect ratio of an exif thumbnail (some cameras add black bars to make it 4:3).
+     */
+    private static final float ASPECT_RATIO_TOLERANCE = .02f;
+
+    private ThumbnailDecoder() {}
+
+    /**
+     * Decodes a thumbnail from the picture itself.
+     * 
+     * @param orientation The exif orientation of the picture.
+     * @return A thumbnail that fits in the given size (pictures smaller than that are not scaled up), or {@code null} if the picture could not be
+     *         decoded.
+     */
+    public static Bitmap decode(BitmapPool pool, ImageSource source, int orientation, int maxWidth, int maxHeight) {
+        BitmapFactory.Options options = source.decodeBounds();
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+        int displayWidth = ExifOrientation.getDisplayWidth(orientation, options.outWidth, options.outHeight);
+        int displayHeight = ExifOrientation.getDisplayHeight(orientation, options.outWidth, options.outHeight);
+        float ratio = Math.min(1f, Math.min((float) maxWidth / displayWidth, (float) maxHeight / displayHeight));
+        int width = Math.max(1, Math.round(displayWidth * ratio));
+        int height = Math.max(1, Math.round(displayHeight * ratio));
+
+        // Subsample as much as possible while staying bigger than the thumbnail
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (displayWidth / (options.inSampleSize * 2) >= width && displayHeight / (options.inSampleSize * 2) >= height) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap decoded;
+        try {
+            decoded = pool.decode(source, options.outWidth, options.outHeight, options);
+        } catch (IOException e) {
+            Log.w(TAG, "decode Could not open " + source, e);
+            return null;
+        }
+        if (decoded == null) return null;
+        return transform(pool, decoded, orientation, width, height);
+    }
+
+    /**
+     * Decodes the thumbnail embedded in the exif tags of the picture, which is much faster than decoding the picture.
+     * 
+     * @return A thumbnail that fits in the given size, or {@code null} if there is no embedded thumbnail, or if it is smaller than the requested
+     *         size or does not have the aspect ratio of the picture.
+     */
+    public static Bitmap decodeExifThumbnail(BitmapPool pool, ImageSource source, ExifMetadata exif, int maxWidth, int maxHeight) {
+        byte[] jpeg = exif.getThumbnail();
+        if (jpeg == null) return null;
+        BitmapFactory.Options options = source.decodeBounds();
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+        float ratio = Math.min(1f, Math.min((float) maxWidth / options.outWidth, (float) maxHeight / options.outHeight));
+        int storedWidth = Math.max(1, Math.round(options.outWidth * ratio));
+        int storedHeight = Math.max(1, Math.round(options.outHeight * ratio));
+
+        BitmapFactory.Options thumbnailOptions = new BitmapFactory.Options();
+        thumbnailOptions.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, thumbnailOptions);
+        if (thumbnailOptions.outWidth < storedWidth || thumbnailOptions.outHeight < storedHeight) return null;
+        float aspectRatio = (float) options.outWidth / options.outHeight;
+        float thumbnailAspectRatio = (float) thumbnailOptions.outWidth / thumbnailOptions.outHeight;
+        if (Math.abs(thumbnailAspectRatio / aspectRatio - 1) > ASPECT_RATIO_TOLERANCE) return null;
+
+        Bitmap decoded = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length);
+        if (decoded == null) return null;
+        int orientation = exif.getOrientation();
+        return transform(pool, decoded, orientation, ExifOrientation.getDisplayWidth(orientation, storedWidth, storedHeight),
+                ExifOrientation.getDisplayHeight(orientation, storedWidth, storedHeight));
+    }
+
+    /**
+     * Rotates and scales the decoded picture into a new bitmap of the given size. The decoded picture is given back to the pool.
+     */
+    private static Bitmap transform(BitmapPool pool, Bitmap decoded, int orientation, int width, int height) {
+        float[] transform = ExifOrientation.getDisplayToStoredTransform(orientation, decoded.getWidth(), decoded.getHeight());
+        Matrix displayToStored = new Matrix();
+        displayToStored.setValues(new float[] { transform[0], transform[1], transform[2], transform[3], transform[4], transform[5], 0, 0, 1 });
+        Matrix matrix = new Matrix();
+        displayToStored.invert(matrix);
+        matrix.postScale((float) width / ExifOrientation.getDisplayWidth(orientation, decoded.getWidth(), decoded.getHeight()), (float) height
+                / ExifOrientation.getDisplayHeight(orientation, decoded.getWidth(), decoded.getHeight()));
+        Bitmap res = pool.get(width, height, Bitmap.Config.ARGB_8888);
+        new Canvas(res).drawBitmap(decoded, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        pool.put(decoded);
+        return res;
+    }
+}
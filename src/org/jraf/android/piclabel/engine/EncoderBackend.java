@@ -0,0 +1,49 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.engine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes images of the platform. Implementations must be thread safe.
+ * 
+ * @param <I> The image type of the platform.
+ */
+public interface EncoderBackend<I> {
+    /**
+     * @return {@code true} if the encoded files are JPEG files, in which case the exif tags of the original picture are kept.
+     */
+    boolean isJpeg();
+
+    /**
+     * @return The extension of the encoded files, including the dot.
+     */
+    String getExtension();
+
+    /**
+     * @param quality From 0 to 100.
+     */
+    void encode(I image, int quality, OutputStream out) throws IOException;
+}
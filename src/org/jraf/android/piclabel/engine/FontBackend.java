@@ -0,0 +1,45 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.engine;
+
+import java.io.IOException;
+
+import org.jraf.android.piclabel.layout.TextMeasurer;
+
+/**
+ * Finds the fonts of the platform by name. Implementations must be thread safe.
+ * 
+ * @param <F> The font type of the platform.
+ */
+public interface FontBackend<F> {
+    /**
+     * @throws IOException If there is no font with this name, or it could not be loaded.
+     */
+    F getFont(String fontName) throws IOException;
+
+    /**
+     * @return A new measurer for the given font. It is only used by the calling thread.
+     */
+    TextMeasurer newTextMeasurer(F font);
+}
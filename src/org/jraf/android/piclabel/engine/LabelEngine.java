@@ -0,0 +1,314 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jraf.android.piclabel.exif.ExifMetadata;
+import org.jraf.android.piclabel.exif.ExifOrientation;
+import org.jraf.android.piclabel.exif.ExifReader;
+import org.jraf.android.piclabel.exif.ExifSplicingOutputStream;
+import org.jraf.android.piclabel.geo.ReverseGeocoder;
+import org.jraf.android.piclabel.jpeg.JpegBandTranscoder;
+import org.jraf.android.piclabel.jpeg.JpegFrame;
+import org.jraf.android.piclabel.jpeg.JpegParser;
+import org.jraf.android.piclabel.layout.LabelLayout;
+import org.jraf.android.piclabel.layout.LabelLayoutEngine;
+import org.jraf.android.piclabel.raster.RasterSource;
+
+/**
+ * Labels pictures with their date and location, independently of the platform: decoding, drawing, fonts, encoding and geocoding are done by
+ * backends.<br/>
+ * Like the app, JPEG pictures are saved by re-encoding only the part of the image under the label when possible (the rest of the JPEG data is
+ * copied as is), and by decoding and re-encoding the whole image otherwise. The pixels are not rotated: the exif tags are kept.<br/>
+ * Instances can be used from several threads.
+ * 
+ * @param <I> The image type of the backends.
+ * @param <F> The font type of the backends.
+ */
+public class LabelEngine<I, F> {
+    private static final int DEFAULT_QUALITY = 85;
+    private static final String DEFAULT_DATE_TIME_PATTERN = "EEEE, MMMM d, yyyy HH:mm";
+    private static final String EXIF_DATE_TIME_PATTERN = "yyyy':'MM':'dd' 'HH':'mm':'ss";
+    private static final int LABEL_LAYOUT_CACHE_SIZE = 64;
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    private final RasterBackend<I, F> mRasterBackend;
+    private final FontBackend<F> mFontBackend;
+    private final EncoderBackend<I> mEncoderBackend;
+    private final LabelLayoutEngine mLabelLayoutEngine = new LabelLayoutEngine(LABEL_LAYOUT_CACHE_SIZE);
+    private final AtomicInteger mBandOnlyCount = new AtomicInteger();
+    private final AtomicInteger mWholeImageCount = new AtomicInteger();
+    private volatile ReverseGeocoder mReverseGeocoder;
+    private volatile int mQuality = DEFAULT_QUALITY;
+    private volatile String mDateTimePattern = DEFAULT_DATE_TIME_PATTERN;
+    private volatile Locale mLocale = Locale.getDefault();
+    private volatile boolean mAllowBandOnly = true;
+
+    public LabelEngine(RasterBackend<I, F> rasterBackend, FontBackend<F> fontBackend, EncoderBackend<I> encoderBackend) {
+        mRasterBackend = rasterBackend;
+        mFontBackend = fontBackend;
+        mEncoderBackend = encoderBackend;
+    }
+
+    /**
+     * Geocoder used to find the location of the pictures from their exif tags, or {@code null} to leave the location empty.<br/>
+     * Defaults to {@code null}.
+     */
+    public void setReverseGeocoder(ReverseGeocoder reverseGeocoder) {
+        mReverseGeocoder = reverseGeocoder;
+    }
+
+    /**
+     * Quality of the encoding, from 0 to 100. Not used when only the part under the label is re-encoded (the quantization tables of the picture
+     * are kept).<br/>
+     * Defaults to {@code 85}.
+     */
+    public void setQuality(int quality) {
+        mQuality = quality;
+    }
+
+    /**
+     * Format of the date/time in the label, as a {@link SimpleDateFormat} pattern.<br/>
+     * Defaults to {@code "EEEE, MMMM d, yyyy HH:mm"} in the default locale.
+     */
+    public void setDateTimeFormat(String pattern, Locale locale) {
+        mDateTimePattern = pattern;
+        mLocale = locale;
+    }
+
+    /**
+     * Whether JPEG pictures may be saved by re-encoding only the part under the label.<br/>
+     * Defaults to {@code true}.
+     */
+    public void setAllowBandOnly(boolean allowBandOnly) {
+        mAllowBandOnly = allowBandOnly;
+    }
+
+    /**
+     * @return The number of pictures saved by re-encoding only the part under the label.
+     */
+    public int getBandOnlyCount() {
+        return mBandOnlyCount.get();
+    }
+
+    /**
+     * @return The number of pictures saved by re-encoding the whole image.
+     */
+    public int getWholeImageCount() {
+        return mWholeImageCount.get();
+    }
+
+    /**
+     * @return The extension of the files written by this engine, including the dot.
+     */
+    public String getExtension() {
+        return mEncoderBackend.getExtension();
+    }
+
+    /**
+     * Labels a picture with the date and location of its exif tags. Without a date in the exif tags, the modification date of the file is used.
+     * Without a location (or a geocoder), the location is left empty.
+     */
+    public void label(File imageFile, File outFile, String fontName) throws IOException {
+        ExifMetadata exif = ExifReader.read(imageFile);
+        label(imageFile, exif, getDateTime(imageFile, exif), getLocation(exif), fontName, outFile);
+    }
+
+    /**
+     * Labels a picture with the given date and location.
+     * 
+     * @param exif The exif tags of the picture, as returned by {@link ExifReader#read(File)}.
+     */
+    public void label(File imageFile, ExifMetadata exif, String dateTime, String location, String fontName, File outFile) throws IOException {
+        F font = mFontBackend.getFont(fontName);
+        if (mAllowBandOnly && mEncoderBackend.isJpeg() && saveLabelBandOnly(imageFile, exif, dateTime, location, fontName, font, outFile)) {
+            mBandOnlyCount.incrementAndGet();
+            return;
+        }
+
+        I image = mRasterBackend.decode(imageFile);
+        try {
+            int orientation = exif.getOrientation();
+            int width = mRasterBackend.getWidth(image);
+            int height = mRasterBackend.getHeight(image);
+            LabelLayout layout = getLayout(dateTime, location, fontName, font, ExifOrientation.getDisplayWidth(orientation, width, height),
+                    ExifOrientation.getDisplayHeight(orientation, width, height));
+            mRasterBackend.drawLabel(image, layout, font, ExifOrientation.getDisplayToStoredTransform(orientation, width, height));
+
+            OutputStream out = openOutput(outFile, exif, orientation, width, height);
+            try {
+                mEncoderBackend.encode(image, mQuality, out);
+                out.close();
+            } finally {
+                closeSilently(out);
+            }
+            mWholeImageCount.incrementAndGet();
+        } finally {
+            mRasterBackend.release(image);
+        }
+    }
+
+    /**
+     * Saves the picture by decoding and re-encoding only the MCUs under the label.
+     * 
+     * @return {@code true} if the picture was saved, {@code false} if it is not supported by this mode (not a baseline JPEG file, or the raster
+     *         backend cannot decode a region).
+     */
+    private boolean saveLabelBandOnly(File imageFile, ExifMetadata exif, String dateTime, String location, String fontName, F font, File outFile) {
+        int orientation = exif.getOrientation();
+        InputStream in = null;
+        OutputStream out = null;
+        I band = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(imageFile), IO_BUFFER_SIZE);
+            JpegFrame frame = JpegParser.parse(in);
+            int width = frame.getWidth();
+            int height = frame.getHeight();
+            int displayWidth = ExifOrientation.getDisplayWidth(orientation, width, height);
+            LabelLayout layout = getLayout(dateTime, location, fontName, font, displayWidth, ExifOrientation.getDisplayHeight(orientation, width,
+                    height));
+            if (layout.getHeight() <= 0) return false;
+
+            // Find where the label is in the stored (unrotated) image
+            float[] displayToStored = ExifOrientation.getDisplayToStoredTransform(orientation, width, height);
+            float[] labelRect = mapRect(displayToStored, displayWidth, layout.getHeight());
+            JpegBandTranscoder transcoder = new JpegBandTranscoder(frame, (int) labelRect[0], (int) labelRect[1], (int) Math.ceil(labelRect[2]),
+                    (int) Math.ceil(labelRect[3]));
+            final int left = transcoder.getEncodedLeft();
+            final int top = transcoder.getEncodedTop();
+
+            // Decode the band only, and draw the label on it
+            band = mRasterBackend.decodeRegion(imageFile, left, top, transcoder.getEncodedRight(), transcoder.getEncodedBottom());
+            if (band == null) return false;
+            float[] displayToBand = displayToStored.clone();
+            displayToBand[2] -= left;
+            displayToBand[5] -= top;
+            mRasterBackend.drawLabel(band, layout, font, displayToBand);
+
+            out = openOutput(outFile, exif, orientation, width, height);
+            final I finalBand = band;
+            transcoder.transcode(in, out, new RasterSource() {
+                @Override
+                public void readPixels(int x, int y, int width, int height, int[] argb) {
+                    mRasterBackend.getPixels(finalBand, x - left, y - top, width, height, argb);
+                }
+            });
+            out.close();
+            out = null;
+            return true;
+        } catch (IOException e) {
+            // Not supported by the transcoder (progressive JPEG, PNG...): the whole image is re-encoded instead
+            return false;
+        } finally {
+            closeSilently(in);
+            closeSilently(out);
+            if (band != null) mRasterBackend.release(band);
+        }
+    }
+
+    private LabelLayout getLayout(String dateTime, String location, String fontName, F font, int displayWidth, int displayHeight) {
+        return mLabelLayoutEngine.getLayout(dateTime, location, fontName, mFontBackend.newTextMeasurer(font), displayWidth, displayHeight);
+    }
+
+    /**
+     * @return The date/time of the exif tags, or the modification date of the file, formatted for the label.
+     */
+    public String getDateTime(File imageFile, ExifMetadata exif) {
+        Date date = null;
+        if (exif.getDateTime() != null) date = parseExifDateTime(exif.getDateTime());
+        if (date == null) date = new Date(imageFile.lastModified());
+        return new SimpleDateFormat(mDateTimePattern, mLocale).format(date);
+    }
+
+    /**
+     * @return The address of the location of the exif tags, or an empty string if there is none, or no geocoder.
+     */
+    public String getLocation(ExifMetadata exif) throws IOException {
+        ReverseGeocoder reverseGeocoder = mReverseGeocoder;
+        if (reverseGeocoder == null || !exif.hasLatLong()) return "";
+        String res = reverseGeocoder.reverseGeocode(exif.getLatitude(), exif.getLongitude());
+        return res == null ? "" : res;
+    }
+
+    /**
+     * Parses a date/time in the exif format ({@code yyyy:MM:dd HH:mm:ss}, local time).
+     * 
+     * @return The date, or {@code null} if it could not be parsed.
+     */
+    public static Date parseExifDateTime(String s) {
+        try {
+            return new SimpleDateFormat(EXIF_DATE_TIME_PATTERN, Locale.US).parse(s);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    private OutputStream openOutput(File outFile, ExifMetadata exif, int orientation, int width, int height) throws IOException {
+        OutputStream res = new BufferedOutputStream(new FileOutputStream(outFile), IO_BUFFER_SIZE);
+        if (!mEncoderBackend.isJpeg() || !exif.hasTiffData()) return res;
+        // The pixels are not rotated: the original orientation is kept
+        return new ExifSplicingOutputStream(res, exif, orientation, width, height);
+    }
+
+    /**
+     * @return The bounds {left, top, right, bottom} of the rectangle (0, 0, width, height) mapped by the given transform.
+     */
+    private static float[] mapRect(float[] transform, int width, int height) {
+        float[] res = { Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+        for (int corner = 0; corner < 4; corner++) {
+            int x = (corner & 1) == 0 ? 0 : width;
+            int y = (corner & 2) == 0 ? 0 : height;
+            float mappedX = transform[0] * x + transform[1] * y + transform[2];
+            float mappedY = transform[3] * x + transform[4] * y + transform[5];
+            res[0] = Math.min(res[0], mappedX);
+            res[1] = Math.min(res[1], mappedY);
+            res[2] = Math.max(res[2], mappedX);
+            res[3] = Math.max(res[3], mappedY);
+        }
+        return res;
+    }
+
+    private static void closeSilently(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+}
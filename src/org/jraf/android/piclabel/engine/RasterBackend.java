@@ -0,0 +1,72 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.engine;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.jraf.android.piclabel.layout.LabelLayout;
+
+/**
+ * Decodes pictures into images of the platform, and draws labels on them. Implementations must be thread safe.
+ * 
+ * @param <I> The image type of the platform. Images are mutable and in the stored (unrotated) orientation of the picture.
+ * @param <F> The font type of the platform, as returned by a {@link FontBackend}.
+ */
+public interface RasterBackend<I, F> {
+    /**
+     * @throws IOException If the picture could not be read or decoded.
+     */
+    I decode(File file) throws IOException;
+
+    /**
+     * Decodes a rectangle of the picture.
+     * 
+     * @return The decoded rectangle, or {@code null} if this backend cannot decode a part of a picture.
+     * @throws IOException If the picture could not be read or decoded.
+     */
+    I decodeRegion(File file, int left, int top, int right, int bottom) throws IOException;
+
+    int getWidth(I image);
+
+    int getHeight(I image);
+
+    /**
+     * Reads a rectangle of pixels, like {@link org.jraf.android.piclabel.raster.RasterSource#readPixels(int, int, int, int, int[])}.
+     */
+    void getPixels(I image, int x, int y, int width, int height, int[] argb);
+
+    /**
+     * Draws a label with the {@link LabelLayout#BACKGROUND_COLOR} and {@link LabelLayout#TEXT_COLOR} colors.
+     * 
+     * @param transform Maps the coordinates of the label to the pixels of the image: {@code {a, b, c, d, e, f}} such that
+     *            {@code imageX = a * x + b * y + c} and {@code imageY = d * x + e * y + f}.
+     */
+    void drawLabel(I image, LabelLayout layout, F font, float[] transform);
+
+    /**
+     * Called when an image is not used anymore.
+     */
+    void release(I image);
+}
@@ -0,0 +1,142 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.exif;
+
+/**
+ * The EXIF tags of a picture that are used by the app, read once by {@link ExifReader}.<br/>
+ * Instances are immutable.
+ */
+public class ExifMetadata {
+    /**
+     * Metadata of a picture that has no EXIF segment.
+     */
+    public static final ExifMetadata EMPTY = new ExifMetadata(null, ExifOrientation.NORMAL, false, 0, 0, null, null, -1, 0);
+
+    private final String mDateTime;
+    private final int mOrientation;
+    private final boolean mHasLatLong;
+    private final double mLatitude;
+    private final double mLongitude;
+    private final byte[] mTiffData;
+    private final TiffLayout mTiffLayout;
+    private final long mSegmentOffset;
+    private final int mSegmentLength;
+
+    ExifMetadata(String dateTime, int orientation, boolean hasLatLong, double latitude, double longitude, byte[] tiffData, TiffLayout tiffLayout,
+            long segmentOffset, int segmentLength) {
+        mDateTime = dateTime;
+        mOrientation = orientation;
+        mHasLatLong = hasLatLong;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mTiffData = tiffData;
+        mTiffLayout = tiffLayout;
+        mSegmentOffset = segmentOffset;
+        mSegmentLength = segmentLength;
+    }
+
+    /**
+     * @return The date/time tag, or the original date/time tag if it is missing, as written in the file ({@code yyyy:MM:dd HH:mm:ss}), or
+     *         {@code null}.
+     */
+    public String getDateTime() {
+        return mDateTime;
+    }
+
+    /**
+     * @return One of the {@link ExifOrientation} constants ({@link ExifOrientation#NORMAL} if the tag is missing).
+     */
+    public int getOrientation() {
+        return mOrientation;
+    }
+
+    public boolean hasLatLong() {
+        return mHasLatLong;
+    }
+
+    /**
+     * @return The latitude in degrees, negative in the southern hemisphere. Only meaningful if {@link #hasLatLong()}.
+     */
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    /**
+     * @return The longitude in degrees, negative west of Greenwich. Only meaningful if {@link #hasLatLong()}.
+     */
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    /**
+     * @return A copy of the JPEG thumbnail embedded in the EXIF segment, or {@code null} if there is none. Like the picture, it is stored
+     *         unrotated.
+     */
+    public byte[] getThumbnail() {
+        if (mTiffLayout == null || mTiffLayout.thumbnailOffset == -1) return null;
+        byte[] res = new byte[mTiffLayout.thumbnailLength];
+        System.arraycopy(mTiffData, mTiffLayout.thumbnailOffset, res, 0, res.length);
+        return res;
+    }
+
+    public boolean hasTiffData() {
+        return mTiffData != null;
+    }
+
+    /**
+     * @return A copy of the TIFF structure of the EXIF segment (byte order mark, IFDs and their values, thumbnail), or {@code null} if the
+     *         picture has no EXIF segment.
+     */
+    public byte[] getTiffData() {
+        return mTiffData == null ? null : mTiffData.clone();
+    }
+
+    /**
+     * @return The TIFF data, not copied: only to be read by this package.
+     */
+    byte[] getTiffDataNoCopy() {
+        return mTiffData;
+    }
+
+    /**
+     * @return The layout of the TIFF data, or {@code null} if it could not be parsed.
+     */
+    TiffLayout getTiffLayout() {
+        return mTiffLayout;
+    }
+
+    /**
+     * @return The position of the APP1 marker of the EXIF segment in the file, or {@code -1} if the picture has no EXIF segment.
+     */
+    public long getSegmentOffset() {
+        return mSegmentOffset;
+    }
+
+    /**
+     * @return The length of the EXIF segment in the file, marker included.
+     */
+    public int getSegmentLength() {
+        return mSegmentLength;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.exif;
+
+/**
+ * Values of the EXIF orientation tag, and the geometry they imply.
+ */
+public class ExifOrientation {
+    public static final int NORMAL = 1;
+    public static final int FLIP_HORIZONTAL = 2;
+    public static final int ROTATE_180 = 3;
+    public static final int FLIP_VERTICAL = 4;
+    public static final int TRANSPOSE = 5;
+    public static final int ROTATE_90 = 6;
+    public static final int TRANSVERSE = 7;
+    public static final int ROTATE_270 = 8;
+
+    private ExifOrientation() {}
+
+    /**
+     * @return {@code true} if the displayed image is the stored image with its width and height swapped.
+     */
+    public static boolean isTransposed(int orientation) {
+        return orientation >= TRANSPOSE && orientation <= ROTATE_270;
+    }
+
+    public static int getDisplayWidth(int orientation, int storedWidth, int storedHeight) {
+        return isTransposed(orientation) ? storedHeight : storedWidth;
+    }
+
+    public static int getDisplayHeight(int orientation, int storedWidth, int storedHeight) {
+        return isTransposed(orientation) ? storedWidth : storedHeight;
+    }
+
+    /**
+     * Returns the affine transform that maps display coordinates to stored coordinates.
+     * 
+     * @return {@code {a, b, c, d, e, f}} such that {@code storedX = a * x + b * y + c} and {@code storedY = d * x + e * y + f}.
+     */
+    public static float[] getDisplayToStoredTransform(int orientation, int storedWidth, int storedHeight) {
+        switch (orientation) {
+            case FLIP_HORIZONTAL:
+                return new float[] { -1, 0, storedWidth, 0, 1, 0 };
+            case ROTATE_180:
+                return new float[] { -1, 0, storedWidth, 0, -1, storedHeight };
+            case FLIP_VERTICAL:
+                return new float[] { 1, 0, 0, 0, -1, storedHeight };
+            case TRANSPOSE:
+                return new float[] { 0, 1, 0, 1, 0, 0 };
+            case ROTATE_90:
+                return new float[] { 0, 1, 0, -1, 0, storedHeight };
+            case TRANSVERSE:
+                return new float[] { 0, -1, storedWidth, -1, 0, storedHeight };
+            case ROTATE_270:
+                return new float[] { 0, -1, storedWidth, 1, 0, 0 };
+            default:
+                return new float[] { 1, 0, 0, 0, 1, 0 };
+        }
+    }
+}
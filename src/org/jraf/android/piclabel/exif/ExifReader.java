@@ -0,0 +1,428 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.exif;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the EXIF tags of a JPEG file in a single pass over its header.<br/>
+ * Only the markers before the EXIF segment and the segment itself are read: the reading stops at the EXIF segment, or at the start of the image
+ * data if there is none. Malformed tags are ignored.
+ */
+public class ExifReader {
+    private static final int SOI = 0xD8;
+    private static final int EOI = 0xD9;
+    private static final int SOS = 0xDA;
+    private static final int APP1 = 0xE1;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_DATETIME = 0x0132;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_GPS_IFD = 0x8825;
+    private static final int TAG_DATETIME_ORIGINAL = 0x9003;
+    private static final int TAG_PIXEL_X_DIMENSION = 0xA002;
+    private static final int TAG_PIXEL_Y_DIMENSION = 0xA003;
+    private static final int TAG_INTEROPERABILITY_IFD = 0xA005;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+    private static final int TAG_GPS_LATITUDE_REF = 0x0001;
+    private static final int TAG_GPS_LATITUDE = 0x0002;
+    private static final int TAG_GPS_LONGITUDE_REF = 0x0003;
+    private static final int TAG_GPS_LONGITUDE = 0x0004;
+
+    private static final int TYPE_ASCII = 2;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_RATIONAL = 5;
+
+    /**
+     * Size in bytes of one value of each type.
+     */
+    private static final int[] TYPE_SIZES = { 0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8 };
+
+    private static final int IFD_0 = 0;
+    private static final int IFD_EXIF = 1;
+    private static final int IFD_GPS = 2;
+    private static final int IFD_INTEROPERABILITY = 3;
+    private static final int IFD_1 = 4;
+
+    private static final byte[] EXIF_HEADER = { 'E', 'x', 'i', 'f', 0, 0 };
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final InputStream mIn;
+    private long mPosition;
+
+    private byte[] mTiff;
+    private boolean mLittleEndian;
+
+    private String mDateTime;
+    private String mDateTimeOriginal;
+    private int mOrientation = ExifOrientation.NORMAL;
+    private String mLatitudeRef;
+    private double mLatitude = Double.NaN;
+    private String mLongitudeRef;
+    private double mLongitude = Double.NaN;
+
+    private int mOrientationEntry = -1;
+    private int mWidthEntry = -1;
+    private int mHeightEntry = -1;
+    private int mNextIfdLink = -1;
+    private int mDataEnd;
+    private int mIfd1Start = -1;
+    private int mThumbnailOffset = -1;
+    private int mThumbnailLength = -1;
+
+    private ExifReader(InputStream in) {
+        mIn = in;
+    }
+
+    /**
+     * @return The metadata of the given file, {@link ExifMetadata#EMPTY} if it has no EXIF segment or is not a JPEG file.
+     * @throws IOException If the file could not be read.
+     */
+    public static ExifMetadata read(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the metadata of the JPEG stream. When this method returns, the stream is positioned after the EXIF segment, or somewhere in the header
+     * if there is none.
+     * 
+     * @return The metadata, {@link ExifMetadata#EMPTY} if the stream has no EXIF segment or is not a JPEG stream.
+     */
+    public static ExifMetadata read(InputStream in) throws IOException {
+        return new ExifReader(in).read();
+    }
+
+    private ExifMetadata read() throws IOException {
+        if (readByte() != 0xFF || readByte() != SOI) return ExifMetadata.EMPTY;
+        while (true) {
+            long markerOffset = mPosition;
+            if (readByte() != 0xFF) return ExifMetadata.EMPTY;
+            int marker = readByte();
+            while (marker == 0xFF) {
+                // Fill bytes
+                markerOffset++;
+                marker = readByte();
+            }
+            if (marker == SOS || marker == EOI) return ExifMetadata.EMPTY;
+            int length = readUnsignedShort() - 2;
+            if (length < 0) return ExifMetadata.EMPTY;
+            if (marker == APP1 && length >= EXIF_HEADER.length) {
+                byte[] segment = new byte[length];
+                readFully(segment);
+                if (startsWith(segment, EXIF_HEADER)) {
+                    mTiff = new byte[length - EXIF_HEADER.length];
+                    System.arraycopy(segment, EXIF_HEADER.length, mTiff, 0, mTiff.length);
+                    return parseTiff(markerOffset, length + 4);
+                }
+                // Another APP1 segment (XMP): keep looking
+            } else {
+                skip(length);
+            }
+        }
+    }
+
+    private static boolean startsWith(byte[] segment, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (segment[i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+
+    /*
+     * TIFF structure.
+     */
+
+    private ExifMetadata parseTiff(long segmentOffset, int segmentLength) {
+        TiffLayout layout = null;
+        if (mTiff.length >= 8 && mTiff[0] == mTiff[1] && (mTiff[0] == 'I' || mTiff[0] == 'M')) {
+            mLittleEndian = mTiff[0] == 'I';
+            if (getUnsignedShort(2) == 42) {
+                int ifd0 = getInt(4);
+                readIfd(ifd0, IFD_0);
+                boolean hasThumbnail = mThumbnailOffset > 0 && mThumbnailLength > 0 && mThumbnailOffset <= mTiff.length - mThumbnailLength;
+                layout = new TiffLayout(mLittleEndian, mOrientationEntry, mWidthEntry, mHeightEntry, mNextIfdLink, getThumbnailStart(),
+                        hasThumbnail ? mThumbnailOffset : -1, hasThumbnail ? mThumbnailLength : 0);
+            }
+        }
+
+        String dateTime = mDateTime != null ? mDateTime : mDateTimeOriginal;
+        boolean hasLatLong = !Double.isNaN(mLatitude) && !Double.isNaN(mLongitude) && mLatitudeRef != null && mLongitudeRef != null;
+        double latitude = 0;
+        double longitude = 0;
+        if (hasLatLong) {
+            latitude = mLatitudeRef.startsWith("S") ? -mLatitude : mLatitude;
+            longitude = mLongitudeRef.startsWith("W") ? -mLongitude : mLongitude;
+        }
+        return new ExifMetadata(dateTime, mOrientation, hasLatLong, latitude, longitude, mTiff, layout, segmentOffset, segmentLength);
+    }
+
+    private void readIfd(int offset, int kind) {
+        if (offset < 8 || offset + 2 > mTiff.length) return;
+        int count = getUnsignedShort(offset);
+        int end = offset + 2 + count * 12 + 4;
+        if (end > mTiff.length) return;
+        if (kind == IFD_1) {
+            mIfd1Start = offset;
+        } else {
+            mDataEnd = Math.max(mDataEnd, end);
+        }
+        if (kind == IFD_0) mNextIfdLink = end - 4;
+        for (int i = 0; i < count; i++) {
+            int entry = offset + 2 + i * 12;
+            int tag = getUnsignedShort(entry);
+            if (kind != IFD_1) mDataEnd = Math.max(mDataEnd, getValueEnd(entry));
+            switch (kind) {
+                case IFD_0:
+                case IFD_EXIF:
+                    readEntry(tag, entry, offset);
+                    break;
+
+                case IFD_GPS:
+                    readGpsEntry(tag, entry);
+                    break;
+
+                case IFD_1:
+                    readThumbnailEntry(tag, entry);
+                    break;
+            }
+        }
+        if (kind == IFD_0) {
+            // IFD1 describes the thumbnail
+            int ifd1 = getInt(mNextIfdLink);
+            if (ifd1 > offset) readIfd(ifd1, IFD_1);
+        }
+    }
+
+    private void readEntry(int tag, int entry, int ifdOffset) {
+        switch (tag) {
+            case TAG_ORIENTATION:
+                int orientation = getInteger(entry);
+                if (orientation >= ExifOrientation.NORMAL && orientation <= ExifOrientation.ROTATE_270) {
+                    mOrientation = orientation;
+                    mOrientationEntry = entry;
+                }
+                break;
+
+            case TAG_DATETIME:
+                mDateTime = getAscii(entry);
+                break;
+
+            case TAG_DATETIME_ORIGINAL:
+                mDateTimeOriginal = getAscii(entry);
+                break;
+
+            case TAG_PIXEL_X_DIMENSION:
+                if (getInteger(entry) != -1) mWidthEntry = entry;
+                break;
+
+            case TAG_PIXEL_Y_DIMENSION:
+                if (getInteger(entry) != -1) mHeightEntry = entry;
+                break;
+
+            case TAG_EXIF_IFD:
+                // Sub IFDs come after the IFD that points to them: this also protects against loops
+                int exifIfd = getInteger(entry);
+                if (exifIfd > ifdOffset) readIfd(exifIfd, IFD_EXIF);
+                break;
+
+            case TAG_GPS_IFD:
+                int gpsIfd = getInteger(entry);
+                if (gpsIfd > ifdOffset) readIfd(gpsIfd, IFD_GPS);
+                break;
+
+            case TAG_INTEROPERABILITY_IFD:
+                // Not read, but its data must be kept
+                int interoperabilityIfd = getInteger(entry);
+                if (interoperabilityIfd > ifdOffset) readIfd(interoperabilityIfd, IFD_INTEROPERABILITY);
+                break;
+        }
+    }
+
+    private void readGpsEntry(int tag, int entry) {
+        switch (tag) {
+            case TAG_GPS_LATITUDE_REF:
+                mLatitudeRef = getAscii(entry);
+                break;
+
+            case TAG_GPS_LATITUDE:
+                mLatitude = getDegrees(entry);
+                break;
+
+            case TAG_GPS_LONGITUDE_REF:
+                mLongitudeRef = getAscii(entry);
+                break;
+
+            case TAG_GPS_LONGITUDE:
+                mLongitude = getDegrees(entry);
+                break;
+        }
+    }
+
+    private void readThumbnailEntry(int tag, int entry) {
+        switch (tag) {
+            case TAG_THUMBNAIL_OFFSET:
+                mThumbnailOffset = getInteger(entry);
+                break;
+
+            case TAG_THUMBNAIL_LENGTH:
+                mThumbnailLength = getInteger(entry);
+                break;
+        }
+    }
+
+    /**
+     * @return Where the thumbnail (IFD1 and the compressed thumbnail) starts, if nothing else comes after it in the TIFF data, or {@code -1}.
+     */
+    private int getThumbnailStart() {
+        if (mIfd1Start < mDataEnd) return -1;
+        if (mThumbnailOffset == -1) return mIfd1Start;
+        if (mThumbnailOffset < mDataEnd || mThumbnailLength < 0 || mThumbnailOffset > mTiff.length - mThumbnailLength) return -1;
+        return Math.min(mIfd1Start, mThumbnailOffset);
+    }
+
+    /**
+     * @return The end of the value of an entry stored out of the entry itself, or {@code 0}.
+     */
+    private int getValueEnd(int entry) {
+        int type = getUnsignedShort(entry + 2);
+        if (type < 1 || type >= TYPE_SIZES.length) return 0;
+        long size = (getInt(entry + 4) & 0xFFFFFFFFL) * TYPE_SIZES[type];
+        if (size <= 4) return 0;
+        long end = (getInt(entry + 8) & 0xFFFFFFFFL) + size;
+        return (int) Math.min(end, mTiff.length);
+    }
+
+    /**
+     * @return The value of a SHORT or LONG entry, or {@code -1}.
+     */
+    private int getInteger(int entry) {
+        int type = getUnsignedShort(entry + 2);
+        if (type == TYPE_SHORT) return getUnsignedShort(entry + 8);
+        if (type == TYPE_LONG) return getInt(entry + 8);
+        return -1;
+    }
+
+    /**
+     * @return The value of an ASCII entry, without its trailing nul, or {@code null}.
+     */
+    private String getAscii(int entry) {
+        if (getUnsignedShort(entry + 2) != TYPE_ASCII) return null;
+        int count = getInt(entry + 4);
+        int offset = count <= 4 ? entry + 8 : getInt(entry + 8);
+        if (count <= 0 || offset < 0 || offset > mTiff.length - count) return null;
+        int length = 0;
+        while (length < count && mTiff[offset + length] != 0) {
+            length++;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (mTiff[offset + i] & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return The value of a degrees/minutes/seconds RATIONAL entry, or {@code NaN}.
+     */
+    private double getDegrees(int entry) {
+        if (getUnsignedShort(entry + 2) != TYPE_RATIONAL || getInt(entry + 4) != 3) return Double.NaN;
+        int offset = getInt(entry + 8);
+        if (offset < 0 || offset > mTiff.length - 24) return Double.NaN;
+        double res = 0;
+        double unit = 1;
+        for (int i = 0; i < 3; i++) {
+            long numerator = getInt(offset + i * 8) & 0xFFFFFFFFL;
+            long denominator = getInt(offset + i * 8 + 4) & 0xFFFFFFFFL;
+            if (denominator == 0) return Double.NaN;
+            res += (double) numerator / denominator / unit;
+            unit *= 60;
+        }
+        return res;
+    }
+
+    private int getUnsignedShort(int offset) {
+        int b0 = mTiff[offset] & 0xFF;
+        int b1 = mTiff[offset + 1] & 0xFF;
+        return mLittleEndian ? b1 << 8 | b0 : b0 << 8 | b1;
+    }
+
+    private int getInt(int offset) {
+        int s0 = getUnsignedShort(offset);
+        int s1 = getUnsignedShort(offset + 2);
+        return mLittleEndian ? s1 << 16 | s0 : s0 << 16 | s1;
+    }
+
+
+    /*
+     * Stream.
+     */
+
+    private int readByte() throws IOException {
+        int res = mIn.read();
+        if (res == -1) throw new EOFException();
+        mPosition++;
+        return res;
+    }
+
+    private int readUnsignedShort() throws IOException {
+        return readByte() << 8 | readByte();
+    }
+
+    private void readFully(byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int read = mIn.read(buffer, offset, buffer.length - offset);
+            if (read == -1) throw new EOFException();
+            offset += read;
+        }
+        mPosition += buffer.length;
+    }
+
+    private void skip(int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            long skipped = mIn.skip(remaining);
+            if (skipped <= 0) {
+                readByte();
+                mPosition--;
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+        mPosition += length;
+    }
+}
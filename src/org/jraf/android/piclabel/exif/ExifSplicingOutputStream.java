@@ -0,0 +1,203 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.exif;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copies a JPEG stream, inserting the EXIF segment of another picture right after its SOI marker. EXIF segments already in the stream are
+ * dropped.<br/>
+ * The original segment is copied as is, with only its orientation and size tags patched, and its thumbnail (which would show the picture
+ * before it was modified) removed. The tags themselves are not decoded or re-encoded.<br/>
+ * The header of the stream is kept in memory until its SOS marker has been written, after which the bytes are passed through.
+ */
+public class ExifSplicingOutputStream extends FilterOutputStream {
+    private static final int SOI = 0xD8;
+    private static final int SOS = 0xDA;
+    private static final int APP1 = 0xE1;
+    private static final int TYPE_SHORT = 3;
+    private static final byte[] EXIF_HEADER = { 'E', 'x', 'i', 'f', 0, 0 };
+
+    private final byte[] mSegment;
+
+    private byte[] mHeader = new byte[4 * 1024];
+    private int mHeaderLength;
+    private int mScanPosition = 2;
+    private final List<int[]> mDroppedSegments = new ArrayList<int[]>();
+
+    /**
+     * @param exif The EXIF tags to insert, which must have TIFF data (see {@link ExifMetadata#hasTiffData()}).
+     * @param orientation The orientation of the new picture.
+     * @param width The width of the new picture, as stored.
+     * @param height The height of the new picture, as stored.
+     */
+    public ExifSplicingOutputStream(OutputStream out, ExifMetadata exif, int orientation, int width, int height) {
+        super(out);
+        mSegment = createSegment(exif, orientation, width, height);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (mHeader == null) {
+            out.write(b);
+            return;
+        }
+        ensureHeaderCapacity(1);
+        mHeader[mHeaderLength++] = (byte) b;
+        spliceIfHeaderComplete();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (mHeader == null) {
+            out.write(b, off, len);
+            return;
+        }
+        ensureHeaderCapacity(len);
+        System.arraycopy(b, off, mHeader, mHeaderLength, len);
+        mHeaderLength += len;
+        spliceIfHeaderComplete();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mHeader != null) {
+            // Not a complete JPEG stream: leave it as is
+            out.write(mHeader, 0, mHeaderLength);
+            mHeader = null;
+        }
+        super.close();
+    }
+
+    private void ensureHeaderCapacity(int len) {
+        if (mHeaderLength + len <= mHeader.length) return;
+        byte[] header = new byte[Math.max(mHeader.length * 2, mHeaderLength + len)];
+        System.arraycopy(mHeader, 0, header, 0, mHeaderLength);
+        mHeader = header;
+    }
+
+    private void spliceIfHeaderComplete() throws IOException {
+        if (mHeaderLength < 2) return;
+        if ((mHeader[0] & 0xFF) != 0xFF || (mHeader[1] & 0xFF) != SOI) throw new IOException("Not a JPEG stream");
+
+        // Go through the segments that are complete
+        while (mScanPosition + 4 <= mHeaderLength) {
+            if ((mHeader[mScanPosition] & 0xFF) != 0xFF) throw new IOException("Invalid marker at " + mScanPosition);
+            int marker = mHeader[mScanPosition + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // Fill byte
+                mScanPosition++;
+                continue;
+            }
+            if (marker == SOS) {
+                splice();
+                return;
+            }
+            int end = mScanPosition + 2 + ((mHeader[mScanPosition + 2] & 0xFF) << 8 | mHeader[mScanPosition + 3] & 0xFF);
+            if (end > mHeaderLength) return;
+            if (marker == APP1 && isExifSegment(mScanPosition)) mDroppedSegments.add(new int[] { mScanPosition, end });
+            mScanPosition = end;
+        }
+    }
+
+    private boolean isExifSegment(int position) {
+        for (int i = 0; i < EXIF_HEADER.length; i++) {
+            if (mHeader[position + 4 + i] != EXIF_HEADER[i]) return false;
+        }
+        return true;
+    }
+
+    private void splice() throws IOException {
+        out.write(mHeader, 0, 2);
+        out.write(mSegment);
+        int position = 2;
+        for (int[] droppedSegment : mDroppedSegments) {
+            out.write(mHeader, position, droppedSegment[0] - position);
+            position = droppedSegment[1];
+        }
+        out.write(mHeader, position, mHeaderLength - position);
+        mHeader = null;
+    }
+
+
+    /*
+     * Segment.
+     */
+
+    private static byte[] createSegment(ExifMetadata exif, int orientation, int width, int height) {
+        byte[] tiff = exif.getTiffDataNoCopy();
+        TiffLayout layout = exif.getTiffLayout();
+        int tiffLength = layout != null && layout.thumbnailStart != -1 ? layout.thumbnailStart : tiff.length;
+        int length = 2 + EXIF_HEADER.length + tiffLength;
+        byte[] res = new byte[2 + length];
+        res[0] = (byte) 0xFF;
+        res[1] = (byte) APP1;
+        res[2] = (byte) (length >> 8);
+        res[3] = (byte) length;
+        System.arraycopy(EXIF_HEADER, 0, res, 4, EXIF_HEADER.length);
+        int tiffStart = 4 + EXIF_HEADER.length;
+        System.arraycopy(tiff, 0, res, tiffStart, tiffLength);
+        if (layout == null) return res;
+
+        patchInteger(res, tiffStart, layout.orientationEntry, orientation, layout.littleEndian);
+        patchInteger(res, tiffStart, layout.widthEntry, width, layout.littleEndian);
+        patchInteger(res, tiffStart, layout.heightEntry, height, layout.littleEndian);
+        if (layout.nextIfdLink != -1) {
+            // Unlink the thumbnail
+            putShort(res, tiffStart + layout.nextIfdLink, 0, layout.littleEndian);
+            putShort(res, tiffStart + layout.nextIfdLink + 2, 0, layout.littleEndian);
+        }
+        return res;
+    }
+
+    /**
+     * Sets the value of a SHORT or LONG entry.
+     */
+    private static void patchInteger(byte[] segment, int tiffStart, int entry, int value, boolean littleEndian) {
+        if (entry == -1) return;
+        int position = tiffStart + entry;
+        int type = getShort(segment, position + 2, littleEndian);
+        if (type == TYPE_SHORT) {
+            putShort(segment, position + 8, value, littleEndian);
+        } else {
+            putShort(segment, position + 8, littleEndian ? value : value >>> 16, littleEndian);
+            putShort(segment, position + 10, littleEndian ? value >>> 16 : value, littleEndian);
+        }
+    }
+
+    private static int getShort(byte[] buffer, int position, boolean littleEndian) {
+        int b0 = buffer[position] & 0xFF;
+        int b1 = buffer[position + 1] & 0xFF;
+        return littleEndian ? b1 << 8 | b0 : b0 << 8 | b1;
+    }
+
+    private static void putShort(byte[] buffer, int position, int value, boolean littleEndian) {
+        buffer[position] = (byte) (littleEndian ? value : value >> 8);
+        buffer[position + 1] = (byte) (littleEndian ? value >> 8 : value);
+    }
+}
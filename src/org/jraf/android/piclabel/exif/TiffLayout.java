@@ -0,0 +1,63 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.exif;
+
+/**
+ * Positions, in the TIFF data of an EXIF segment, of what has to be patched when the segment is copied to another file.<br/>
+ * Positions are {@code -1} when the corresponding entry is missing.
+ */
+class TiffLayout {
+    final boolean littleEndian;
+    final int orientationEntry;
+    final int widthEntry;
+    final int heightEntry;
+
+    /**
+     * The link from IFD0 to IFD1, which describes the thumbnail.
+     */
+    final int nextIfdLink;
+
+    /**
+     * Where the thumbnail starts, if it is at the end of the data (it can then be cut off).
+     */
+    final int thumbnailStart;
+
+    /**
+     * The compressed thumbnail.
+     */
+    final int thumbnailOffset;
+    final int thumbnailLength;
+
+    TiffLayout(boolean littleEndian, int orientationEntry, int widthEntry, int heightEntry, int nextIfdLink, int thumbnailStart,
+            int thumbnailOffset, int thumbnailLength) {
+        this.littleEndian = littleEndian;
+        this.orientationEntry = orientationEntry;
+        this.widthEntry = widthEntry;
+        this.heightEntry = heightEntry;
+        this.nextIfdLink = nextIfdLink;
+        this.thumbnailStart = thumbnailStart;
+        this.thumbnailOffset = thumbnailOffset;
+        this.thumbnailLength = thumbnailLength;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.geo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link ReverseGeocoder} that caches the results of another one.<br/>
+ * Locations are grouped in geohash cells (see {@link GeoHash}): all the pictures taken at the same place share one lookup. The least recently used
+ * entries are evicted when the cache is full, and entries expire after a time to live.<br/>
+ * The cache can be persisted to a file: it is written once every {@link #SAVE_MISS_COUNT} new entries, and by {@link #flush()}, outside of the
+ * lookups' locks. Failures to write it do not fail the lookups: they are only reported to {@link #onSaveFailed(IOException)}.<br/>
+ * Concurrent lookups of the same cell wait for each other, so that a batch of pictures from one place costs one lookup. This class is thread
+ * safe.
+ */
+public class CachingReverseGeocoder implements ReverseGeocoder {
+    private static final String CHARSET = "UTF-8";
+    private static final int LOCK_COUNT = 32;
+
+    /**
+     * Number of new entries after which the cache is written.
+     */
+    static final int SAVE_MISS_COUNT = 8;
+
+    private final ReverseGeocoder mReverseGeocoder;
+    private final int mPrecision;
+    private final long mTimeToLive;
+    private final File mFile;
+    private final LinkedHashMap<String, CacheEntry> mEntries;
+    private final Object[] mLocks = new Object[LOCK_COUNT];
+    /**
+     * Held while writing the file, so that two writes do not share the temporary file.
+     */
+    private final Object mSaveLock = new Object();
+    private int mHitCount;
+    private int mMissCount;
+    private int mUnsavedCount;
+
+    private static class CacheEntry {
+        public final String address;
+        public final long time;
+
+        public CacheEntry(String address, long time) {
+            this.address = address;
+            this.time = time;
+        }
+    }
+
+    /**
+     * @param reverseGeocoder The geocoder to call on cache misses.
+     * @param precision The geohash precision of the cells (7 is about 150 m).
+     * @param maxSize The maximum number of cells to keep.
+     * @param timeToLive How long an entry is valid, in milliseconds.
+     * @param file The file to persist the cache to, or {@code null} to keep it in memory only.
+     */
+    public CachingReverseGeocoder(ReverseGeocoder reverseGeocoder, int precision, final int maxSize, long timeToLive, File file) {
+        mReverseGeocoder = reverseGeocoder;
+        mPrecision = precision;
+        mTimeToLive = timeToLive;
+        mFile = file;
+        mEntries = new LinkedHashMap<String, CacheEntry>(16, .75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                return size() > maxSize;
+            }
+        };
+        for (int i = 0; i < LOCK_COUNT; i++) {
+            mLocks[i] = new Object();
+        }
+    }
+
+    @Override
+    public String reverseGeocode(double lat, double lon) throws IOException {
+        String cell = GeoHash.encode(lat, lon, mPrecision);
+        String res;
+        boolean save;
+        synchronized (mLocks[(cell.hashCode() & 0x7FFFFFFF) % LOCK_COUNT]) {
+            synchronized (mEntries) {
+                CacheEntry entry = mEntries.get(cell);
+                if (entry != null && currentTimeMillis() - entry.time < mTimeToLive) {
+                    mHitCount++;
+                    return entry.address;
+                }
+                mMissCount++;
+            }
+
+            // Not in the cache (or expired): ask the wrapped geocoder
+            res = mReverseGeocoder.reverseGeocode(lat, lon);
+            synchronized (mEntries) {
+                mEntries.put(cell, new CacheEntry(res, currentTimeMillis()));
+                mUnsavedCount++;
+                save = mFile != null && mUnsavedCount >= SAVE_MISS_COUNT;
+            }
+        }
+        // Written outside of the locks, so that the other lookups do not wait for the disk
+        if (save) flush();
+        return res;
+    }
+
+    /**
+     * Loads the entries persisted by a previous instance. Entries already in memory are kept.
+     */
+    public void load() throws IOException {
+        if (mFile == null) return;
+        BufferedReader reader;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(mFile), CHARSET));
+        } catch (FileNotFoundException e) {
+            // Nothing persisted yet
+            return;
+        }
+        try {
+            long now = currentTimeMillis();
+            synchronized (mEntries) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // cell \t time \t address
+                    int tab1 = line.indexOf('\t');
+                    int tab2 = line.indexOf('\t', tab1 + 1);
+                    if (tab1 == -1 || tab2 == -1) continue;
+                    String cell = line.substring(0, tab1);
+                    long time;
+                    try {
+                        time = Long.parseLong(line.substring(tab1 + 1, tab2));
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    if (now - time >= mTimeToLive || mEntries.containsKey(cell)) continue;
+                    String address = line.substring(tab2 + 1);
+                    mEntries.put(cell, new CacheEntry(address.length() == 0 ? null : address, time));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Writes the entries to the file, if some were added since it was last written. This does not block the lookups, but it does access the
+     * disk. A failure is reported to {@link #onSaveFailed(IOException)}, and the entries are written again with the next save.
+     */
+    public void flush() {
+        if (mFile == null) return;
+        synchronized (mSaveLock) {
+            LinkedHashMap<String, CacheEntry> entries;
+            int savedCount;
+            synchronized (mEntries) {
+                if (mUnsavedCount == 0) return;
+                // Least recently used first, so that the order is kept when they are loaded
+                entries = new LinkedHashMap<String, CacheEntry>(mEntries);
+                savedCount = mUnsavedCount;
+                mUnsavedCount = 0;
+            }
+            try {
+                save(entries);
+            } catch (IOException e) {
+                synchronized (mEntries) {
+                    mUnsavedCount += savedCount;
+                }
+                onSaveFailed(e);
+            }
+        }
+    }
+
+    /**
+     * Called when the cache could not be written to its file. Does nothing by default: the entries stay in memory.
+     */
+    protected void onSaveFailed(IOException e) {}
+
+    private void save(Map<String, CacheEntry> entries) throws IOException {
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), CHARSET));
+        try {
+            for (Map.Entry<String, CacheEntry> mapEntry : entries.entrySet()) {
+                CacheEntry entry = mapEntry.getValue();
+                String address = entry.address == null ? "" : entry.address.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+                writer.write(mapEntry.getKey() + "\t" + entry.time + "\t" + address + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tmpFile.renameTo(mFile)) throw new IOException("Could not rename " + tmpFile + " to " + mFile);
+    }
+
+    /**
+     * @return The current time. Can be overridden to control the expiration of entries.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    public int getSize() {
+        synchronized (mEntries) {
+            return mEntries.size();
+        }
+    }
+
+    public int getHitCount() {
+        synchronized (mEntries) {
+            return mHitCount;
+        }
+    }
+
+    public int getMissCount() {
+        synchronized (mEntries) {
+            return mMissCount;
+        }
+    }
+
+    /**
+     * @return The ratio of lookups that did not call the wrapped geocoder, between 0 and 1.
+     */
+    public float getHitRate() {
+        synchronized (mEntries) {
+            int total = mHitCount + mMissCount;
+            return total == 0 ? 0 : (float) mHitCount / total;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.geo;
+
+import java.io.IOException;
+
+/**
+ * {@link ReverseGeocoder} that asks a second geocoder when the first one fails or finds no address.<br/>
+ * Typically used with the network geocoder first and the offline gazetteer second (or the other way around, to avoid the network).
+ */
+public class FallbackReverseGeocoder implements ReverseGeocoder {
+    private final ReverseGeocoder mFirst;
+    private final ReverseGeocoder mSecond;
+
+    public FallbackReverseGeocoder(ReverseGeocoder first, ReverseGeocoder second) {
+        mFirst = first;
+        mSecond = second;
+    }
+
+    @Override
+    public String reverseGeocode(double lat, double lon) throws IOException {
+        IOException firstException = null;
+        try {
+            String res = mFirst.reverseGeocode(lat, lon);
+            if (res != null) return res;
+        } catch (IOException e) {
+            firstException = e;
+        }
+        String res = mSecond.reverseGeocode(lat, lon);
+        if (res == null && firstException != null) throw firstException;
+        return res;
+    }
+}
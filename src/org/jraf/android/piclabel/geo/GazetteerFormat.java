@@ -0,0 +1,78 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.geo;
+
+/**
+ * Binary layout of the gazetteer file, shared by {@link GazetteerWriter} and {@link GazetteerReverseGeocoder}.<br/>
+ * All values are big endian.
+ * 
+ * <pre>
+ * Header (40 bytes):
+ *   int magic, int version, int cellsPerDegree, int countryCount, int placeCount, int cellCount,
+ *   int countriesOffset, int placesOffset, int cellsOffset, int stringsOffset
+ * Countries: int[countryCount], offsets of the country names in the strings
+ * Places (16 bytes each, sorted by cell): int latitude * 1e6, int longitude * 1e6, int name offset in the strings, short country index, short 0
+ * Cells (8 bytes each, sorted by id): int cell id, int index of the first place of the cell
+ * Strings: for each string, unsigned short length, then the UTF-8 bytes
+ * </pre>
+ * 
+ * A cell is a square of 1 / cellsPerDegree degrees of latitude and longitude. Its id is {@code row * columnCount + column}.
+ */
+class GazetteerFormat {
+    public static final int MAGIC = 0x504C475A; // "PLGZ"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 40;
+    public static final int PLACE_SIZE = 16;
+    public static final int CELL_SIZE = 8;
+    public static final double COORDINATE_FACTOR = 1e6;
+
+    public static final int OFFSET_CELLS_PER_DEGREE = 8;
+    public static final int OFFSET_COUNTRY_COUNT = 12;
+    public static final int OFFSET_PLACE_COUNT = 16;
+    public static final int OFFSET_CELL_COUNT = 20;
+    public static final int OFFSET_COUNTRIES_OFFSET = 24;
+    public static final int OFFSET_PLACES_OFFSET = 28;
+    public static final int OFFSET_CELLS_OFFSET = 32;
+    public static final int OFFSET_STRINGS_OFFSET = 36;
+
+    private GazetteerFormat() {}
+
+    public static int getColumnCount(int cellsPerDegree) {
+        return 360 * cellsPerDegree;
+    }
+
+    public static int getRow(double lat, int cellsPerDegree) {
+        return (int) Math.floor((lat + 90) * cellsPerDegree);
+    }
+
+    public static int getColumn(double lon, int cellsPerDegree) {
+        int columnCount = getColumnCount(cellsPerDegree);
+        int res = (int) Math.floor((lon + 180) * cellsPerDegree) % columnCount;
+        return res < 0 ? res + columnCount : res;
+    }
+
+    public static int getCellId(int row, int column, int cellsPerDegree) {
+        return row * getColumnCount(cellsPerDegree) + column;
+    }
+}
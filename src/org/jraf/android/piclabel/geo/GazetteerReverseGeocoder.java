@@ -0,0 +1,190 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.geo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Offline {@link ReverseGeocoder} that finds the nearest place of a gazetteer file (see {@link GazetteerFormat}).<br/>
+ * The file is memory mapped: the places are not loaded on the heap, and only the pages of the cells around the looked up location are read.
+ * Lookups only read the mapped buffer, so this class is thread safe.
+ */
+public class GazetteerReverseGeocoder implements ReverseGeocoder {
+    private static final double EARTH_RADIUS_KM = 6371;
+
+    private final ByteBuffer mBuffer;
+    private final double mMaxDistanceKm;
+    private final int mCellsPerDegree;
+    private final int mPlaceCount;
+    private final int mCellCount;
+    private final int mCountriesOffset;
+    private final int mPlacesOffset;
+    private final int mCellsOffset;
+    private final int mStringsOffset;
+
+    /**
+     * Maps the given gazetteer file.
+     * 
+     * @param maxDistanceKm Places farther than this are ignored.
+     */
+    public GazetteerReverseGeocoder(File file, double maxDistanceKm) throws IOException {
+        this(map(file), maxDistanceKm);
+    }
+
+    /**
+     * @param buffer The content of a gazetteer file, typically memory mapped.
+     * @param maxDistanceKm Places farther than this are ignored.
+     */
+    public GazetteerReverseGeocoder(ByteBuffer buffer, double maxDistanceKm) throws IOException {
+        mBuffer = buffer;
+        mMaxDistanceKm = maxDistanceKm;
+        if (buffer.capacity() < GazetteerFormat.HEADER_SIZE || buffer.getInt(0) != GazetteerFormat.MAGIC) throw new IOException("Not a gazetteer file");
+        if (buffer.getInt(4) != GazetteerFormat.VERSION) throw new IOException("Unsupported gazetteer version " + buffer.getInt(4));
+        mCellsPerDegree = buffer.getInt(GazetteerFormat.OFFSET_CELLS_PER_DEGREE);
+        mPlaceCount = buffer.getInt(GazetteerFormat.OFFSET_PLACE_COUNT);
+        mCellCount = buffer.getInt(GazetteerFormat.OFFSET_CELL_COUNT);
+        mCountriesOffset = buffer.getInt(GazetteerFormat.OFFSET_COUNTRIES_OFFSET);
+        mPlacesOffset = buffer.getInt(GazetteerFormat.OFFSET_PLACES_OFFSET);
+        mCellsOffset = buffer.getInt(GazetteerFormat.OFFSET_CELLS_OFFSET);
+        mStringsOffset = buffer.getInt(GazetteerFormat.OFFSET_STRINGS_OFFSET);
+        if (mCellsPerDegree <= 0 || mStringsOffset > buffer.capacity()) throw new IOException("Corrupt gazetteer file");
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            in.close();
+        }
+    }
+
+    public int getPlaceCount() {
+        return mPlaceCount;
+    }
+
+    /**
+     * @return "place, country" for the nearest place, or {@code null} if there is no place closer than the maximum distance.
+     */
+    @Override
+    public String reverseGeocode(double lat, double lon) {
+        int nearest = findNearestPlace(lat, lon);
+        if (nearest == -1) return null;
+        int placeOffset = mPlacesOffset + nearest * GazetteerFormat.PLACE_SIZE;
+        String name = readString(mBuffer.getInt(placeOffset + 8));
+        String country = readString(mBuffer.getInt(mCountriesOffset + mBuffer.getShort(placeOffset + 12) * 4));
+        return name + ", " + country;
+    }
+
+    /**
+     * @return The index of the nearest place, or -1 if there is no place closer than the maximum distance.
+     */
+    public int findNearestPlace(double lat, double lon) {
+        // Look in the cells that are within the maximum distance (cells get narrower towards the poles)
+        double cellSizeKm = Math.toRadians(1d / mCellsPerDegree) * EARTH_RADIUS_KM;
+        int rowRange = (int) Math.ceil(mMaxDistanceKm / cellSizeKm);
+        double cosLat = Math.max(Math.cos(Math.toRadians(lat)), .01);
+        int columnCount = GazetteerFormat.getColumnCount(mCellsPerDegree);
+        int columnRange = Math.min((int) Math.ceil(mMaxDistanceKm / (cellSizeKm * cosLat)), columnCount / 2);
+        int row = GazetteerFormat.getRow(lat, mCellsPerDegree);
+        int column = GazetteerFormat.getColumn(lon, mCellsPerDegree);
+
+        int res = -1;
+        double resDistance = mMaxDistanceKm;
+        for (int r = row - rowRange; r <= row + rowRange; r++) {
+            if (r < 0 || r > 180 * mCellsPerDegree) continue;
+            for (int c = column - columnRange; c <= column + columnRange; c++) {
+                int wrappedColumn = ((c % columnCount) + columnCount) % columnCount;
+                int cellIndex = findCell(GazetteerFormat.getCellId(r, wrappedColumn, mCellsPerDegree));
+                if (cellIndex == -1) continue;
+                int first = mBuffer.getInt(mCellsOffset + cellIndex * GazetteerFormat.CELL_SIZE + 4);
+                int end = cellIndex + 1 < mCellCount ? mBuffer.getInt(mCellsOffset + (cellIndex + 1) * GazetteerFormat.CELL_SIZE + 4) : mPlaceCount;
+                for (int i = first; i < end; i++) {
+                    int placeOffset = mPlacesOffset + i * GazetteerFormat.PLACE_SIZE;
+                    double distance = getDistanceKm(lat, lon, mBuffer.getInt(placeOffset) / GazetteerFormat.COORDINATE_FACTOR,
+                            mBuffer.getInt(placeOffset + 4) / GazetteerFormat.COORDINATE_FACTOR);
+                    if (distance < resDistance) {
+                        res = i;
+                        resDistance = distance;
+                    }
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return The index of the cell with the given id, or -1 if there are no places in it.
+     */
+    private int findCell(int cellId) {
+        int low = 0;
+        int high = mCellCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = mBuffer.getInt(mCellsOffset + mid * GazetteerFormat.CELL_SIZE);
+            if (midId < cellId) {
+                low = mid + 1;
+            } else if (midId > cellId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Equirectangular approximation, precise enough at the scale of a few cells.
+     */
+    private static double getDistanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLon = Math.toRadians(lon2 - lon1);
+        if (dLon > Math.PI) dLon -= 2 * Math.PI;
+        if (dLon < -Math.PI) dLon += 2 * Math.PI;
+        double x = dLon * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS_KM;
+    }
+
+    private String readString(int offset) {
+        int position = mStringsOffset + offset;
+        int length = mBuffer.getShort(position) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = mBuffer.get(position + 2 + i);
+        }
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // Cannot happen: UTF-8 is always supported
+            throw new AssertionError(e);
+        }
+    }
+}
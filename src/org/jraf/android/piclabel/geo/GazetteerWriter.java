@@ -0,0 +1,175 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.geo;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Writes a gazetteer file (see {@link GazetteerFormat}) from a list of places.
+ */
+public class GazetteerWriter {
+    /**
+     * Default cell size: a quarter of a degree (about 28 km of latitude).
+     */
+    public static final int DEFAULT_CELLS_PER_DEGREE = 4;
+
+    private final int mCellsPerDegree;
+    private final ArrayList<Place> mPlaces = new ArrayList<Place>();
+
+    private static class Place {
+        public String name;
+        public String country;
+        public int latE6;
+        public int lonE6;
+        public int cellId;
+    }
+
+    public GazetteerWriter(int cellsPerDegree) {
+        mCellsPerDegree = cellsPerDegree;
+    }
+
+    public void addPlace(String name, String country, double lat, double lon) {
+        Place place = new Place();
+        place.name = name;
+        place.country = country;
+        place.latE6 = (int) Math.round(lat * GazetteerFormat.COORDINATE_FACTOR);
+        place.lonE6 = (int) Math.round(lon * GazetteerFormat.COORDINATE_FACTOR);
+        place.cellId = GazetteerFormat.getCellId(GazetteerFormat.getRow(lat, mCellsPerDegree), GazetteerFormat.getColumn(lon, mCellsPerDegree),
+                mCellsPerDegree);
+        mPlaces.add(place);
+    }
+
+    public int getPlaceCount() {
+        return mPlaces.size();
+    }
+
+    public void write(File file) throws IOException {
+        Collections.sort(mPlaces, new Comparator<Place>() {
+            @Override
+            public int compare(Place lhs, Place rhs) {
+                return lhs.cellId < rhs.cellId ? -1 : (lhs.cellId == rhs.cellId ? 0 : 1);
+            }
+        });
+
+        // Strings (country names and place names, each stored once)
+        StringTable strings = new StringTable();
+        ArrayList<String> countries = new ArrayList<String>();
+        HashMap<String, Integer> countryIndexes = new HashMap<String, Integer>();
+        int[] nameOffsets = new int[mPlaces.size()];
+        short[] placeCountries = new short[mPlaces.size()];
+        for (int i = 0; i < mPlaces.size(); i++) {
+            Place place = mPlaces.get(i);
+            Integer countryIndex = countryIndexes.get(place.country);
+            if (countryIndex == null) {
+                countryIndex = countries.size();
+                if (countryIndex > Short.MAX_VALUE) throw new IOException("Too many countries");
+                countries.add(place.country);
+                countryIndexes.put(place.country, countryIndex);
+            }
+            placeCountries[i] = (short) countryIndex.intValue();
+            nameOffsets[i] = strings.add(place.name);
+        }
+        int[] countryOffsets = new int[countries.size()];
+        for (int i = 0; i < countries.size(); i++) {
+            countryOffsets[i] = strings.add(countries.get(i));
+        }
+
+        // Cells
+        ArrayList<int[]> cells = new ArrayList<int[]>();
+        for (int i = 0; i < mPlaces.size(); i++) {
+            int cellId = mPlaces.get(i).cellId;
+            if (cells.isEmpty() || cells.get(cells.size() - 1)[0] != cellId) cells.add(new int[] { cellId, i });
+        }
+
+        int countriesOffset = GazetteerFormat.HEADER_SIZE;
+        int placesOffset = countriesOffset + countries.size() * 4;
+        int cellsOffset = placesOffset + mPlaces.size() * GazetteerFormat.PLACE_SIZE;
+        int stringsOffset = cellsOffset + cells.size() * GazetteerFormat.CELL_SIZE;
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(GazetteerFormat.MAGIC);
+            out.writeInt(GazetteerFormat.VERSION);
+            out.writeInt(mCellsPerDegree);
+            out.writeInt(countries.size());
+            out.writeInt(mPlaces.size());
+            out.writeInt(cells.size());
+            out.writeInt(countriesOffset);
+            out.writeInt(placesOffset);
+            out.writeInt(cellsOffset);
+            out.writeInt(stringsOffset);
+            for (int countryOffset : countryOffsets) {
+                out.writeInt(countryOffset);
+            }
+            for (int i = 0; i < mPlaces.size(); i++) {
+                Place place = mPlaces.get(i);
+                out.writeInt(place.latE6);
+                out.writeInt(place.lonE6);
+                out.writeInt(nameOffsets[i]);
+                out.writeShort(placeCountries[i]);
+                out.writeShort(0);
+            }
+            for (int[] cell : cells) {
+                out.writeInt(cell[0]);
+                out.writeInt(cell[1]);
+            }
+            strings.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static class StringTable {
+        private final HashMap<String, Integer> mOffsets = new HashMap<String, Integer>();
+        private final ArrayList<byte[]> mStrings = new ArrayList<byte[]>();
+        private int mSize;
+
+        public int add(String s) throws IOException {
+            Integer res = mOffsets.get(s);
+            if (res != null) return res;
+            byte[] bytes = s.getBytes("UTF-8");
+            if (bytes.length > 0xFFFF) throw new IOException("String too long: " + s);
+            res = mSize;
+            mOffsets.put(s, res);
+            mStrings.add(bytes);
+            mSize += 2 + bytes.length;
+            return res;
+        }
+
+        public void writeTo(DataOutputStream out) throws IOException {
+            for (byte[] bytes : mStrings) {
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+}
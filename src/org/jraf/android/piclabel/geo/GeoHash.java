@@ -0,0 +1,71 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.geo;
+
+/**
+ * Geohash encoding: a location is turned into a short string, and locations close to each other share the same string at a given precision.<br/>
+ * At precision 7, a cell is about 150 m x 150 m; at precision 8, about 40 m x 20 m.
+ */
+public class GeoHash {
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private GeoHash() {}
+
+    /**
+     * @param precision The number of characters of the result.
+     */
+    public static String encode(double lat, double lon, int precision) {
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+        char[] res = new char[precision];
+        boolean evenBit = true;
+        for (int i = 0; i < precision; i++) {
+            int value = 0;
+            for (int bit = 0; bit < 5; bit++) {
+                // Bits alternate between longitude and latitude, starting with longitude
+                value <<= 1;
+                if (evenBit) {
+                    double mid = (minLon + maxLon) / 2;
+                    if (lon >= mid) {
+                        value |= 1;
+                        minLon = mid;
+                    } else {
+                        maxLon = mid;
+                    }
+                } else {
+                    double mid = (minLat + maxLat) / 2;
+                    if (lat >= mid) {
+                        value |= 1;
+                        minLat = mid;
+                    } else {
+                        maxLat = mid;
+                    }
+                }
+                evenBit = !evenBit;
+            }
+            res[i] = BASE32[value];
+        }
+        return new String(res);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.jpeg;
+
+/**
+ * Huffman coding of 8x8 blocks of quantized DCT coefficients, stored in zigzag order.
+ */
+public class BlockCodec {
+    /**
+     * Natural (row-major) index of each zigzag position.
+     */
+    public static final int[] ZIGZAG = { 0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5, 12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14,
+            21, 28, 35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51, 58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63 };
+
+    private BlockCodec() {}
+
+    /**
+     * Decodes one block.
+     * 
+     * @param predictor The DC value of the previous block of the same component.
+     * @return The DC value of the decoded block.
+     */
+    public static int decodeBlock(EntropyReader reader, HuffmanTable dcTable, HuffmanTable acTable, int predictor, int[] coefficients)
+            throws JpegException {
+        for (int i = 0; i < 64; i++) {
+            coefficients[i] = 0;
+        }
+        int size = dcTable.decode(reader);
+        coefficients[0] = predictor + (size == 0 ? 0 : extend(reader.readBits(size), size));
+        for (int k = 1; k < 64;) {
+            int symbol = acTable.decode(reader);
+            int run = symbol >> 4;
+            size = symbol & 0x0F;
+            if (size == 0) {
+                if (run != 15) break;
+                k += 16;
+            } else {
+                k += run;
+                if (k > 63) throw new JpegException("Invalid AC coefficient index");
+                coefficients[k++] = extend(reader.readBits(size), size);
+            }
+        }
+        return coefficients[0];
+    }
+
+    /**
+     * Encodes one block.
+     * 
+     * @param predictor The DC value of the previous block of the same component.
+     * @return The DC value of the encoded block.
+     */
+    public static int encodeBlock(EntropyWriter writer, HuffmanTable dcTable, HuffmanTable acTable, int predictor, int[] coefficients)
+            throws JpegException {
+        int diff = coefficients[0] - predictor;
+        int size = bitLength(diff);
+        dcTable.encode(writer, size);
+        if (size != 0) writer.writeBits(diff < 0 ? diff - 1 : diff, size);
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int value = coefficients[k];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                acTable.encode(writer, 0xF0);
+                run -= 16;
+            }
+            size = bitLength(value);
+            acTable.encode(writer, (run << 4) | size);
+            writer.writeBits(value < 0 ? value - 1 : value, size);
+            run = 0;
+        }
+        if (run > 0) acTable.encode(writer, 0x00);
+        return coefficients[0];
+    }
+
+    private static int extend(int value, int size) {
+        return value < 1 << (size - 1) ? value - (1 << size) + 1 : value;
+    }
+
+    private static int bitLength(int value) {
+        return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+    }
+}
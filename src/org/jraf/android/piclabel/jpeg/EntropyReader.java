@@ -0,0 +1,148 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.jpeg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Reads the entropy-coded segment of a scan bit by bit, removing byte stuffing and stopping at the first marker.
+ */
+public class EntropyReader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int NO_MARKER = -1;
+    private static final int END_OF_STREAM = -2;
+
+    private final InputStream mIn;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mPosition;
+    private int mLimit;
+
+    private long mBits;
+    private int mBitCount;
+    private int mMarker = NO_MARKER;
+
+    public EntropyReader(InputStream in) {
+        mIn = in;
+    }
+
+    private int readByte() throws IOException {
+        if (mPosition == mLimit) {
+            mLimit = mIn.read(mBuffer, 0, BUFFER_SIZE);
+            mPosition = 0;
+            if (mLimit <= 0) {
+                mLimit = 0;
+                return -1;
+            }
+        }
+        return mBuffer[mPosition++] & 0xFF;
+    }
+
+    private void fill() throws JpegException {
+        try {
+            while (mBitCount <= 56 && mMarker == NO_MARKER) {
+                int b = readByte();
+                if (b == 0xFF) {
+                    int next = readByte();
+                    while (next == 0xFF) {
+                        next = readByte();
+                    }
+                    if (next != 0) {
+                        mMarker = next < 0 ? END_OF_STREAM : next;
+                        break;
+                    }
+                } else if (b < 0) {
+                    mMarker = END_OF_STREAM;
+                    break;
+                }
+                mBits = (mBits << 8) | b;
+                mBitCount += 8;
+            }
+        } catch (IOException e) {
+            JpegException jpegException = new JpegException("Could not read entropy-coded data");
+            jpegException.initCause(e);
+            throw jpegException;
+        }
+    }
+
+    /**
+     * Returns the next {@code count} bits (at most 16) without consuming them. Bits past the end of the data read as zeros.
+     */
+    public int peekBits(int count) throws JpegException {
+        if (mBitCount < count) fill();
+        if (mBitCount >= count) return (int) (mBits >>> (mBitCount - count)) & ((1 << count) - 1);
+        return (int) (mBits << (count - mBitCount)) & ((1 << count) - 1);
+    }
+
+    public void skipBits(int count) throws JpegException {
+        if (count > mBitCount) throw new JpegException("Premature end of entropy-coded data");
+        mBitCount -= count;
+    }
+
+    public int readBits(int count) throws JpegException {
+        int res = peekBits(count);
+        skipBits(count);
+        return res;
+    }
+
+    /**
+     * Discards the padding bits of the current byte and returns the marker that follows.
+     */
+    public int nextMarker() throws JpegException {
+        mBitCount = 0;
+        while (mMarker == NO_MARKER) {
+            fill();
+            mBitCount = 0;
+        }
+        if (mMarker == END_OF_STREAM) throw new JpegException("Premature end of stream");
+        int res = mMarker;
+        mMarker = NO_MARKER;
+        return res;
+    }
+
+    /**
+     * Copies all the remaining bits of the entropy-coded segment as is, up to (but excluding) the next marker.
+     */
+    public void copyBitsTo(EntropyWriter writer) throws JpegException {
+        while (true) {
+            if (mBitCount < 16) fill();
+            if (mBitCount == 0) break;
+            int count = Math.min(mBitCount, 16);
+            writer.writeBits(readBits(count), count);
+        }
+    }
+
+    /**
+     * Copies everything that follows the last marker returned by {@link #nextMarker()} as is, up to the end of the stream.
+     */
+    public void copyRemainingTo(OutputStream out) throws IOException {
+        out.write(mBuffer, mPosition, mLimit - mPosition);
+        mPosition = mLimit;
+        int len;
+        while ((len = mIn.read(mBuffer, 0, BUFFER_SIZE)) > 0) {
+            out.write(mBuffer, 0, len);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.jpeg;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes an entropy-coded segment bit by bit, adding byte stuffing.
+ */
+public class EntropyWriter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream mOut;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mPosition;
+    private IOException mException;
+
+    private long mBits;
+    private int mBitCount;
+
+    public EntropyWriter(OutputStream out) {
+        mOut = out;
+    }
+
+    private void put(int b) {
+        if (mPosition == BUFFER_SIZE) flushBuffer();
+        mBuffer[mPosition++] = (byte) b;
+    }
+
+    private void flushBuffer() {
+        if (mException == null) {
+            try {
+                mOut.write(mBuffer, 0, mPosition);
+            } catch (IOException e) {
+                mException = e;
+            }
+        }
+        mPosition = 0;
+    }
+
+    public void writeBits(int value, int count) {
+        mBits = (mBits << count) | (value & ((1 << count) - 1));
+        mBitCount += count;
+        while (mBitCount >= 8) {
+            mBitCount -= 8;
+            int b = (int) (mBits >>> mBitCount) & 0xFF;
+            put(b);
+            if (b == 0xFF) put(0);
+        }
+    }
+
+    /**
+     * Pads the current byte with 1 bits.
+     */
+    public void padToByte() {
+        if (mBitCount > 0) {
+            int count = 8 - mBitCount;
+            writeBits((1 << count) - 1, count);
+        }
+    }
+
+    public void writeMarker(int marker) {
+        padToByte();
+        put(0xFF);
+        put(marker);
+    }
+
+    /**
+     * Writes the buffered bytes to the underlying stream. The current byte is padded first.
+     */
+    public void flush() throws IOException {
+        padToByte();
+        flushBuffer();
+        if (mException != null) throw mException;
+    }
+}
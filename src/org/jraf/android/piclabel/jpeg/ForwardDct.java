@@ -0,0 +1,73 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.jpeg;
+
+/**
+ * Forward DCT and quantization of 8x8 blocks.
+ */
+public class ForwardDct {
+    private static final float[] COSINES = new float[64];
+
+    static {
+        for (int u = 0; u < 8; u++) {
+            double scale = u == 0 ? Math.sqrt(1d / 8d) : Math.sqrt(2d / 8d);
+            for (int x = 0; x < 8; x++) {
+                COSINES[u * 8 + x] = (float) (scale * Math.cos((2 * x + 1) * u * Math.PI / 16d));
+            }
+        }
+    }
+
+    private final float[] mRows = new float[64];
+
+    /**
+     * Transforms and quantizes one block.
+     * 
+     * @param samples Level shifted samples (-128..127), in natural order.
+     * @param quantTable Quantization table, in zigzag order.
+     * @param coefficients Receives the quantized coefficients, in zigzag order.
+     */
+    public void transform(float[] samples, int[] quantTable, int[] coefficients) {
+        float[] rows = mRows;
+        for (int y = 0; y < 8; y++) {
+            for (int u = 0; u < 8; u++) {
+                float sum = 0;
+                for (int x = 0; x < 8; x++) {
+                    sum += samples[y * 8 + x] * COSINES[u * 8 + x];
+                }
+                rows[y * 8 + u] = sum;
+            }
+        }
+        for (int k = 0; k < 64; k++) {
+            int natural = BlockCodec.ZIGZAG[k];
+            int v = natural >> 3;
+            int u = natural & 7;
+            float sum = 0;
+            for (int y = 0; y < 8; y++) {
+                sum += rows[y * 8 + u] * COSINES[v * 8 + y];
+            }
+            int value = Math.round(sum / quantTable[k]);
+            coefficients[k] = Math.max(-1023, Math.min(1023, value));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.jpeg;
+
+/**
+ * Huffman table as defined by a DHT segment, usable for both decoding and encoding.
+ */
+public class HuffmanTable {
+    private static final int LOOKAHEAD = 9;
+
+    private final int[] mValues;
+
+    // Decoding
+    private final int[] mMaxCode = new int[18];
+    private final int[] mValPtr = new int[17];
+    private final int[] mMinCode = new int[17];
+    private final int[] mLookup = new int[1 << LOOKAHEAD];
+
+    // Encoding
+    private final int[] mCodes = new int[256];
+    private final int[] mSizes = new int[256];
+
+    /**
+     * @param bits Number of codes of each length, {@code bits[0]} being the number of codes of length 1.
+     * @param values Symbols, in order of increasing code length.
+     */
+    public HuffmanTable(int[] bits, int[] values) throws JpegException {
+        mValues = values;
+        int k = 0;
+        int code = 0;
+        for (int len = 1; len <= 16; len++) {
+            int count = bits[len - 1];
+            mValPtr[len] = k;
+            mMinCode[len] = code;
+            for (int i = 0; i < count; i++) {
+                if (k >= values.length) throw new JpegException("Huffman table has fewer values than codes");
+                int value = values[k];
+                mCodes[value] = code;
+                mSizes[value] = len;
+                if (len <= LOOKAHEAD) {
+                    int shift = LOOKAHEAD - len;
+                    int prefix = code << shift;
+                    for (int j = 0; j < 1 << shift; j++) {
+                        mLookup[prefix | j] = (len << 8) | value;
+                    }
+                }
+                k++;
+                code++;
+            }
+            if (code > 1 << len) throw new JpegException("Invalid Huffman table");
+            mMaxCode[len] = count == 0 ? -1 : code - 1;
+            code <<= 1;
+        }
+        mMaxCode[17] = Integer.MAX_VALUE;
+    }
+
+    public int decode(EntropyReader reader) throws JpegException {
+        int entry = mLookup[reader.peekBits(LOOKAHEAD)];
+        if (entry != 0) {
+            reader.skipBits(entry >> 8);
+            return entry & 0xFF;
+        }
+        int bits = reader.peekBits(16);
+        for (int len = LOOKAHEAD + 1; len <= 16; len++) {
+            int code = bits >>> (16 - len);
+            if (code <= mMaxCode[len]) {
+                reader.skipBits(len);
+                return mValues[mValPtr[len] + code - mMinCode[len]];
+            }
+        }
+        throw new JpegException("Invalid Huffman code");
+    }
+
+    public void encode(EntropyWriter writer, int symbol) throws JpegException {
+        int size = mSizes[symbol];
+        if (size == 0) throw new JpegException("Symbol 0x" + Integer.toHexString(symbol) + " not present in Huffman table");
+        writer.writeBits(mCodes[symbol], size);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.jpeg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.jraf.android.piclabel.raster.RasterSource;
+
+/**
+ * Re-encodes the MCUs covering a band of a JPEG (typically along one of its edges), leaving the rest of the image untouched.
+ * <p>
+ * The header (including EXIF and quantization tables) is copied as is. The band is encoded from the pixels given by a {@link RasterSource}, with
+ * the quantization and Huffman tables of the original image. The MCUs before the band are re-encoded losslessly. The entropy-coded data that
+ * follows the band is copied bit for bit: only the first MCU after the band is re-encoded (losslessly) to account for the changed DC predictors.
+ * When the image has restart markers, the data is re-encoded losslessly up to the first restart marker after the band, and copied byte for byte
+ * from there.
+ */
+public class JpegBandTranscoder {
+    private final JpegFrame mFrame;
+    private final int mFirstMcuX;
+    private final int mFirstMcuY;
+    private final int mLastMcuX;
+    private final int mLastMcuY;
+
+    /**
+     * @param left The left of the band, in stored image coordinates.
+     * @param top The top of the band.
+     * @param right The right of the band (exclusive).
+     * @param bottom The bottom of the band (exclusive).
+     */
+    public JpegBandTranscoder(JpegFrame frame, int left, int top, int right, int bottom) {
+        mFrame = frame;
+        int mcuWidth = frame.getMcuWidth();
+        int mcuHeight = frame.getMcuHeight();
+        mFirstMcuX = Math.max(0, left) / mcuWidth;
+        mFirstMcuY = Math.max(0, top) / mcuHeight;
+        mLastMcuX = Math.max(mFirstMcuX, Math.min(frame.getMcusPerRow() - 1, (right - 1) / mcuWidth));
+        mLastMcuY = Math.max(mFirstMcuY, Math.min(frame.getMcuRows() - 1, (bottom - 1) / mcuHeight));
+    }
+
+    /*
+     * Bounds of the area actually re-encoded: the band rounded to the MCU grid, clipped to the image.
+     */
+
+    public int getEncodedLeft() {
+        return mFirstMcuX * mFrame.getMcuWidth();
+    }
+
+    public int getEncodedTop() {
+        return mFirstMcuY * mFrame.getMcuHeight();
+    }
+
+    public int getEncodedRight() {
+        return Math.min(mFrame.getWidth(), (mLastMcuX + 1) * mFrame.getMcuWidth());
+    }
+
+    public int getEncodedBottom() {
+        return Math.min(mFrame.getHeight(), (mLastMcuY + 1) * mFrame.getMcuHeight());
+    }
+
+    /**
+     * Writes the transcoded image.
+     * 
+     * @param in The original image, positioned right after its header (as left by {@link JpegParser#parse(InputStream)}).
+     * @param out Receives the transcoded image.
+     * @param band The pixels of the band. Only the encoded area is read.
+     */
+    public void transcode(InputStream in, OutputStream out, RasterSource band) throws IOException {
+        JpegFrame frame = mFrame;
+        JpegFrame.Component[] components = frame.getComponents();
+        int mcusPerRow = frame.getMcusPerRow();
+        int mcuHeight = frame.getMcuHeight();
+        int mcuCount = frame.getMcuRows() * mcusPerRow;
+        int lastBandMcu = mLastMcuY * mcusPerRow + mLastMcuX;
+        int restartInterval = frame.getRestartInterval();
+        int bandLeft = getEncodedLeft();
+        int bandWidth = getEncodedRight() - bandLeft;
+
+        out.write(frame.getHeaderBytes());
+        EntropyReader reader = new EntropyReader(in);
+        EntropyWriter writer = new EntropyWriter(out);
+
+        McuRowSampler sampler = new McuRowSampler(frame, mLastMcuX - mFirstMcuX + 1);
+        ForwardDct dct = new ForwardDct();
+        int[] pixels = new int[bandWidth * mcuHeight];
+        float[] samples = new float[64];
+        int[] coefficients = new int[64];
+        int[] decodePredictors = new int[components.length];
+        int[] encodePredictors = new int[components.length];
+
+        for (int mcu = 0; mcu < mcuCount; mcu++) {
+            if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+                int marker = reader.nextMarker();
+                int expectedMarker = JpegParser.RST0 + ((mcu / restartInterval - 1) & 7);
+                if (marker != expectedMarker) throw new JpegException("Expected RST marker, found 0x" + Integer.toHexString(marker));
+                writer.writeMarker(marker);
+                if (mcu > lastBandMcu) {
+                    // Past the band: the rest is identical to the original
+                    writer.flush();
+                    reader.copyRemainingTo(out);
+                    return;
+                }
+                Arrays.fill(decodePredictors, 0);
+                Arrays.fill(encodePredictors, 0);
+            }
+
+            int mcuX = mcu % mcusPerRow;
+            int mcuY = mcu / mcusPerRow;
+            boolean inBand = mcuX >= mFirstMcuX && mcuX <= mLastMcuX && mcuY >= mFirstMcuY && mcuY <= mLastMcuY;
+            if (inBand && mcuX == mFirstMcuX) {
+                int y = mcuY * mcuHeight;
+                int rowCount = Math.min(mcuHeight, frame.getHeight() - y);
+                band.readPixels(bandLeft, y, bandWidth, rowCount, pixels);
+                sampler.load(pixels, 0, bandWidth, rowCount);
+            }
+
+            for (int c = 0; c < components.length; c++) {
+                JpegFrame.Component component = components[c];
+                for (int blockY = 0; blockY < component.getVerticalFactor(); blockY++) {
+                    for (int blockX = 0; blockX < component.getHorizontalFactor(); blockX++) {
+                        decodePredictors[c] = BlockCodec.decodeBlock(reader, component.getDcTable(), component.getAcTable(), decodePredictors[c],
+                                coefficients);
+                        if (inBand) {
+                            sampler.getBlock(c, mcuX - mFirstMcuX, blockX, blockY, samples);
+                            dct.transform(samples, component.getQuantTable(), coefficients);
+                        }
+                        encodePredictors[c] = BlockCodec.encodeBlock(writer, component.getDcTable(), component.getAcTable(), encodePredictors[c],
+                                coefficients);
+                    }
+                }
+            }
+
+            if (restartInterval == 0 && mcu > lastBandMcu && Arrays.equals(decodePredictors, encodePredictors)) {
+                // The DC predictors are in sync again: the rest of the data can be copied as is
+                reader.copyBitsTo(writer);
+                break;
+            }
+        }
+
+        writer.writeMarker(reader.nextMarker());
+        writer.flush();
+        reader.copyRemainingTo(out);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.jpeg;
+
+/**
+ * Frame and scan parameters of a sequential Huffman-coded JPEG, as read by {@link JpegParser}.
+ */
+public class JpegFrame {
+    public static class Component {
+        private final int mId;
+        private final int mHorizontalFactor;
+        private final int mVerticalFactor;
+        private final int[] mQuantTable;
+        private final HuffmanTable mDcTable;
+        private final HuffmanTable mAcTable;
+
+        public Component(int id, int horizontalFactor, int verticalFactor, int[] quantTable, HuffmanTable dcTable, HuffmanTable acTable) {
+            mId = id;
+            mHorizontalFactor = horizontalFactor;
+            mVerticalFactor = verticalFactor;
+            mQuantTable = quantTable;
+            mDcTable = dcTable;
+            mAcTable = acTable;
+        }
+
+        public int getId() {
+            return mId;
+        }
+
+        public int getHorizontalFactor() {
+            return mHorizontalFactor;
+        }
+
+        public int getVerticalFactor() {
+            return mVerticalFactor;
+        }
+
+        /**
+         * @return The quantization table, in zigzag order.
+         */
+        public int[] getQuantTable() {
+            return mQuantTable;
+        }
+
+        public HuffmanTable getDcTable() {
+            return mDcTable;
+        }
+
+        public HuffmanTable getAcTable() {
+            return mAcTable;
+        }
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final Component[] mComponents;
+    private final int mRestartInterval;
+    private final byte[] mHeaderBytes;
+    private final int mMaxHorizontalFactor;
+    private final int mMaxVerticalFactor;
+    private final int mBlocksPerMcu;
+
+    public JpegFrame(int width, int height, Component[] components, int restartInterval, byte[] headerBytes) {
+        mWidth = width;
+        mHeight = height;
+        mComponents = components;
+        mRestartInterval = restartInterval;
+        mHeaderBytes = headerBytes;
+        int maxHorizontalFactor = 1;
+        int maxVerticalFactor = 1;
+        int blocksPerMcu = 0;
+        for (Component component : components) {
+            maxHorizontalFactor = Math.max(maxHorizontalFactor, component.getHorizontalFactor());
+            maxVerticalFactor = Math.max(maxVerticalFactor, component.getVerticalFactor());
+            blocksPerMcu += component.getHorizontalFactor() * component.getVerticalFactor();
+        }
+        mMaxHorizontalFactor = maxHorizontalFactor;
+        mMaxVerticalFactor = maxVerticalFactor;
+        mBlocksPerMcu = blocksPerMcu;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return The components, in scan order.
+     */
+    public Component[] getComponents() {
+        return mComponents;
+    }
+
+    /**
+     * @return The number of MCUs between restart markers, or 0 if the scan has no restart markers.
+     */
+    public int getRestartInterval() {
+        return mRestartInterval;
+    }
+
+    /**
+     * @return All the bytes of the stream from SOI up to the start of the entropy-coded data.
+     */
+    public byte[] getHeaderBytes() {
+        return mHeaderBytes;
+    }
+
+    public int getMaxHorizontalFactor() {
+        return mMaxHorizontalFactor;
+    }
+
+    public int getMaxVerticalFactor() {
+        return mMaxVerticalFactor;
+    }
+
+    public int getBlocksPerMcu() {
+        return mBlocksPerMcu;
+    }
+
+    public int getMcuWidth() {
+        return 8 * mMaxHorizontalFactor;
+    }
+
+    public int getMcuHeight() {
+        return 8 * mMaxVerticalFactor;
+    }
+
+    public int getMcusPerRow() {
+        return (mWidth + getMcuWidth() - 1) / getMcuWidth();
+    }
+
+    public int getMcuRows() {
+        return (mHeight + getMcuHeight() - 1) / getMcuHeight();
+    }
+}
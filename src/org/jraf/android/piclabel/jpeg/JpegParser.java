@@ -0,0 +1,237 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.jpeg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the header of a JPEG stream, up to the start of the entropy-coded data of its first scan.
+ * <p>
+ * Only baseline and extended sequential, Huffman-coded, 8-bit JPEGs with a single interleaved scan are supported, which covers what cameras
+ * produce. Anything else makes {@link #parse(InputStream)} throw a {@link JpegException}.
+ */
+public class JpegParser {
+    public static final int SOF0 = 0xC0;
+    public static final int SOF1 = 0xC1;
+    public static final int DHT = 0xC4;
+    public static final int RST0 = 0xD0;
+    public static final int SOI = 0xD8;
+    public static final int EOI = 0xD9;
+    public static final int SOS = 0xDA;
+    public static final int DQT = 0xDB;
+    public static final int DRI = 0xDD;
+
+    private final InputStream mIn;
+    private final ByteArrayOutputStream mHeaderBytes = new ByteArrayOutputStream(64 * 1024);
+    private final int[][] mQuantTables = new int[4][];
+    private final HuffmanTable[] mDcTables = new HuffmanTable[4];
+    private final HuffmanTable[] mAcTables = new HuffmanTable[4];
+    private int mRestartInterval;
+
+    private int mWidth;
+    private int mHeight;
+    private int[] mComponentIds;
+    private int[] mHorizontalFactors;
+    private int[] mVerticalFactors;
+    private int[] mQuantTableIndexes;
+
+    private JpegParser(InputStream in) {
+        mIn = in;
+    }
+
+    /**
+     * Reads the header of the given stream. When this method returns, the stream is positioned at the start of the entropy-coded data.
+     */
+    public static JpegFrame parse(InputStream in) throws IOException {
+        return new JpegParser(in).parse();
+    }
+
+    private JpegFrame parse() throws IOException {
+        if (readByte() != 0xFF || readByte() != SOI) throw new JpegException("Not a JPEG stream");
+        while (true) {
+            int marker = readMarker();
+            switch (marker) {
+                case SOF0:
+                case SOF1:
+                    readFrame();
+                    break;
+
+                case DHT:
+                    readHuffmanTables();
+                    break;
+
+                case DQT:
+                    readQuantTables();
+                    break;
+
+                case DRI:
+                    readUnsignedShort();
+                    mRestartInterval = readUnsignedShort();
+                    break;
+
+                case SOS:
+                    return readScan();
+
+                case EOI:
+                    throw new JpegException("No scan found");
+
+                default:
+                    if (marker >= 0xC0 && marker <= 0xCF) throw new JpegException("Unsupported coding process: 0x" + Integer.toHexString(marker));
+                    skipSegment();
+                    break;
+            }
+        }
+    }
+
+    private void readFrame() throws IOException {
+        readUnsignedShort();
+        if (readByte() != 8) throw new JpegException("Unsupported sample precision");
+        mHeight = readUnsignedShort();
+        mWidth = readUnsignedShort();
+        if (mWidth == 0 || mHeight == 0) throw new JpegException("Unsupported image size: " + mWidth + "x" + mHeight);
+        int count = readByte();
+        if (count != 1 && count != 3) throw new JpegException("Unsupported number of components: " + count);
+        mComponentIds = new int[count];
+        mHorizontalFactors = new int[count];
+        mVerticalFactors = new int[count];
+        mQuantTableIndexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            mComponentIds[i] = readByte();
+            int factors = readByte();
+            // The MCU of a single component scan is always one block
+            mHorizontalFactors[i] = count == 1 ? 1 : factors >> 4;
+            mVerticalFactors[i] = count == 1 ? 1 : factors & 0x0F;
+            mQuantTableIndexes[i] = readByte() & 0x03;
+        }
+        int maxHorizontalFactor = 0;
+        int maxVerticalFactor = 0;
+        for (int i = 0; i < count; i++) {
+            maxHorizontalFactor = Math.max(maxHorizontalFactor, mHorizontalFactors[i]);
+            maxVerticalFactor = Math.max(maxVerticalFactor, mVerticalFactors[i]);
+        }
+        for (int i = 0; i < count; i++) {
+            if (mHorizontalFactors[i] == 0 || mVerticalFactors[i] == 0 || maxHorizontalFactor % mHorizontalFactors[i] != 0
+                    || maxVerticalFactor % mVerticalFactors[i] != 0) {
+                throw new JpegException("Unsupported sampling factors");
+            }
+        }
+    }
+
+    private void readHuffmanTables() throws IOException {
+        int remaining = readUnsignedShort() - 2;
+        while (remaining > 0) {
+            int classAndIndex = readByte();
+            int[] bits = new int[16];
+            int total = 0;
+            for (int i = 0; i < 16; i++) {
+                bits[i] = readByte();
+                total += bits[i];
+            }
+            if (total > 256) throw new JpegException("Invalid Huffman table");
+            int[] values = new int[total];
+            for (int i = 0; i < total; i++) {
+                values[i] = readByte();
+            }
+            HuffmanTable table = new HuffmanTable(bits, values);
+            if ((classAndIndex >> 4) == 0) {
+                mDcTables[classAndIndex & 0x03] = table;
+            } else {
+                mAcTables[classAndIndex & 0x03] = table;
+            }
+            remaining -= 17 + total;
+        }
+    }
+
+    private void readQuantTables() throws IOException {
+        int remaining = readUnsignedShort() - 2;
+        while (remaining > 0) {
+            int precisionAndIndex = readByte();
+            boolean sixteenBits = (precisionAndIndex >> 4) != 0;
+            int[] table = new int[64];
+            for (int i = 0; i < 64; i++) {
+                table[i] = sixteenBits ? readUnsignedShort() : readByte();
+                if (table[i] == 0) throw new JpegException("Invalid quantization table");
+            }
+            mQuantTables[precisionAndIndex & 0x03] = table;
+            remaining -= 1 + (sixteenBits ? 128 : 64);
+        }
+    }
+
+    private JpegFrame readScan() throws IOException {
+        if (mComponentIds == null) throw new JpegException("No frame header found before scan");
+        readUnsignedShort();
+        int count = readByte();
+        if (count != mComponentIds.length) throw new JpegException("Unsupported non-interleaved scan");
+        JpegFrame.Component[] components = new JpegFrame.Component[count];
+        for (int i = 0; i < count; i++) {
+            int id = readByte();
+            int tables = readByte();
+            int frameIndex = -1;
+            for (int j = 0; j < mComponentIds.length; j++) {
+                if (mComponentIds[j] == id) frameIndex = j;
+            }
+            if (frameIndex == -1) throw new JpegException("Unknown component in scan: " + id);
+            int[] quantTable = mQuantTables[mQuantTableIndexes[frameIndex]];
+            HuffmanTable dcTable = mDcTables[(tables >> 4) & 0x03];
+            HuffmanTable acTable = mAcTables[tables & 0x03];
+            if (quantTable == null || dcTable == null || acTable == null) throw new JpegException("Missing table for component " + id);
+            components[i] = new JpegFrame.Component(id, mHorizontalFactors[frameIndex], mVerticalFactors[frameIndex], quantTable, dcTable, acTable);
+        }
+        int spectralStart = readByte();
+        int spectralEnd = readByte();
+        int approximation = readByte();
+        if (spectralStart != 0 || spectralEnd != 63 || approximation != 0) throw new JpegException("Unsupported scan parameters");
+        return new JpegFrame(mWidth, mHeight, components, mRestartInterval, mHeaderBytes.toByteArray());
+    }
+
+    private void skipSegment() throws IOException {
+        int length = readUnsignedShort();
+        for (int i = 2; i < length; i++) {
+            readByte();
+        }
+    }
+
+    private int readMarker() throws IOException {
+        if (readByte() != 0xFF) throw new JpegException("Marker expected");
+        int res = readByte();
+        while (res == 0xFF) {
+            res = readByte();
+        }
+        return res;
+    }
+
+    private int readUnsignedShort() throws IOException {
+        return (readByte() << 8) | readByte();
+    }
+
+    private int readByte() throws IOException {
+        int res = mIn.read();
+        if (res < 0) throw new EOFException("Premature end of stream");
+        mHeaderBytes.write(res);
+        return res;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.jpeg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.jraf.android.piclabel.raster.StripEncoder;
+
+/**
+ * Baseline JPEG encoder (YCbCr, 4:2:0, standard Huffman tables) that is fed strips of pixels, so the whole image never needs to be in memory.
+ */
+public class JpegStripEncoder implements StripEncoder {
+    private static final int MAX_DIMENSION = 65535;
+
+    private final OutputStream mOut;
+    private final int mQuality;
+
+    private JpegFrame mFrame;
+    private EntropyWriter mWriter;
+    private McuRowSampler mSampler;
+    private final ForwardDct mDct = new ForwardDct();
+    private final float[] mSamples = new float[64];
+    private final int[] mCoefficients = new int[64];
+    private final int[] mPredictors = new int[3];
+    private int mRowsWritten;
+
+    /**
+     * @param quality The quality, from 1 to 100, scaled the same way as libjpeg does.
+     */
+    public JpegStripEncoder(OutputStream out, int quality) {
+        mOut = out;
+        mQuality = quality;
+    }
+
+    @Override
+    public int getRowAlignment() {
+        return 16;
+    }
+
+    @Override
+    public void start(int width, int height) throws IOException {
+        if (width <= 0 || height <= 0 || width > MAX_DIMENSION || height > MAX_DIMENSION) {
+            throw new JpegException("Unsupported image size: " + width + "x" + height);
+        }
+        int[] luminanceQuantTable = JpegTables.getLuminanceQuantTable(mQuality);
+        int[] chrominanceQuantTable = JpegTables.getChrominanceQuantTable(mQuality);
+        HuffmanTable dcLuminance = new HuffmanTable(JpegTables.DC_LUMINANCE_BITS, JpegTables.DC_LUMINANCE_VALUES);
+        HuffmanTable acLuminance = new HuffmanTable(JpegTables.AC_LUMINANCE_BITS, JpegTables.AC_LUMINANCE_VALUES);
+        HuffmanTable dcChrominance = new HuffmanTable(JpegTables.DC_CHROMINANCE_BITS, JpegTables.DC_CHROMINANCE_VALUES);
+        HuffmanTable acChrominance = new HuffmanTable(JpegTables.AC_CHROMINANCE_BITS, JpegTables.AC_CHROMINANCE_VALUES);
+        JpegFrame.Component[] components = new JpegFrame.Component[] {
+                new JpegFrame.Component(1, 2, 2, luminanceQuantTable, dcLuminance, acLuminance),
+                new JpegFrame.Component(2, 1, 1, chrominanceQuantTable, dcChrominance, acChrominance),
+                new JpegFrame.Component(3, 1, 1, chrominanceQuantTable, dcChrominance, acChrominance) };
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(1024);
+        header.write(0xFF);
+        header.write(JpegParser.SOI);
+
+        // JFIF
+        writeSegmentHeader(header, 0xE0, 14);
+        header.write(new byte[] { 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0 });
+
+        // Quantization tables
+        writeSegmentHeader(header, JpegParser.DQT, 2 * 65);
+        header.write(0);
+        for (int value : luminanceQuantTable) {
+            header.write(value);
+        }
+        header.write(1);
+        for (int value : chrominanceQuantTable) {
+            header.write(value);
+        }
+
+        // Frame
+        writeSegmentHeader(header, JpegParser.SOF0, 6 + 3 * components.length);
+        header.write(8);
+        writeShort(header, height);
+        writeShort(header, width);
+        header.write(components.length);
+        for (int i = 0; i < components.length; i++) {
+            header.write(components[i].getId());
+            header.write((components[i].getHorizontalFactor() << 4) | components[i].getVerticalFactor());
+            header.write(i == 0 ? 0 : 1);
+        }
+
+        // Huffman tables
+        writeSegmentHeader(header, JpegParser.DHT, 4 * 17 + JpegTables.DC_LUMINANCE_VALUES.length + JpegTables.AC_LUMINANCE_VALUES.length
+                + JpegTables.DC_CHROMINANCE_VALUES.length + JpegTables.AC_CHROMINANCE_VALUES.length);
+        writeHuffmanTable(header, 0x00, JpegTables.DC_LUMINANCE_BITS, JpegTables.DC_LUMINANCE_VALUES);
+        writeHuffmanTable(header, 0x10, JpegTables.AC_LUMINANCE_BITS, JpegTables.AC_LUMINANCE_VALUES);
+        writeHuffmanTable(header, 0x01, JpegTables.DC_CHROMINANCE_BITS, JpegTables.DC_CHROMINANCE_VALUES);
+        writeHuffmanTable(header, 0x11, JpegTables.AC_CHROMINANCE_BITS, JpegTables.AC_CHROMINANCE_VALUES);
+
+        // Scan
+        writeSegmentHeader(header, JpegParser.SOS, 4 + 2 * components.length);
+        header.write(components.length);
+        for (int i = 0; i < components.length; i++) {
+            header.write(components[i].getId());
+            header.write(i == 0 ? 0x00 : 0x11);
+        }
+        header.write(0);
+        header.write(63);
+        header.write(0);
+
+        mFrame = new JpegFrame(width, height, components, 0, header.toByteArray());
+        mOut.write(mFrame.getHeaderBytes());
+        mWriter = new EntropyWriter(mOut);
+        mSampler = new McuRowSampler(mFrame, mFrame.getMcusPerRow());
+        mRowsWritten = 0;
+    }
+
+    @Override
+    public void writeStrip(int[] argb, int rowCount) throws IOException {
+        JpegFrame frame = mFrame;
+        int mcuHeight = frame.getMcuHeight();
+        if (mRowsWritten + rowCount < frame.getHeight() && rowCount % mcuHeight != 0) {
+            throw new IllegalArgumentException("Only the last strip can have a height that is not a multiple of " + mcuHeight);
+        }
+        if (mRowsWritten + rowCount > frame.getHeight()) throw new IllegalArgumentException("Too many rows");
+        JpegFrame.Component[] components = frame.getComponents();
+        int width = frame.getWidth();
+        int mcusPerRow = frame.getMcusPerRow();
+        for (int y = 0; y < rowCount; y += mcuHeight) {
+            mSampler.load(argb, y * width, width, Math.min(mcuHeight, rowCount - y));
+            for (int mcuX = 0; mcuX < mcusPerRow; mcuX++) {
+                for (int c = 0; c < components.length; c++) {
+                    JpegFrame.Component component = components[c];
+                    for (int blockY = 0; blockY < component.getVerticalFactor(); blockY++) {
+                        for (int blockX = 0; blockX < component.getHorizontalFactor(); blockX++) {
+                            mSampler.getBlock(c, mcuX, blockX, blockY, mSamples);
+                            mDct.transform(mSamples, component.getQuantTable(), mCoefficients);
+                            mPredictors[c] = BlockCodec.encodeBlock(mWriter, component.getDcTable(), component.getAcTable(), mPredictors[c],
+                                    mCoefficients);
+                        }
+                    }
+                }
+            }
+        }
+        mRowsWritten += rowCount;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (mRowsWritten != mFrame.getHeight()) throw new IllegalStateException("Expected " + mFrame.getHeight() + " rows, got " + mRowsWritten);
+        mWriter.writeMarker(JpegParser.EOI);
+        mWriter.flush();
+    }
+
+    private static void writeSegmentHeader(ByteArrayOutputStream out, int marker, int payloadLength) {
+        out.write(0xFF);
+        out.write(marker);
+        writeShort(out, payloadLength + 2);
+    }
+
+    private static void writeHuffmanTable(ByteArrayOutputStream out, int classAndIndex, int[] bits, int[] values) {
+        out.write(classAndIndex);
+        for (int count : bits) {
+            out.write(count);
+        }
+        for (int value : values) {
+            out.write(value);
+        }
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >> 8);
+        out.write(value & 0xFF);
+    }
+}
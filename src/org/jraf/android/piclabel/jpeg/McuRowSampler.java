@@ -0,0 +1,102 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.jpeg;
+
+/**
+ * Converts a horizontal run of MCUs worth of ARGB pixels to YCbCr and extracts the (downsampled) 8x8 sample blocks of each component.
+ */
+public class McuRowSampler {
+    private final JpegFrame mFrame;
+    private final int mPaddedWidth;
+    private final int mMcuHeight;
+    private final float[][] mPlanes;
+
+    /**
+     * @param mcuCount The number of consecutive MCUs loaded at a time.
+     */
+    public McuRowSampler(JpegFrame frame, int mcuCount) {
+        mFrame = frame;
+        mPaddedWidth = mcuCount * frame.getMcuWidth();
+        mMcuHeight = frame.getMcuHeight();
+        mPlanes = new float[frame.getComponents().length][mPaddedWidth * mMcuHeight];
+    }
+
+    /**
+     * Loads a run of MCUs. Missing columns and rows (past the right and bottom edges of the image) are filled by replicating the last ones.
+     * 
+     * @param argb The pixels, with a stride equal to {@code width}.
+     * @param offset The index of the first pixel in {@code argb}.
+     * @param width The number of valid columns in {@code argb}, at most the width of the run.
+     * @param rowCount The number of valid rows in {@code argb}, at most the MCU height.
+     */
+    public void load(int[] argb, int offset, int width, int rowCount) {
+        boolean color = mPlanes.length == 3;
+        for (int y = 0; y < mMcuHeight; y++) {
+            int srcOffset = offset + Math.min(y, rowCount - 1) * width;
+            int dstOffset = y * mPaddedWidth;
+            for (int x = 0; x < mPaddedWidth; x++) {
+                int pixel = argb[srcOffset + Math.min(x, width - 1)];
+                int r = (pixel >> 16) & 0xFF;
+                int g = (pixel >> 8) & 0xFF;
+                int b = pixel & 0xFF;
+                mPlanes[0][dstOffset + x] = 0.299f * r + 0.587f * g + 0.114f * b - 128f;
+                if (color) {
+                    mPlanes[1][dstOffset + x] = -0.168736f * r - 0.331264f * g + 0.5f * b;
+                    mPlanes[2][dstOffset + x] = 0.5f * r - 0.418688f * g - 0.081312f * b;
+                }
+            }
+        }
+    }
+
+    /**
+     * Extracts a block of level shifted samples.
+     * 
+     * @param componentIndex The index of the component, in scan order.
+     * @param mcuX The index of the MCU in the loaded run.
+     * @param blockX The horizontal index of the block in the MCU.
+     * @param blockY The vertical index of the block in the MCU.
+     * @param samples Receives the samples, in natural order.
+     */
+    public void getBlock(int componentIndex, int mcuX, int blockX, int blockY, float[] samples) {
+        JpegFrame.Component component = mFrame.getComponents()[componentIndex];
+        int scaleX = mFrame.getMaxHorizontalFactor() / component.getHorizontalFactor();
+        int scaleY = mFrame.getMaxVerticalFactor() / component.getVerticalFactor();
+        float[] plane = mPlanes[componentIndex];
+        int left = mcuX * mFrame.getMcuWidth() + blockX * 8 * scaleX;
+        int top = blockY * 8 * scaleY;
+        float norm = 1f / (scaleX * scaleY);
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                int offset = (top + y * scaleY) * mPaddedWidth + left + x * scaleX;
+                float sum = 0;
+                for (int dy = 0; dy < scaleY; dy++) {
+                    for (int dx = 0; dx < scaleX; dx++) {
+                        sum += plane[offset + dy * mPaddedWidth + dx];
+                    }
+                }
+                samples[y * 8 + x] = sum * norm;
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.label;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Geocoder;
+import android.text.TextUtils;
+
+import org.jraf.android.piclabel.geo.ReverseGeocoder;
+
+/**
+ * {@link ReverseGeocoder} that uses the platform {@link Geocoder}.
+ */
+public class AndroidReverseGeocoder implements ReverseGeocoder {
+    private final Geocoder mGeocoder;
+
+    public AndroidReverseGeocoder(Context context, Locale locale) {
+        mGeocoder = new Geocoder(context.getApplicationContext(), locale);
+    }
+
+    @Override
+    public String reverseGeocode(double lat, double lon) throws IOException {
+        List<Address> addresses;
+        try {
+            addresses = mGeocoder.getFromLocation(lat, lon, 1);
+        } catch (IllegalArgumentException e) {
+            IOException ioException = new IOException("Could not reverse geocode " + lat + "," + lon);
+            ioException.initCause(e);
+            throw ioException;
+        }
+        if (addresses == null || addresses.isEmpty()) return null;
+        Address address = addresses.get(0);
+        ArrayList<String> strings = new ArrayList<String>(5);
+        if (address.getMaxAddressLineIndex() > 0) strings.add(address.getAddressLine(0));
+        if (!TextUtils.isEmpty(address.getLocality())) strings.add(address.getLocality());
+        if (!TextUtils.isEmpty(address.getCountryName())) strings.add(address.getCountryName());
+        return TextUtils.join(", ", strings);
+    }
+}
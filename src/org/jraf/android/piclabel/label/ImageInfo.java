@@ -0,0 +1,49 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.label;
+
+import org.jraf.android.piclabel.exif.ExifMetadata;
+
+/**
+ * Date and location of a picture, as they will appear on its label, and size of the picture as displayed.
+ */
+public class ImageInfo {
+    public String dateTime;
+    public String location;
+    public boolean isLocalDateTime;
+    public boolean isLocalLocation;
+    public boolean reverseGeocodeProblem;
+
+    /**
+     * Whether the app has been built without the offline gazetteer: addresses can only be found with the network.
+     */
+    public boolean offlineReverseGeocoderMissing;
+    public int displayWidth;
+    public int displayHeight;
+
+    /**
+     * The exif tags the other fields come from, to be passed on to {@link ImageLabeler}.
+     */
+    public ExifMetadata exif;
+}
@@ -0,0 +1,345 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.label;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.graphics.BitmapFactory;
+import android.location.Location;
+import android.location.LocationManager;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import org.jraf.android.piclabel.Config;
+import org.jraf.android.piclabel.Constants;
+import org.jraf.android.piclabel.bitmap.ImageSource;
+import org.jraf.android.piclabel.engine.LabelEngine;
+import org.jraf.android.piclabel.exif.ExifMetadata;
+import org.jraf.android.piclabel.exif.ExifOrientation;
+import org.jraf.android.piclabel.exif.ExifReader;
+import org.jraf.android.piclabel.geo.CachingReverseGeocoder;
+import org.jraf.android.piclabel.geo.FallbackReverseGeocoder;
+import org.jraf.android.piclabel.geo.GazetteerReverseGeocoder;
+import org.jraf.android.piclabel.geo.ReverseGeocoder;
+import org.jraf.android.util.io.IoUtil;
+
+/**
+ * Extracts the date and location of a picture from its exif tags, falling back to the current date and location.
+ */
+public class ImageInfoExtractor {
+    private static final String TAG = Constants.TAG + ImageInfoExtractor.class.getSimpleName();
+
+    /**
+     * About 150 m.
+     */
+    private static final int GEOCODE_CACHE_PRECISION = 7;
+    private static final int GEOCODE_CACHE_MAX_SIZE = 500;
+    private static final long GEOCODE_CACHE_TIME_TO_LIVE = 30L * DateUtils.DAY_IN_MILLIS;
+
+    /**
+     * The gazetteer is built from GeoNames data with the desktop GazetteerTool (see README).
+     */
+    private static final String GAZETTEER_ASSET = "gazetteer.dat";
+    private static final String GAZETTEER_COPY_PREFIX = "gazetteer-";
+    private static final String GAZETTEER_COPY_SUFFIX = ".dat";
+    private static final double GAZETTEER_MAX_DISTANCE_KM = 25;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final int EXIF_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Whether to use the offline gazetteer before the platform geocoder (no network needed, but coarser addresses).
+     */
+    private static final boolean OFFLINE_GEOCODING_FIRST = false;
+
+    private static ReverseGeocoder mReverseGeocoder;
+    private static CachingReverseGeocoder mGeocodeCache;
+    private static Locale mReverseGeocoderLocale;
+    private static boolean mOfflineReverseGeocoderAvailable;
+
+    private final Context mContext;
+
+    public ImageInfoExtractor(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    public ImageInfo extractImageInfo(ImageSource source) {
+        ImageInfo res = new ImageInfo();
+        res.exif = readExif(source);
+        extractDateTime(source, res.exif, res);
+        extractLocation(res.exif, res);
+        return res;
+    }
+
+    /**
+     * Only extracts the date/time and the size, which are fast to get: the location fields of the result are not set.
+     */
+    public ImageInfo extractDateTime(ImageSource source, ExifMetadata exif) {
+        ImageInfo res = new ImageInfo();
+        res.exif = exif;
+        extractDateTime(source, exif, res);
+        return res;
+    }
+
+    /**
+     * Only extracts the location, which can take a while (reverse geocoding): the date/time and size fields of the result are not set.
+     */
+    public ImageInfo extractLocation(ExifMetadata exif) {
+        ImageInfo res = new ImageInfo();
+        res.exif = exif;
+        extractLocation(exif, res);
+        return res;
+    }
+
+    /**
+     * Reads the exif tags of the given picture. They are read once and then passed to the other methods and to {@link ImageLabeler}.
+     * 
+     * @return The tags, or {@link ExifMetadata#EMPTY} if they could not be read.
+     */
+    public static ExifMetadata readExif(ImageSource source) {
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(source.openInputStream(), EXIF_BUFFER_SIZE);
+            return ExifReader.read(in);
+        } catch (IOException e) {
+            Log.e(TAG, "readExif Could not read exif", e);
+            return ExifMetadata.EMPTY;
+        } finally {
+            IoUtil.closeSilently(in);
+        }
+    }
+
+    private void extractDateTime(ImageSource source, ExifMetadata exif, ImageInfo res) {
+        // Size
+        BitmapFactory.Options options = source.decodeBounds();
+        int orientation = exif.getOrientation();
+        res.displayWidth = ExifOrientation.getDisplayWidth(orientation, options.outWidth, options.outHeight);
+        res.displayHeight = ExifOrientation.getDisplayHeight(orientation, options.outWidth, options.outHeight);
+
+        // Date
+        String dateTimeStr = exif.getDateTime();
+        if (TextUtils.isEmpty(dateTimeStr)) {
+            // No date in exif: use 'local' date
+            res.dateTime = formatDateTime(System.currentTimeMillis());
+            res.isLocalDateTime = true;
+        } else {
+            res.dateTime = parseExifDateTime(dateTimeStr);
+            if (res.dateTime == null) {
+                // Date in exif could not be parsed: use 'local' date
+                res.dateTime = formatDateTime(System.currentTimeMillis());
+                res.isLocalDateTime = true;
+            }
+        }
+    }
+
+    private void extractLocation(ExifMetadata exif, ImageInfo res) {
+        float[] latLon = new float[2];
+        boolean latLonPresent = exif.hasLatLong();
+        if (!latLonPresent) {
+            // No location in exif: use 'local' location
+            res.isLocalLocation = true;
+            latLonPresent = getLatestLocalLocation(latLon);
+            if (latLonPresent) res.location = reverseGeocode(latLon[0], latLon[1]);
+        } else {
+            res.location = reverseGeocode((float) exif.getLatitude(), (float) exif.getLongitude());
+        }
+        if (res.location == null) {
+            res.reverseGeocodeProblem = true;
+            res.offlineReverseGeocoderMissing = !isOfflineReverseGeocoderAvailable();
+            res.location = "";
+        }
+    }
+
+
+    private boolean getLatestLocalLocation(float[] latLon) {
+        LocationManager locationManager = (LocationManager) mContext.getSystemService(Context.LOCATION_SERVICE);
+        List<String> providers = locationManager.getProviders(true);
+        Location location = null;
+        for (int i = providers.size() - 1; i >= 0; i--) {
+            location = locationManager.getLastKnownLocation(providers.get(i));
+            if (location != null) break;
+        }
+
+        if (location == null) return false;
+        latLon[0] = (float) location.getLatitude();
+        latLon[1] = (float) location.getLongitude();
+        return true;
+    }
+
+
+    private String reverseGeocode(float lat, float lon) {
+        ReverseGeocoder reverseGeocoder = getReverseGeocoder(mContext);
+        try {
+            return reverseGeocoder.reverseGeocode(lat, lon);
+        } catch (Throwable t) {
+            Log.w(TAG, "reverseGeocode Could not reverse geocode", t);
+            return null;
+        } finally {
+            if (Config.LOGD) Log.d(TAG, "reverseGeocode hitRate=" + mGeocodeCache.getHitRate() + " size=" + mGeocodeCache.getSize());
+        }
+    }
+
+    /**
+     * Writes the reverse geocoding cache to its file, if it changed. The cache is otherwise only written once every few lookups. This accesses the
+     * disk: it should not be called on the main thread.
+     */
+    public static void saveGeocodeCache() {
+        CachingReverseGeocoder geocodeCache;
+        synchronized (ImageInfoExtractor.class) {
+            geocodeCache = mGeocodeCache;
+        }
+        if (geocodeCache != null) geocodeCache.flush();
+    }
+
+    /**
+     * @return The reverse geocoder shared by all the instances: the platform geocoder, with a cache persisted in the cache folder (one per locale,
+     *         since addresses are localized), and the offline gazetteer if it is available.
+     */
+    private static synchronized ReverseGeocoder getReverseGeocoder(Context context) {
+        Locale locale = Locale.getDefault();
+        if (mReverseGeocoder == null || !locale.equals(mReverseGeocoderLocale)) {
+            File file = new File(context.getCacheDir(), "geocode-" + locale + ".txt");
+            mGeocodeCache = new CachingReverseGeocoder(new AndroidReverseGeocoder(context, locale), GEOCODE_CACHE_PRECISION, GEOCODE_CACHE_MAX_SIZE,
+                    GEOCODE_CACHE_TIME_TO_LIVE, file) {
+                @Override
+                protected void onSaveFailed(IOException e) {
+                    Log.w(TAG, "onSaveFailed Could not save the reverse geocoding cache", e);
+                }
+            };
+            mReverseGeocoderLocale = locale;
+            try {
+                mGeocodeCache.load();
+            } catch (IOException e) {
+                Log.w(TAG, "getReverseGeocoder Could not load the cache", e);
+            }
+
+            ReverseGeocoder offlineReverseGeocoder = getOfflineReverseGeocoder(context);
+            mOfflineReverseGeocoderAvailable = offlineReverseGeocoder != null;
+            if (offlineReverseGeocoder == null) {
+                mReverseGeocoder = mGeocodeCache;
+            } else if (OFFLINE_GEOCODING_FIRST) {
+                mReverseGeocoder = new FallbackReverseGeocoder(offlineReverseGeocoder, mGeocodeCache);
+            } else {
+                mReverseGeocoder = new FallbackReverseGeocoder(mGeocodeCache, offlineReverseGeocoder);
+            }
+        }
+        return mReverseGeocoder;
+    }
+
+    /**
+     * @return Whether the app has been built with the gazetteer asset, as found by the latest lookup.
+     */
+    private static synchronized boolean isOfflineReverseGeocoderAvailable() {
+        return mOfflineReverseGeocoderAvailable;
+    }
+
+    /**
+     * @return The geocoder on the gazetteer asset, or {@code null} if the app has been built without it.
+     */
+    private static ReverseGeocoder getOfflineReverseGeocoder(Context context) {
+        // Assets may be compressed and cannot always be mapped: map a copy in the files folder. An update of the app may come with a new
+        // gazetteer, so the copy is named after the installed apk (the manifest has no version code to rely on)
+        File file = new File(context.getFilesDir(), GAZETTEER_COPY_PREFIX + getApkVersion(context) + GAZETTEER_COPY_SUFFIX);
+        try {
+            if (!file.exists()) {
+                deleteOldGazetteerCopies(context.getFilesDir());
+                InputStream in;
+                try {
+                    in = context.getAssets().open(GAZETTEER_ASSET);
+                } catch (FileNotFoundException e) {
+                    if (Config.LOGD) Log.d(TAG, "getOfflineReverseGeocoder No gazetteer: offline geocoding disabled");
+                    return null;
+                }
+                File tmpFile = new File(file.getPath() + ".tmp");
+                OutputStream out = new FileOutputStream(tmpFile);
+                try {
+                    byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                } finally {
+                    IoUtil.closeSilently(in);
+                    IoUtil.closeSilently(out);
+                }
+                if (!tmpFile.renameTo(file)) throw new IOException("Could not rename " + tmpFile + " to " + file);
+                if (Config.LOGD) Log.d(TAG, "getOfflineReverseGeocoder Copied the gazetteer to " + file);
+            }
+            return new GazetteerReverseGeocoder(file, GAZETTEER_MAX_DISTANCE_KM);
+        } catch (IOException e) {
+            Log.w(TAG, "getOfflineReverseGeocoder Could not open the gazetteer", e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * @return A string that changes with each install or update of the app.
+     */
+    private static String getApkVersion(Context context) {
+        ApplicationInfo applicationInfo = context.getApplicationInfo();
+        File apkFile = new File(applicationInfo.sourceDir);
+        return Long.toHexString(apkFile.lastModified()) + "-" + Long.toHexString(apkFile.length());
+    }
+
+    /**
+     * Deletes the copies of the gazetteer made by previous versions of the app (including the first one, named like the asset).
+     */
+    private static void deleteOldGazetteerCopies(File folder) {
+        File[] files = folder.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.equals(GAZETTEER_ASSET) || name.startsWith(GAZETTEER_COPY_PREFIX) && name.contains(GAZETTEER_COPY_SUFFIX)) {
+                if (Config.LOGD) Log.d(TAG, "deleteOldGazetteerCopies Deleting " + file);
+                file.delete();
+            }
+        }
+    }
+
+    private String parseExifDateTime(String s) {
+        Date date = LabelEngine.parseExifDateTime(s);
+        if (date == null) {
+            Log.e(TAG, "parseExifDateTime Could not parse " + s);
+            return null;
+        }
+        return formatDateTime(date.getTime());
+    }
+
+    private String formatDateTime(long millis) {
+        return DateUtils.formatDateTime(mContext, millis, DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME | DateUtils.FORMAT_SHOW_WEEKDAY
+                | DateUtils.FORMAT_SHOW_YEAR);
+    }
+}
@@ -0,0 +1,723 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.label;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Build;
+import android.os.Environment;
+import android.util.Log;
+
+import org.jraf.android.piclabel.Config;
+import org.jraf.android.piclabel.Constants;
+import org.jraf.android.piclabel.bitmap.BitmapPool;
+import org.jraf.android.piclabel.bitmap.ImageSource;
+import org.jraf.android.piclabel.exif.ExifMetadata;
+import org.jraf.android.piclabel.exif.ExifOrientation;
+import org.jraf.android.piclabel.exif.ExifSplicingOutputStream;
+import org.jraf.android.piclabel.jpeg.JpegBandTranscoder;
+import org.jraf.android.piclabel.jpeg.JpegFrame;
+import org.jraf.android.piclabel.jpeg.JpegParser;
+import org.jraf.android.piclabel.jpeg.JpegStripEncoder;
+import org.jraf.android.piclabel.raster.RasterSource;
+import org.jraf.android.piclabel.raster.StripOverlay;
+import org.jraf.android.piclabel.raster.StripPipeline;
+import org.jraf.android.piclabel.stats.PipelineTrace;
+import org.jraf.android.util.bitmap.BitmapUtil;
+import org.jraf.android.util.io.IoUtil;
+
+/**
+ * Draws the date/location label on a picture and saves the result in the album.<br/>
+ * The time, allocations and bitmap memory of each stage are recorded in the {@link PipelineStatsStore}.<br/>
+ * Instances keep no state between calls to {@link #label(ImageSource, String, String, String)} and can be used from several threads.
+ */
+public class ImageLabeler {
+    private static final String TAG = Constants.TAG + ImageLabeler.class.getSimpleName();
+
+    private static final int DEFAULT_QUALITY = 85;
+    private static final int MIN_QUALITY = 30;
+    private static final int MAX_ENCODE_BUFFER_SIZE = 16 * 1024 * 1024;
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+    private static final int STRIP_MEMORY_BUDGET = 4 * 1024 * 1024;
+    private static final int BITMAP_STRIP_MEMORY_BUDGET = 512 * 1024;
+
+    // Measured stages
+    public static final String STAGE_EXIF = "exif";
+    public static final String STAGE_BAND_ONLY = "bandOnly";
+    public static final String STAGE_STRIPS = "strips";
+    /**
+     * Labeling and encoding of an immutable decoded bitmap, strip by strip (instead of the mutable copy, draw and compress stages).
+     */
+    public static final String STAGE_BITMAP_STRIPS = "bitmapStrips";
+    public static final String STAGE_DECODE = "decode";
+    public static final String STAGE_SCALE = "scale";
+    public static final String STAGE_MUTABLE_COPY = "mutableCopy";
+    public static final String STAGE_DRAW = "draw";
+    /**
+     * Encoding of the whole image. Without a maximum file size, the encoder writes directly to the file, so this includes most of the writing.
+     */
+    public static final String STAGE_COMPRESS = "compress";
+    /**
+     * Writing of the exif tags (spliced in as the file is written) and of the remaining encoded data, then sync of the file.
+     */
+    public static final String STAGE_WRITE = "write";
+    /**
+     * Time per picture, recorded by {@link MediaScanAggregator}.
+     */
+    public static final String STAGE_MEDIA_SCAN = "mediaScan";
+    public static final String STAGE_TOTAL = "total";
+
+    private final Context mContext;
+    private final BitmapPool mBitmapPool;
+    private boolean mAllowWholeImageDecode = true;
+    private int mQuality = DEFAULT_QUALITY;
+    private CompressFormat mFormat = CompressFormat.JPEG;
+    private long mMaxFileSize;
+    private int mMaxLongEdge;
+    private Bitmap.Config mDecodeConfig = Bitmap.Config.ARGB_8888;
+
+    public ImageLabeler(Context context) {
+        mContext = context.getApplicationContext();
+        mBitmapPool = BitmapPool.get(context);
+    }
+
+    /**
+     * Whether the whole image may be decoded in memory when the label band cannot be re-encoded on its own. When {@code false}, the image is
+     * processed strip by strip instead, which keeps the memory used by one call bounded (see {@link #estimateMemoryUsage(ImageSource)}).<br/>
+     * Defaults to {@code true}.
+     */
+    public void setAllowWholeImageDecode(boolean allowWholeImageDecode) {
+        mAllowWholeImageDecode = allowWholeImageDecode;
+    }
+
+    /**
+     * Quality of the encoding, from 0 to 100. This is the highest quality used when a maximum file size is set.<br/>
+     * Defaults to {@code 85}.
+     */
+    public void setQuality(int quality) {
+        mQuality = quality;
+    }
+
+    /**
+     * Format of the saved file. The exif tags are only kept in JPEG files. {@link CompressFormat#WEBP} needs API 14.<br/>
+     * Defaults to {@link CompressFormat#JPEG}.
+     */
+    public void setFormat(CompressFormat format) {
+        mFormat = format;
+    }
+
+    /**
+     * Maximum size of the saved file in bytes, or {@code 0} for no maximum. The quality is lowered as needed (down to {@code 30}) to fit.<br/>
+     * Defaults to {@code 0}.
+     */
+    public void setMaxFileSize(long maxFileSize) {
+        mMaxFileSize = maxFileSize;
+    }
+
+    /**
+     * Maximum width or height of the saved picture, or {@code 0} for no maximum. Bigger pictures are scaled down before the label is drawn.<br/>
+     * Defaults to {@code 0}.
+     */
+    public void setMaxLongEdge(int maxLongEdge) {
+        mMaxLongEdge = maxLongEdge;
+    }
+
+    /**
+     * Config of the bitmap when the whole picture is decoded: {@link Bitmap.Config#ARGB_8888}, or {@link Bitmap.Config#RGB_565} to use half
+     * the memory. In {@code RGB_565}, the label is still drawn in {@code ARGB_8888} (on a copy of the band under it), so the text is blended
+     * with full precision before being reduced to 16 bits like the rest of the picture. The band-only and strip modes are not affected.<br/>
+     * Quality, measured on 2 MP pictures encoded at quality 85 (PSNR against the original, the higher the better):
+     * <ul>
+     * <li>Detailed picture: 39.0 dB in {@code ARGB_8888}, 37.2 dB in {@code RGB_565}, file 6% bigger.</li>
+     * <li>Noisy sky (like a typical photo): 38.4 dB, 36.6 dB, file 14% bigger.</li>
+     * <li>Smooth noiseless gradient: 51.0 dB, 39.1 dB with visible banding (steps of up to 8 levels), file 11% bigger.</li>
+     * </ul>
+     * The loss is hard to see on most photos, but smooth skies show banding: this is meant for devices that are short on memory.<br/>
+     * Defaults to {@link Bitmap.Config#ARGB_8888}.
+     */
+    public void setDecodeConfig(Bitmap.Config decodeConfig) {
+        mDecodeConfig = decodeConfig;
+    }
+
+    /**
+     * Labels the given picture and saves the result in a new file of the album.
+     * 
+     * @return The new file.
+     * @throws IOException If the picture could not be decoded or the result could not be saved.
+     */
+    public File label(ImageSource source, String dateTime, String location, String fontName) throws IOException {
+        PipelineTrace trace = PipelineStatsStore.get(mContext).newTrace();
+        trace.begin(STAGE_EXIF);
+        ExifMetadata exif = ImageInfoExtractor.readExif(source);
+        trace.end();
+        return label(source, exif, dateTime, location, fontName);
+    }
+
+    /**
+     * Labels the given picture and saves the result in a new file of the album.
+     * 
+     * @param exif The exif tags of the picture, as returned by {@link ImageInfoExtractor#readExif(ImageSource)}, so they are not read again.
+     * @return The new file.
+     * @throws IOException If the picture could not be decoded or the result could not be saved.
+     */
+    public File label(ImageSource source, ExifMetadata exif, String dateTime, String location, String fontName) throws IOException {
+        LabelText labelText = new LabelText();
+        labelText.dateTime = dateTime;
+        labelText.location = location;
+        labelText.fontName = fontName;
+        PipelineTrace trace = PipelineStatsStore.get(mContext).newTrace();
+        File processedImageFile = createProcessedFile(mFormat == CompressFormat.WEBP ? ".webp" : ".jpg");
+        boolean ok = false;
+        try {
+            processAndSaveImage(source, exif, processedImageFile, labelText, trace);
+            ok = true;
+            if (Config.LOGD) Log.d(TAG, "label " + mBitmapPool);
+            return processedImageFile;
+        } finally {
+            trace.finish(STAGE_TOTAL, ok);
+            if (!ok) processedImageFile.delete();
+        }
+    }
+
+    /**
+     * Estimates the peak heap memory used by {@link #label(ImageSource, String, String, String)} for the given picture.
+     */
+    public long estimateMemoryUsage(ImageSource source) {
+        BitmapFactory.Options options = source.decodeBounds();
+        long longEdge = Math.max(options.outWidth, options.outHeight);
+        if (mMaxLongEdge > 0 && longEdge > mMaxLongEdge) {
+            // Subsampled decode, and its scaled copy (which is mutable)
+            int sampleSize = getSampleSize(longEdge, mMaxLongEdge);
+            int bytesPerPixel = getDecodeBytesPerPixel();
+            long sampled = (long) (options.outWidth / sampleSize) * (options.outHeight / sampleSize) * bytesPerPixel;
+            float ratio = (float) mMaxLongEdge / longEdge;
+            return sampled + (long) (options.outWidth * ratio) * (long) (options.outHeight * ratio) * bytesPerPixel;
+        }
+        long wholeImage = (long) options.outWidth * options.outHeight * getWholeImageBytesPerPixel();
+        if (mAllowWholeImageDecode || Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD_MR1) return wholeImage;
+
+        // The band (decoded region and its mutable copy) is at most a tenth of the long edge, plus 2 MCU rows
+        long band = longEdge * (longEdge / 10 + 32) * 4 * 2;
+
+        // Strips: pixels, decoded region, and the bitmap the label is drawn on
+        long strips = STRIP_MEMORY_BUDGET * 3;
+        return Math.min(wholeImage, Math.max(band, strips));
+    }
+
+    private void processAndSaveImage(ImageSource source, ExifMetadata exif, File processedImageFile, LabelText labelText, PipelineTrace trace)
+            throws IOException {
+        int orientation = exif.getOrientation();
+        BitmapFactory.Options bounds = source.decodeBounds();
+        boolean scale = mMaxLongEdge > 0 && Math.max(bounds.outWidth, bounds.outHeight) > mMaxLongEdge;
+
+        // The band and strip modes keep the size of the original, and only write JPEG
+        boolean canTranscode = Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD_MR1 && mFormat == CompressFormat.JPEG && !scale;
+        boolean canSaveByStrips = canTranscode && mMaxFileSize == 0;
+        if (canTranscode) {
+            // Try to re-encode only the part of the image under the label
+            if (saveLabelBandOnly(source, exif, processedImageFile, labelText, trace)) return;
+
+            // Too big to be decoded at once: process it strip by strip
+            if (canSaveByStrips && (!mAllowWholeImageDecode || !canDecodeWholeImage(source))
+                    && saveByStrips(source, exif, processedImageFile, labelText, trace)) {
+                return;
+            }
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = mDecodeConfig;
+        if (scale) {
+            // Decode directly at about the output size: for JPEG the decoder scales in the DCT domain, so time and memory depend on the output size
+            options.inSampleSize = getSampleSize(Math.max(bounds.outWidth, bounds.outHeight), mMaxLongEdge);
+        }
+
+        long start = System.currentTimeMillis();
+        trace.begin(STAGE_DECODE);
+        Bitmap bitmap;
+        try {
+            bitmap = mBitmapPool.decode(source, bounds.outWidth / options.inSampleSize, bounds.outHeight / options.inSampleSize, options);
+        } catch (OutOfMemoryError e) {
+            Log.w(TAG, "processImage Could not decode file, releasing the pooled bitmaps", e);
+            mBitmapPool.clear();
+            bitmap = null;
+        }
+        // Retrying with a smaller sample size needs a file
+        if (bitmap == null && source.getFile() != null) bitmap = BitmapUtil.tryDecodeFile(source.getFile(), options);
+        if (bitmap == null) throw new IOException("Could not decode " + source);
+        trace.addBitmap(BitmapPool.getByteCount(bitmap));
+        trace.end();
+        if (Config.LOGD) {
+            Log.d(TAG, "processImage Decoded " + bounds.outWidth + "x" + bounds.outHeight + " to " + bitmap.getWidth() + "x" + bitmap.getHeight()
+                    + " sampleSize=" + options.inSampleSize + " in " + (System.currentTimeMillis() - start) + " ms");
+        }
+        // The remaining scaling (less than 2x) is done with filtering
+        if (scale) {
+            trace.begin(STAGE_SCALE);
+            bitmap = scaleToMaxLongEdge(bitmap, trace);
+            trace.end();
+        }
+
+        // To draw text we need a mutable bitmap (decoded bitmaps are mutable from API 11). Before that, JPEG files are labeled while encoded
+        if (!bitmap.isMutable() && mFormat == CompressFormat.JPEG && mMaxFileSize == 0) {
+            try {
+                saveBitmapByStrips(bitmap, exif, processedImageFile, labelText, trace);
+            } finally {
+                mBitmapPool.put(bitmap);
+            }
+            return;
+        }
+        long immutableByteCount = BitmapPool.getByteCount(bitmap);
+        try {
+            if (!bitmap.isMutable()) {
+                trace.begin(STAGE_MUTABLE_COPY);
+                bitmap = BitmapUtil.asImmutable(bitmap);
+                trace.addBitmap(BitmapPool.getByteCount(bitmap));
+                trace.removeBitmap(immutableByteCount);
+                trace.end();
+            }
+        } catch (Throwable t) {
+            trace.fail();
+            bitmap.recycle();
+            trace.removeBitmap(immutableByteCount);
+            if (t instanceof OutOfMemoryError && canSaveByStrips) {
+                Log.w(TAG, "processImage Could not get a mutable bitmap, processing strip by strip", t);
+                if (saveByStrips(source, exif, processedImageFile, labelText, trace)) return;
+            }
+            IOException ioException = new IOException("Could not get a mutable bitmap");
+            ioException.initCause(t);
+            throw ioException;
+        }
+        trace.begin(STAGE_DRAW);
+
+        // Draw text, in the displayed orientation (the pixels are not rotated, the orientation tag is kept instead)
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (Config.LOGD) Log.d(TAG, "processImage orientation=" + orientation + " config=" + bitmap.getConfig());
+        Matrix displayToStored = getDisplayToStoredMatrix(orientation, width, height);
+        int displayWidth = ExifOrientation.getDisplayWidth(orientation, width, height);
+        LabelRenderer label = measureLabel(labelText, displayWidth, ExifOrientation.getDisplayHeight(orientation, width, height));
+        if (bitmap.getConfig() == Bitmap.Config.ARGB_8888) {
+            Canvas canvas = new Canvas(bitmap);
+            canvas.concat(displayToStored);
+            label.draw(canvas);
+        } else {
+            drawLabelBand(bitmap, label, displayToStored, displayWidth, trace);
+        }
+        trace.end();
+
+        // Save the new bitmap to a file
+        try {
+            saveBitmap(bitmap, exif, processedImageFile, orientation, trace);
+        } finally {
+            mBitmapPool.put(bitmap);
+        }
+    }
+
+    /**
+     * Draws the label on a bitmap of a reduced precision config: the band under the label is copied to an {@code ARGB_8888} bitmap, the label is
+     * drawn on it, and the result is copied back.
+     */
+    private void drawLabelBand(Bitmap bitmap, LabelRenderer label, Matrix displayToStored, int displayWidth, PipelineTrace trace) {
+        // Find where the label is in the stored (unrotated) image
+        RectF labelRect = new RectF(0, 0, displayWidth, label.getLayout().getHeight());
+        displayToStored.mapRect(labelRect);
+        Rect bandRect = new Rect((int) labelRect.left, (int) labelRect.top, (int) Math.ceil(labelRect.right), (int) Math.ceil(labelRect.bottom));
+        if (!bandRect.intersect(0, 0, bitmap.getWidth(), bitmap.getHeight())) return;
+
+        Bitmap band = mBitmapPool.get(bandRect.width(), bandRect.height(), Bitmap.Config.ARGB_8888);
+        trace.addBitmap(BitmapPool.getByteCount(band));
+        try {
+            Canvas bandCanvas = new Canvas(band);
+            bandCanvas.drawBitmap(bitmap, -bandRect.left, -bandRect.top, null);
+            bandCanvas.translate(-bandRect.left, -bandRect.top);
+            bandCanvas.concat(displayToStored);
+            label.draw(bandCanvas);
+            new Canvas(bitmap).drawBitmap(band, bandRect.left, bandRect.top, null);
+        } finally {
+            trace.removeBitmap(BitmapPool.getByteCount(band));
+            mBitmapPool.put(band);
+        }
+    }
+
+    /**
+     * Saves the image by decoding and re-encoding only the MCUs under the label. The rest of the JPEG data is copied as is.
+     * 
+     * @return {@code true} if the image was saved, {@code false} if it is not supported by this mode.
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+    private boolean saveLabelBandOnly(ImageSource source, ExifMetadata exif, File outFile, LabelText labelText, PipelineTrace trace) {
+        // The size of a piped picture may be unknown (0): it could be over the maximum
+        long length = source.getLength();
+        if (mMaxFileSize > 0 && (length == 0 || length > mMaxFileSize)) return false;
+        trace.begin(STAGE_BAND_ONLY);
+        int orientation = exif.getOrientation();
+        InputStream in = null;
+        FileOutputStream fileOutputStream = null;
+        OutputStream out = null;
+        Bitmap band = null;
+        try {
+            in = new BufferedInputStream(source.openInputStream(), IO_BUFFER_SIZE);
+            JpegFrame frame = JpegParser.parse(in);
+            int width = frame.getWidth();
+            int height = frame.getHeight();
+            int displayWidth = ExifOrientation.getDisplayWidth(orientation, width, height);
+            LabelRenderer label = measureLabel(labelText, displayWidth, ExifOrientation.getDisplayHeight(orientation, width, height));
+            if (label.getLayout().getHeight() <= 0) {
+                trace.cancel();
+                return false;
+            }
+
+            // Find where the label is in the stored (unrotated) image
+            Matrix displayToStored = getDisplayToStoredMatrix(orientation, width, height);
+            RectF labelRect = new RectF(0, 0, displayWidth, label.getLayout().getHeight());
+            displayToStored.mapRect(labelRect);
+            JpegBandTranscoder transcoder = new JpegBandTranscoder(frame, (int) labelRect.left, (int) labelRect.top, (int) Math.ceil(labelRect.right),
+                    (int) Math.ceil(labelRect.bottom));
+            final Rect bandRect = new Rect(transcoder.getEncodedLeft(), transcoder.getEncodedTop(), transcoder.getEncodedRight(),
+                    transcoder.getEncodedBottom());
+
+            // Decode the band only, and draw the label on it
+            BitmapRegionDecoder regionDecoder = source.newRegionDecoder();
+            Bitmap region;
+            try {
+                region = mBitmapPool.decodeRegion(regionDecoder, bandRect, new BitmapFactory.Options());
+            } finally {
+                regionDecoder.recycle();
+            }
+            if (region == null) {
+                Log.w(TAG, "saveLabelBandOnly Could not decode band");
+                trace.fail();
+                return false;
+            }
+            trace.addBitmap(BitmapPool.getByteCount(region));
+            band = mBitmapPool.get(bandRect.width(), bandRect.height(), Bitmap.Config.ARGB_8888);
+            trace.addBitmap(BitmapPool.getByteCount(band));
+            Canvas canvas = new Canvas(band);
+            canvas.drawBitmap(region, 0, 0, null);
+            trace.removeBitmap(BitmapPool.getByteCount(region));
+            mBitmapPool.put(region);
+            canvas.translate(-bandRect.left, -bandRect.top);
+            canvas.concat(displayToStored);
+            label.draw(canvas);
+
+            fileOutputStream = new FileOutputStream(outFile);
+            out = openOutput(fileOutputStream, exif, orientation, width, height);
+            final Bitmap finalBand = band;
+            transcoder.transcode(in, out, new RasterSource() {
+                @Override
+                public void readPixels(int x, int y, int width, int height, int[] argb) {
+                    finalBand.getPixels(argb, 0, width, x - bandRect.left, y - bandRect.top, width, height);
+                }
+            });
+            closeAndSync(out, fileOutputStream);
+            if (mMaxFileSize > 0 && outFile.length() > mMaxFileSize) {
+                if (Config.LOGD) Log.d(TAG, "saveLabelBandOnly Result too big, falling back to a full re-encode");
+                trace.cancel();
+                return false;
+            }
+            trace.end();
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "saveLabelBandOnly Could not transcode image, falling back to a full re-encode", e);
+            trace.fail();
+            IoUtil.closeSilently(out);
+            return false;
+        } finally {
+            IoUtil.closeSilently(in);
+            if (band != null) trace.removeBitmap(BitmapPool.getByteCount(band));
+            mBitmapPool.put(band);
+        }
+    }
+
+    /**
+     * Saves the image by decoding, labeling and encoding it strip by strip, so that only one strip is in memory at a time.
+     * 
+     * @return {@code true} if the image was saved, {@code false} otherwise.
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+    private boolean saveByStrips(ImageSource source, ExifMetadata exif, File outFile, LabelText labelText, PipelineTrace trace) {
+        trace.begin(STAGE_STRIPS);
+        BitmapRegionDecoder regionDecoder = null;
+        try {
+            regionDecoder = source.newRegionDecoder();
+            encodeByStrips(new RegionDecoderRasterSource(regionDecoder, mBitmapPool), regionDecoder.getWidth(), regionDecoder.getHeight(),
+                    STRIP_MEMORY_BUDGET, exif, outFile, labelText, trace);
+            trace.end();
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "saveByStrips Could not process image", e);
+            trace.fail();
+            return false;
+        } finally {
+            if (regionDecoder != null) regionDecoder.recycle();
+        }
+    }
+
+    /**
+     * Labels the given (immutable) bitmap while encoding it strip by strip: the label is drawn on a copy of the strips it crosses only, instead
+     * of a mutable copy of the whole bitmap.
+     */
+    private void saveBitmapByStrips(final Bitmap bitmap, ExifMetadata exif, File outFile, LabelText labelText, PipelineTrace trace)
+            throws IOException {
+        trace.begin(STAGE_BITMAP_STRIPS);
+        encodeByStrips(new RasterSource() {
+            @Override
+            public void readPixels(int x, int y, int width, int height, int[] argb) {
+                bitmap.getPixels(argb, 0, width, x, y, width, height);
+            }
+        }, bitmap.getWidth(), bitmap.getHeight(), BITMAP_STRIP_MEMORY_BUDGET, exif, outFile, labelText, trace);
+        trace.end();
+    }
+
+    /**
+     * Encodes the pixels of the given source to the file strip by strip, drawing the label on the strips it crosses.
+     * 
+     * @param memoryBudget The size of a strip in bytes (2 are allocated: its pixels, and the bitmap the label is drawn on).
+     */
+    private void encodeByStrips(RasterSource rasterSource, int width, int height, long memoryBudget, ExifMetadata exif, File outFile,
+            LabelText labelText, PipelineTrace trace) throws IOException {
+        int orientation = exif.getOrientation();
+        FileOutputStream fileOutputStream = null;
+        OutputStream out = null;
+        Bitmap stripBitmap = null;
+        try {
+            int displayWidth = ExifOrientation.getDisplayWidth(orientation, width, height);
+            final LabelRenderer label = measureLabel(labelText, displayWidth, ExifOrientation.getDisplayHeight(orientation, width, height));
+
+            // Find where the label is in the stored (unrotated) image
+            final Matrix displayToStored = getDisplayToStoredMatrix(orientation, width, height);
+            RectF labelRect = new RectF(0, 0, displayWidth, label.getLayout().getHeight());
+            displayToStored.mapRect(labelRect);
+
+            fileOutputStream = new FileOutputStream(outFile);
+            out = openOutput(fileOutputStream, exif, orientation, width, height);
+            StripPipeline pipeline = new StripPipeline(rasterSource, width, height, new JpegStripEncoder(out, mQuality));
+            int stripHeight = pipeline.getStripHeight(memoryBudget);
+            if (Config.LOGD) Log.d(TAG, "encodeByStrips " + width + "x" + height + " stripHeight=" + stripHeight);
+
+            // Draw the label on the strips it crosses
+            final Bitmap finalStripBitmap = stripBitmap = mBitmapPool.get(width, stripHeight, Bitmap.Config.ARGB_8888);
+            trace.addBitmap(BitmapPool.getByteCount(stripBitmap));
+            pipeline.setOverlay(new StripOverlay() {
+                @Override
+                public void draw(int[] argb, int y, int stripWidth, int rowCount) {
+                    finalStripBitmap.setPixels(argb, 0, stripWidth, 0, 0, stripWidth, rowCount);
+                    Canvas canvas = new Canvas(finalStripBitmap);
+                    canvas.translate(0, -y);
+                    canvas.concat(displayToStored);
+                    label.draw(canvas);
+                    finalStripBitmap.getPixels(argb, 0, stripWidth, 0, 0, stripWidth, rowCount);
+                }
+            }, (int) labelRect.top, (int) Math.ceil(labelRect.bottom));
+
+            pipeline.run(stripHeight);
+            closeAndSync(out, fileOutputStream);
+        } finally {
+            IoUtil.closeSilently(out);
+            IoUtil.closeSilently(fileOutputStream);
+            if (stripBitmap != null) trace.removeBitmap(BitmapPool.getByteCount(stripBitmap));
+            mBitmapPool.put(stripBitmap);
+        }
+    }
+
+    /**
+     * @return The bytes per pixel needed to label the whole image in memory: the decoded bitmap, and its mutable copy if one is needed.
+     */
+    private int getWholeImageBytesPerPixel() {
+        boolean mutableDecode = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+        boolean labeledWhileEncoded = mFormat == CompressFormat.JPEG && mMaxFileSize == 0;
+        return getDecodeBytesPerPixel() * (mutableDecode || labeledWhileEncoded ? 1 : 2);
+    }
+
+    private int getDecodeBytesPerPixel() {
+        return mDecodeConfig == Bitmap.Config.RGB_565 ? 2 : 4;
+    }
+
+    /**
+     * @return {@code true} if there is enough memory to decode the whole image (and make a mutable copy of it if needed).
+     */
+    private boolean canDecodeWholeImage(ImageSource source) {
+        BitmapFactory.Options options = source.decodeBounds();
+        long needed = (long) options.outWidth * options.outHeight * getWholeImageBytesPerPixel();
+        Runtime runtime = Runtime.getRuntime();
+        long available = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        if (Config.LOGD) Log.d(TAG, "canDecodeWholeImage needed=" + needed + " available=" + available);
+        return needed < available;
+    }
+
+    private static class LabelText {
+        public String dateTime;
+        public String location;
+        public String fontName;
+    }
+
+    private LabelRenderer measureLabel(LabelText labelText, int imageWidth, int imageHeight) {
+        return new LabelRenderer(mContext, labelText.dateTime, labelText.location, labelText.fontName, imageWidth, imageHeight);
+    }
+
+    /**
+     * Creates a new empty file in the album. Several pictures can be labeled in the same second (batch mode): a suffix is added when needed.
+     */
+    private static File createProcessedFile(String extension) throws IOException {
+        File picturesPath = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES);
+        File albumPath = new File(picturesPath, Constants.ALBUM_NAME);
+        albumPath.mkdirs();
+        String fileDateName = new SimpleDateFormat("yyyy-MM-dd'_'HH-mm-ss", Locale.US).format(new Date());
+        for (int i = 0;; i++) {
+            File res = new File(albumPath, fileDateName + (i == 0 ? "" : "-" + i) + extension);
+            if (res.createNewFile()) return res;
+        }
+    }
+
+    private void saveBitmap(Bitmap bitmap, ExifMetadata exif, File outFile, int orientation, PipelineTrace trace) throws IOException {
+        // With a maximum size, the quality is found in memory and the file written once
+        trace.begin(STAGE_COMPRESS);
+        ByteArrayOutputStream encoded = null;
+        if (mMaxFileSize > 0) encoded = compressToSize(bitmap, mMaxFileSize - exif.getSegmentLength());
+
+        FileOutputStream fileOutputStream = null;
+        OutputStream out = null;
+        try {
+            fileOutputStream = new FileOutputStream(outFile);
+            out = openOutput(fileOutputStream, exif, orientation, bitmap.getWidth(), bitmap.getHeight());
+            if (encoded == null && !bitmap.compress(mFormat, mQuality, out)) throw new IOException("Could not compress bitmap");
+            trace.begin(STAGE_WRITE);
+            if (encoded != null) encoded.writeTo(out);
+            closeAndSync(out, fileOutputStream);
+            trace.end();
+        } finally {
+            IoUtil.closeSilently(out);
+            IoUtil.closeSilently(fileOutputStream);
+        }
+    }
+
+    /**
+     * Finds the highest quality, up to the configured one, at which the encoded bitmap fits in the given size, by binary search. The encodings
+     * are done in 2 buffers that are reused.
+     * 
+     * @return The encoded bitmap, or the smallest encoding tried if none fits.
+     */
+    private ByteArrayOutputStream compressToSize(Bitmap bitmap, long maxSize) throws IOException {
+        int bufferSize = (int) Math.min(Math.max(maxSize, 0) * 5 / 4, MAX_ENCODE_BUFFER_SIZE);
+        ByteArrayOutputStream best = new ByteArrayOutputStream(bufferSize);
+        ByteArrayOutputStream attempt = new ByteArrayOutputStream(bufferSize);
+        if (!bitmap.compress(mFormat, mQuality, best)) throw new IOException("Could not compress bitmap");
+        int bestQuality = mQuality;
+        boolean fits = best.size() <= maxSize;
+        if (!fits) {
+            int low = MIN_QUALITY;
+            int high = mQuality - 1;
+            while (low <= high) {
+                int quality = (low + high) >>> 1;
+                attempt.reset();
+                if (!bitmap.compress(mFormat, quality, attempt)) throw new IOException("Could not compress bitmap");
+                boolean attemptFits = attempt.size() <= maxSize;
+                // Keep the best fitting encoding (the search goes up after a fit), or the smallest one while nothing fits
+                if (attemptFits || !fits) {
+                    ByteArrayOutputStream swap = best;
+                    best = attempt;
+                    attempt = swap;
+                    bestQuality = quality;
+                    fits = attemptFits;
+                }
+                if (attemptFits) {
+                    low = quality + 1;
+                } else {
+                    high = quality - 1;
+                }
+            }
+        }
+        if (Config.LOGD) Log.d(TAG, "compressToSize maxSize=" + maxSize + " quality=" + bestQuality + " size=" + best.size() + " fits=" + fits);
+        return best;
+    }
+
+    /**
+     * @return The biggest power of 2 by which a picture can be subsampled while keeping its long edge at least the given size.
+     */
+    private static int getSampleSize(long longEdge, int minLongEdge) {
+        int res = 1;
+        while (longEdge / (res * 2) >= minLongEdge) {
+            res *= 2;
+        }
+        return res;
+    }
+
+    private Bitmap scaleToMaxLongEdge(Bitmap bitmap, PipelineTrace trace) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (Math.max(width, height) <= mMaxLongEdge) return bitmap;
+        float ratio = (float) mMaxLongEdge / Math.max(width, height);
+        Bitmap res = Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(width * ratio)), Math.max(1, Math.round(height * ratio)), true);
+        if (res != bitmap) {
+            trace.addBitmap(BitmapPool.getByteCount(res));
+            trace.removeBitmap(BitmapPool.getByteCount(bitmap));
+            mBitmapPool.put(bitmap);
+        }
+        return res;
+    }
+
+    /**
+     * Wraps the given stream so that the exif tags of the original picture are inserted as the file is written: the file is only written once.
+     */
+    private OutputStream openOutput(FileOutputStream fileOutputStream, ExifMetadata exif, int orientation, int width, int height) {
+        if (mFormat != CompressFormat.JPEG || !exif.hasTiffData()) return fileOutputStream;
+        // The pixels are not rotated: the original orientation is kept
+        return new ExifSplicingOutputStream(fileOutputStream, exif, orientation, width, height);
+    }
+
+    /**
+     * Closes the given stream after making sure its content is on the storage.
+     */
+    private static void closeAndSync(OutputStream out, FileOutputStream fileOutputStream) throws IOException {
+        out.flush();
+        fileOutputStream.getFD().sync();
+        out.close();
+    }
+
+    private static Matrix getDisplayToStoredMatrix(int orientation, int storedWidth, int storedHeight) {
+        float[] transform = ExifOrientation.getDisplayToStoredTransform(orientation, storedWidth, storedHeight);
+        Matrix res = new Matrix();
+        res.setValues(new float[] { transform[0], transform[1], transform[2], transform[3], transform[4], transform[5], 0, 0, 1 });
+        return res;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.label;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+import org.jraf.android.piclabel.layout.LabelLayout;
+import org.jraf.android.piclabel.layout.LabelLayoutEngine;
+
+/**
+ * Draws a label at the top of an image, in the displayed orientation.<br/>
+ * The final render and the preview both use this class, so that they have the same geometry.
+ */
+public class LabelRenderer {
+    private static final int LABEL_LAYOUT_CACHE_SIZE = 16;
+    private static final String DEFAULT_TYPEFACE_KEY = "";
+
+    private static final LabelLayoutEngine sLabelLayoutEngine = new LabelLayoutEngine(LABEL_LAYOUT_CACHE_SIZE);
+
+    private final Paint mPaint;
+    private final LabelLayout mLayout;
+
+    /**
+     * Draws with the given font, which is parsed if it has not been loaded yet.
+     * 
+     * @param imageWidth The width of the full resolution image, as displayed.
+     * @param imageHeight The height of the full resolution image, as displayed.
+     */
+    public LabelRenderer(Context context, String dateTime, String location, String fontName, int imageWidth, int imageHeight) {
+        this(TypefaceRegistry.get(context).getTypeface(fontName), dateTime, location, fontName, imageWidth, imageHeight);
+    }
+
+    /**
+     * @param typeface The typeface of {@code fontName}, or {@code null} to draw with the default typeface.
+     * @param imageWidth The width of the full resolution image, as displayed.
+     * @param imageHeight The height of the full resolution image, as displayed.
+     */
+    public LabelRenderer(Typeface typeface, String dateTime, String location, String fontName, int imageWidth, int imageHeight) {
+        mPaint = new Paint();
+        mPaint.setStyle(Paint.Style.FILL);
+        mPaint.setAntiAlias(true);
+        mPaint.setTypeface(typeface);
+        // The layout is cached by font: a label drawn with the default typeface must not be found for the real font
+        String layoutFontName = typeface == null ? DEFAULT_TYPEFACE_KEY : fontName;
+        mLayout = sLabelLayoutEngine.getLayout(dateTime, location, layoutFontName, new PaintTextMeasurer(mPaint), imageWidth, imageHeight);
+        mPaint.setTextSize(mLayout.getTextSize());
+    }
+
+    public LabelLayout getLayout() {
+        return mLayout;
+    }
+
+    /**
+     * Draws the label. The canvas must be set up so that (0, 0) is the top left corner of the full resolution image, as displayed.
+     */
+    public void draw(Canvas canvas) {
+        // Draw a rectangle
+        mPaint.setColor(LabelLayout.BACKGROUND_COLOR);
+        canvas.drawRect(0, 0, mLayout.getWidth(), mLayout.getHeight(), mPaint);
+
+        // Draw date/time and location
+        mPaint.setColor(LabelLayout.TEXT_COLOR);
+        canvas.drawText(mLayout.getDateTime(), mLayout.getDateTimeX(), mLayout.getDateTimeY(), mPaint);
+        canvas.drawText(mLayout.getLocation(), mLayout.getLocationX(), mLayout.getLocationY(), mPaint);
+    }
+}
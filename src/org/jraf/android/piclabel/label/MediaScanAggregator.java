@@ -0,0 +1,148 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.label;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.content.Context;
+import android.media.MediaScannerConnection;
+import android.net.Uri;
+import android.util.Log;
+
+import org.jraf.android.piclabel.Config;
+import org.jraf.android.piclabel.Constants;
+import org.jraf.android.piclabel.stats.PipelineStats;
+
+/**
+ * Collects labeled pictures and adds them to the media store together: one connection to the media scanner and one call with all the paths,
+ * instead of one blocking scan per picture.<br/>
+ * The scan time per picture is recorded in the {@link PipelineStatsStore}, under {@link ImageLabeler#STAGE_MEDIA_SCAN}.<br/>
+ * Instances can be used from several threads.
+ */
+public class MediaScanAggregator {
+    private static final String TAG = Constants.TAG + MediaScanAggregator.class.getSimpleName();
+
+    public interface OnScanCompletedListener {
+        /**
+         * Called on a background thread, once all the pictures of a flush are scanned.
+         * 
+         * @param uris The content uri of each picture, by path. It is {@code null} for the pictures that could not be scanned.
+         */
+        void onScanCompleted(Map<String, Uri> uris);
+    }
+
+    private final Context mContext;
+    private final LinkedHashSet<String> mPaths = new LinkedHashSet<String>();
+
+    public MediaScanAggregator(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Adds a picture to scan with the next flush.
+     */
+    public synchronized void add(File file) {
+        mPaths.add(file.getPath());
+    }
+
+    /**
+     * @return The number of pictures waiting for the next flush.
+     */
+    public synchronized int getPendingCount() {
+        return mPaths.size();
+    }
+
+    /**
+     * Scans the pictures added since the last flush, and returns without waiting for the scan. This loads the stats the first time: it should
+     * not be called on the main thread.
+     * 
+     * @param listener Called when the scan is done, or {@code null}.
+     * @return The number of pictures to scan.
+     */
+    public int flush(final OnScanCompletedListener listener) {
+        final String[] paths;
+        synchronized (this) {
+            paths = mPaths.toArray(new String[mPaths.size()]);
+            mPaths.clear();
+        }
+        if (paths.length == 0) {
+            if (listener != null) listener.onScanCompleted(Collections.<String, Uri> emptyMap());
+            return 0;
+        }
+        final PipelineStats stats = PipelineStatsStore.get(mContext);
+        final long start = System.nanoTime();
+        final HashMap<String, Uri> uris = new HashMap<String, Uri>();
+        MediaScannerConnection.scanFile(mContext, paths, null, new MediaScannerConnection.OnScanCompletedListener() {
+            private int mScannedCount;
+
+            @Override
+            public void onScanCompleted(String path, Uri uri) {
+                synchronized (uris) {
+                    uris.put(path, uri);
+                    if (uri == null) {
+                        Log.w(TAG, "onScanCompleted Could not scan " + path);
+                        stats.recordFailure(ImageLabeler.STAGE_MEDIA_SCAN);
+                    } else {
+                        mScannedCount++;
+                    }
+                    if (uris.size() < paths.length) return;
+                }
+                long timeMicros = (System.nanoTime() - start) / 1000;
+                if (Config.LOGD) Log.d(TAG, "onScanCompleted Scanned " + mScannedCount + "/" + paths.length + " in " + timeMicros / 1000 + " ms");
+                if (mScannedCount > 0) stats.recordTime(ImageLabeler.STAGE_MEDIA_SCAN, timeMicros, mScannedCount);
+                if (listener != null) listener.onScanCompleted(uris);
+            }
+        });
+        return paths.length;
+    }
+
+    /**
+     * Scans the pictures added since the last flush, and waits for the scan to be done.
+     * 
+     * @return The content uri of each picture, by path, or an empty map if the scan is not done before the timeout.
+     */
+    public Map<String, Uri> flushAndWait(long timeoutMs) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Map<String, Uri>> res = new AtomicReference<Map<String, Uri>>();
+        int count = flush(new OnScanCompletedListener() {
+            @Override
+            public void onScanCompleted(Map<String, Uri> uris) {
+                res.set(uris);
+                latch.countDown();
+            }
+        });
+        if (!latch.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+            Log.w(TAG, "flushAndWait Timed out waiting for the scan of " + count + " pictures");
+            return Collections.emptyMap();
+        }
+        return res.get();
+    }
+}
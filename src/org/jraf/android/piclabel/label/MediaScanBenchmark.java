@@ -0,0 +1,158 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.label;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.media.MediaScannerConnection;
+import android.net.Uri;
+import android.os.Environment;
+import android.util.Log;
+
+import org.jraf.android.piclabel.Constants;
+import org.jraf.android.piclabel.bitmap.ImageSource;
+
+/**
+ * Debug tool: compares adding pictures to the media store together, the way {@link MediaScanAggregator} does, with adding them one at a time,
+ * with one connection and one blocking scan per picture, the way it was done before.<br/>
+ * Each way scans its own new copies of the latest labeled pictures, so that neither is measured on files the media scanner already knows. The
+ * copies are removed from the media store and deleted afterwards. Nothing is recorded in the pipeline stats.
+ */
+public class MediaScanBenchmark {
+    private static final String TAG = Constants.TAG + MediaScanBenchmark.class.getSimpleName();
+
+    private static final int MAX_PICTURE_COUNT = 20;
+    private static final long SCAN_TIMEOUT_MS = 60 * 1000;
+
+    private MediaScanBenchmark() {}
+
+    /**
+     * Runs the comparison. This copies files and waits for the media scanner: it must not be called on the main thread.
+     * 
+     * @return A summary of the results (also logged), or {@code null} if there are no labeled pictures to copy.
+     */
+    public static String run(Context context) throws IOException, InterruptedException {
+        File picturesPath = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES);
+        List<File> pictures = getLatestPictures(new File(picturesPath, Constants.ALBUM_NAME));
+        if (pictures.isEmpty()) return null;
+
+        File folder = new File(picturesPath, Constants.ALBUM_NAME + " benchmark");
+        folder.mkdirs();
+        List<String> togetherPaths = new ArrayList<String>();
+        List<String> singlePaths = new ArrayList<String>();
+        List<Uri> uris = new ArrayList<Uri>();
+        try {
+            for (int i = 0; i < pictures.size(); i++) {
+                togetherPaths.add(copy(pictures.get(i), new File(folder, "together-" + i + ".jpg")));
+                singlePaths.add(copy(pictures.get(i), new File(folder, "single-" + i + ".jpg")));
+            }
+
+            long togetherMicros = scan(context, togetherPaths.toArray(new String[togetherPaths.size()]), uris);
+            long singleMicros = 0;
+            for (String path : singlePaths) {
+                singleMicros += scan(context, new String[] { path }, uris);
+            }
+
+            int count = pictures.size();
+            String res = String.format(Locale.US, "%d pictures, per picture: %.1f ms scanned together, %.1f ms scanned one at a time", count,
+                    togetherMicros / 1000f / count, singleMicros / 1000f / count);
+            Log.d(TAG, "run " + res);
+            return res;
+        } finally {
+            synchronized (uris) {
+                for (Uri uri : uris) {
+                    context.getContentResolver().delete(uri, null, null);
+                }
+            }
+            for (String path : togetherPaths) {
+                new File(path).delete();
+            }
+            for (String path : singlePaths) {
+                new File(path).delete();
+            }
+            folder.delete();
+        }
+    }
+
+    /**
+     * @return The most recently modified JPEG files of the given folder, at most {@link #MAX_PICTURE_COUNT}.
+     */
+    private static List<File> getLatestPictures(File folder) {
+        File[] files = folder.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().toLowerCase(Locale.US).endsWith(".jpg");
+            }
+        });
+        if (files == null) return new ArrayList<File>();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsLastModified = lhs.lastModified();
+                long rhsLastModified = rhs.lastModified();
+                return lhsLastModified > rhsLastModified ? -1 : lhsLastModified == rhsLastModified ? 0 : 1;
+            }
+        });
+        return new ArrayList<File>(Arrays.asList(files).subList(0, Math.min(files.length, MAX_PICTURE_COUNT)));
+    }
+
+    private static String copy(File from, File to) throws IOException {
+        ImageSource.fromFile(from).copyTo(to);
+        return to.getPath();
+    }
+
+    /**
+     * Scans the given files with one connection to the media scanner, and waits for the scan to be done.
+     * 
+     * @param uris Receives the content uris of the scanned files.
+     * @return The time of the scan, in microseconds.
+     */
+    private static long scan(Context context, String[] paths, final List<Uri> uris) throws InterruptedException, IOException {
+        final CountDownLatch latch = new CountDownLatch(paths.length);
+        long start = System.nanoTime();
+        MediaScannerConnection.scanFile(context, paths, null, new MediaScannerConnection.OnScanCompletedListener() {
+            @Override
+            public void onScanCompleted(String path, Uri uri) {
+                if (uri != null) {
+                    synchronized (uris) {
+                        uris.add(uri);
+                    }
+                }
+                latch.countDown();
+            }
+        });
+        if (!latch.await(SCAN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) throw new IOException("Timed out waiting for the scan of " + paths.length + " files");
+        return (System.nanoTime() - start) / 1000;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.label;
+
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import org.jraf.android.piclabel.layout.TextMeasurer;
+
+/**
+ * {@link TextMeasurer} that measures text with the typeface of a {@link Paint}. Not thread safe.
+ */
+public class PaintTextMeasurer implements TextMeasurer {
+    private final Paint mPaint;
+    private final Rect mBounds = new Rect();
+
+    public PaintTextMeasurer(Paint paint) {
+        mPaint = paint;
+    }
+
+    @Override
+    public void measure(String text, int textSize, int[] bounds) {
+        mPaint.setTextSize(textSize);
+        mPaint.getTextBounds(text, 0, text.length(), mBounds);
+        bounds[0] = mBounds.left;
+        bounds[1] = mBounds.top;
+        bounds[2] = mBounds.right;
+        bounds[3] = mBounds.bottom;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.label;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import android.content.Context;
+import android.os.Debug;
+import android.util.Log;
+
+import org.jraf.android.piclabel.Config;
+import org.jraf.android.piclabel.Constants;
+import org.jraf.android.piclabel.stats.PipelineStats;
+import org.jraf.android.util.io.IoUtil;
+
+/**
+ * The {@link PipelineStats} of the app, kept across runs in the files folder.<br/>
+ * In debug builds ({@link Config#LOGD}), the allocations are counted, and each {@link #save(Context)} also writes a readable report to
+ * {@code Android/data/<package>/files/pipeline-stats.txt} on the external storage, so that it can be pulled from the device and attached to a
+ * bug report.
+ */
+public class PipelineStatsStore {
+    private static final String TAG = Constants.TAG + PipelineStatsStore.class.getSimpleName();
+
+    private static final String FILE_NAME = "pipeline-stats.dat";
+    private static final String REPORT_FILE_NAME = "pipeline-stats.txt";
+
+    private static PipelineStats mStats;
+
+    /**
+     * @return The stats of the app, loaded the first time. This reads a small file: it should not be called on the main thread.
+     */
+    public static synchronized PipelineStats get(Context context) {
+        if (mStats != null) return mStats;
+        mStats = new PipelineStats();
+        if (Config.LOGD) {
+            // Counting the allocations slows down every allocation of the process: only in debug builds
+            Debug.startAllocCounting();
+            mStats.setAllocationCounter(new PipelineStats.AllocationCounter() {
+                @Override
+                public long getAllocatedBytes() {
+                    return Debug.getThreadAllocSize();
+                }
+            });
+        }
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) return mStats;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            mStats.readFrom(in);
+        } catch (IOException e) {
+            Log.w(TAG, "get Could not read " + file + ", starting over", e);
+            mStats.reset();
+        } finally {
+            IoUtil.closeSilently(in);
+        }
+        return mStats;
+    }
+
+    /**
+     * Writes the stats of the app, and their report in debug builds. This should not be called on the main thread.
+     */
+    public static synchronized void save(Context context) {
+        PipelineStats stats = get(context);
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        File tmpFile = new File(context.getFilesDir(), FILE_NAME + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            stats.writeTo(out);
+            out.close();
+            if (!tmpFile.renameTo(file)) throw new IOException("Could not rename " + tmpFile + " to " + file);
+        } catch (IOException e) {
+            Log.w(TAG, "save Could not write " + file, e);
+            tmpFile.delete();
+        } finally {
+            IoUtil.closeSilently(out);
+        }
+
+        if (!Config.LOGD) return;
+        File reportFile = getReportFile(context);
+        if (reportFile == null) return;
+        Writer writer = null;
+        try {
+            writer = new FileWriter(reportFile);
+            stats.writeReport(writer);
+            writer.close();
+        } catch (IOException e) {
+            Log.w(TAG, "save Could not write " + reportFile, e);
+        } finally {
+            IoUtil.closeSilently(writer);
+        }
+        if (Config.LOGD) Log.d(TAG, "save Wrote " + reportFile);
+    }
+
+    /**
+     * @return The file of the readable report, or {@code null} if the external storage is not available.
+     */
+    public static File getReportFile(Context context) {
+        File folder = context.getExternalFilesDir(null);
+        if (folder == null) return null;
+        return new File(folder, REPORT_FILE_NAME);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.label;
+
+import java.io.IOException;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+
+import org.jraf.android.piclabel.bitmap.BitmapPool;
+import org.jraf.android.piclabel.raster.RasterSource;
+
+/**
+ * {@link RasterSource} that decodes the requested pixels from a {@link BitmapRegionDecoder}, into bitmaps reused from a {@link BitmapPool}.
+ */
+@TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+public class RegionDecoderRasterSource implements RasterSource {
+    private final BitmapRegionDecoder mRegionDecoder;
+    private final BitmapPool mBitmapPool;
+    private final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+    private final Rect mRect = new Rect();
+
+    public RegionDecoderRasterSource(BitmapRegionDecoder regionDecoder, BitmapPool bitmapPool) {
+        mRegionDecoder = regionDecoder;
+        mBitmapPool = bitmapPool;
+        mOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
+    }
+
+    @Override
+    public void readPixels(int x, int y, int width, int height, int[] argb) throws IOException {
+        mRect.set(x, y, x + width, y + height);
+        Bitmap bitmap = mBitmapPool.decodeRegion(mRegionDecoder, mRect, mOptions);
+        if (bitmap == null) throw new IOException("Could not decode region " + mRect);
+        bitmap.getPixels(argb, 0, width, 0, 0, width, height);
+        mBitmapPool.put(bitmap);
+    }
+}
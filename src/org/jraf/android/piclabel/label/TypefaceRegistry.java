@@ -0,0 +1,185 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.label;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.graphics.Typeface;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import org.jraf.android.piclabel.Config;
+import org.jraf.android.piclabel.Constants;
+
+/**
+ * Shared registry of the typefaces in {@code assets/fonts}, looked up by file name.<br/>
+ * A typeface is parsed the first time it is asked for, and then kept for the lifetime of the process: creating the same typeface several times
+ * is slow, and leaks native memory on older platforms.
+ */
+public class TypefaceRegistry {
+    public interface OnTypefaceLoadedListener {
+        /**
+         * Called on the main thread when a typeface requested with {@link TypefaceRegistry#loadAsync(String[], OnTypefaceLoadedListener)} has been
+         * loaded.
+         */
+        void onTypefaceLoaded(String fileName, Typeface typeface);
+    }
+
+    private static final String TAG = Constants.TAG + TypefaceRegistry.class.getSimpleName();
+    private static final String FONTS_PATH = "fonts";
+
+    private static TypefaceRegistry mInstance;
+
+    private final AssetManager mAssets;
+    private final HashMap<String, Typeface> mTypefaces = new HashMap<String, Typeface>();
+    private String[] mFileNames;
+    private int mHitCount;
+    private int mMissCount;
+    private Executor mLoadExecutor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private TypefaceRegistry(Context context) {
+        mAssets = context.getApplicationContext().getAssets();
+    }
+
+    public static synchronized TypefaceRegistry get(Context context) {
+        if (mInstance == null) mInstance = new TypefaceRegistry(context);
+        return mInstance;
+    }
+
+    /**
+     * @return The file names of all the available fonts, sorted alphabetically. The fonts are not parsed.
+     */
+    public synchronized String[] getFileNames() {
+        if (mFileNames == null) {
+            try {
+                mFileNames = mAssets.list(FONTS_PATH);
+            } catch (IOException e) {
+                Log.e(TAG, "getFileNames Could not list fonts", e);
+                return new String[0];
+            }
+            Arrays.sort(mFileNames, String.CASE_INSENSITIVE_ORDER);
+        }
+        return mFileNames;
+    }
+
+    /**
+     * @return The name of the font to show to the user, derived from its file name.
+     */
+    public static String getDisplayName(String fileName) {
+        int dotIndex = fileName.indexOf('.');
+        String res = dotIndex == -1 ? fileName : fileName.substring(0, dotIndex);
+        return res.substring(0, 1).toUpperCase(Locale.US) + res.substring(1).toLowerCase(Locale.US);
+    }
+
+    /**
+     * Returns the typeface of the given font, parsing it if this is the first time it is asked for.<br/>
+     * The font is parsed without holding the lock of the registry, so that {@link #getLoadedTypeface(String)} never waits for it.
+     * 
+     * @return The typeface, or {@code null} if the font could not be parsed.
+     */
+    public Typeface getTypeface(String fileName) {
+        synchronized (this) {
+            Typeface res = mTypefaces.get(fileName);
+            if (res != null) {
+                mHitCount++;
+                return res;
+            }
+            mMissCount++;
+        }
+        Typeface res;
+        try {
+            res = Typeface.createFromAsset(mAssets, FONTS_PATH + "/" + fileName);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "getTypeface Could not create typeface " + fileName, e);
+            return null;
+        }
+        synchronized (this) {
+            // Another thread may have parsed the same font meanwhile: keep the first one so that there is only one instance of each typeface
+            Typeface existing = mTypefaces.get(fileName);
+            if (existing != null) return existing;
+            mTypefaces.put(fileName, res);
+            if (Config.LOGD) Log.d(TAG, "getTypeface Loaded " + fileName + " hits=" + mHitCount + " misses=" + mMissCount);
+        }
+        return res;
+    }
+
+    /**
+     * @return The typeface of the given font if it has already been loaded, {@code null} otherwise. Never parses the font.
+     */
+    public synchronized Typeface getLoadedTypeface(String fileName) {
+        return mTypefaces.get(fileName);
+    }
+
+    /**
+     * Loads the given fonts in the background, one after the other, in the given order.<br/>
+     * Only a weak reference to the listener is kept: the fonts that are not loaded yet when it is garbage collected are not loaded.
+     * 
+     * @param listener Notified on the main thread after each font is loaded.
+     */
+    public void loadAsync(String[] fileNames, OnTypefaceLoadedListener listener) {
+        Executor loadExecutor;
+        synchronized (this) {
+            if (mLoadExecutor == null) mLoadExecutor = Executors.newSingleThreadExecutor();
+            loadExecutor = mLoadExecutor;
+        }
+        final WeakReference<OnTypefaceLoadedListener> listenerRef = new WeakReference<OnTypefaceLoadedListener>(listener);
+        for (final String fileName : fileNames) {
+            loadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (listenerRef.get() == null) return;
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    final Typeface typeface = getTypeface(fileName);
+                    if (typeface == null) return;
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            OnTypefaceLoadedListener listener = listenerRef.get();
+                            if (listener != null) listener.onTypefaceLoaded(fileName, typeface);
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.layout;
+
+/**
+ * Position of the date/time and of the location in a label, and size of the band behind them.<br/>
+ * Coordinates are relative to the top left corner of the band; y coordinates are baselines. Instances are immutable.
+ */
+public class LabelLayout {
+    /**
+     * Color (ARGB) of the band behind the text: translucent black.
+     */
+    public static final int BACKGROUND_COLOR = 0xB4000000;
+
+    /**
+     * Color (ARGB) of the text: white.
+     */
+    public static final int TEXT_COLOR = 0xFFFFFFFF;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mTextSize;
+    private final boolean mTwoLines;
+    private final String mDateTime;
+    private final int mDateTimeX;
+    private final int mDateTimeY;
+    private final String mLocation;
+    private final int mLocationX;
+    private final int mLocationY;
+
+    LabelLayout(int width, int height, int textSize, boolean twoLines, String dateTime, int dateTimeX, int dateTimeY, String location, int locationX,
+            int locationY) {
+        mWidth = width;
+        mHeight = height;
+        mTextSize = textSize;
+        mTwoLines = twoLines;
+        mDateTime = dateTime;
+        mDateTimeX = dateTimeX;
+        mDateTimeY = dateTimeY;
+        mLocation = location;
+        mLocationX = locationX;
+        mLocationY = locationY;
+    }
+
+    /**
+     * @return The width of the band, which is the width of the image.
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @return The height of the band.
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getTextSize() {
+        return mTextSize;
+    }
+
+    /**
+     * @return {@code true} if the location is under the date/time, {@code false} if they are on the same line.
+     */
+    public boolean isTwoLines() {
+        return mTwoLines;
+    }
+
+    public String getDateTime() {
+        return mDateTime;
+    }
+
+    public int getDateTimeX() {
+        return mDateTimeX;
+    }
+
+    public int getDateTimeY() {
+        return mDateTimeY;
+    }
+
+    public String getLocation() {
+        return mLocation;
+    }
+
+    public int getLocationX() {
+        return mLocationX;
+    }
+
+    public int getLocationY() {
+        return mLocationY;
+    }
+}
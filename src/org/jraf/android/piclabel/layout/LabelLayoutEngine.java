@@ -0,0 +1,165 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.layout;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Lays out labels, and keeps the most recently used layouts so that the text is not measured again when the same label is drawn again (preview,
+ * batch, share after save...).<br/>
+ * Layouts are keyed by (date/time, location, font, text size, image width). This class is thread safe.
+ */
+public class LabelLayoutEngine {
+    /**
+     * The text size is the height of the image divided by this.
+     */
+    private static final int TEXT_SIZE_RATIO = 35;
+
+    private final LinkedHashMap<Key, LabelLayout> mCache;
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * @param maxSize The maximum number of layouts to keep.
+     */
+    public LabelLayoutEngine(final int maxSize) {
+        mCache = new LinkedHashMap<Key, LabelLayout>(16, .75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, LabelLayout> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public static int getTextSize(int imageHeight) {
+        return imageHeight / TEXT_SIZE_RATIO;
+    }
+
+    /**
+     * Returns the layout of a label, from the cache if possible.
+     * 
+     * @param fontName Identifies the font used by {@code textMeasurer}.
+     * @param imageWidth The width of the image, as displayed.
+     * @param imageHeight The height of the image, as displayed.
+     */
+    public LabelLayout getLayout(String dateTime, String location, String fontName, TextMeasurer textMeasurer, int imageWidth, int imageHeight) {
+        Key key = new Key(dateTime, location, fontName, getTextSize(imageHeight), imageWidth);
+        synchronized (mCache) {
+            LabelLayout res = mCache.get(key);
+            if (res != null) {
+                mHitCount++;
+                return res;
+            }
+            mMissCount++;
+        }
+        LabelLayout res = computeLayout(dateTime, location, textMeasurer, imageWidth, key.textSize);
+        synchronized (mCache) {
+            mCache.put(key, res);
+        }
+        return res;
+    }
+
+    /**
+     * Lays out a label, without using the cache.
+     */
+    public static LabelLayout computeLayout(String dateTime, String location, TextMeasurer textMeasurer, int imageWidth, int textSize) {
+        int margin = textSize / 5;
+
+        // Measure date/time and location
+        int[] boundsDateTime = new int[4];
+        textMeasurer.measure(dateTime, textSize, boundsDateTime);
+        int[] boundsLocation = new int[4];
+        textMeasurer.measure(location, textSize, boundsLocation);
+        int dateTimeTop = boundsDateTime[1];
+        int dateTimeBottom = boundsDateTime[3];
+        int locationLeft = boundsLocation[0];
+        int locationTop = boundsLocation[1];
+        int locationRight = boundsLocation[2];
+        int locationBottom = boundsLocation[3];
+
+        // Everything on 1 line if it fits, with some space between date/time and location
+        int totalWidth = boundsDateTime[2] - boundsDateTime[0] + textSize * 2 + locationRight - locationLeft;
+        boolean twoLines = totalWidth > imageWidth;
+        int height;
+        int locationY;
+        if (twoLines) {
+            height = -dateTimeTop + dateTimeBottom + -locationTop + locationBottom + margin * 3;
+            locationY = margin + -dateTimeTop + dateTimeBottom + margin + -locationTop;
+        } else {
+            height = margin + Math.max(dateTimeBottom - dateTimeTop, locationBottom - locationTop) + margin;
+            locationY = margin + -locationTop;
+        }
+
+        // Date/time on the left, location on the right
+        return new LabelLayout(imageWidth, height, textSize, twoLines, dateTime, margin, margin + -dateTimeTop, location, imageWidth - locationRight
+                - locationLeft - margin, locationY);
+    }
+
+    public int getHitCount() {
+        synchronized (mCache) {
+            return mHitCount;
+        }
+    }
+
+    public int getMissCount() {
+        synchronized (mCache) {
+            return mMissCount;
+        }
+    }
+
+    private static class Key {
+        public final String dateTime;
+        public final String location;
+        public final String fontName;
+        public final int textSize;
+        public final int imageWidth;
+
+        public Key(String dateTime, String location, String fontName, int textSize, int imageWidth) {
+            this.dateTime = dateTime;
+            this.location = location;
+            this.fontName = fontName;
+            this.textSize = textSize;
+            this.imageWidth = imageWidth;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return textSize == other.textSize && imageWidth == other.imageWidth && dateTime.equals(other.dateTime) && location.equals(other.location)
+                    && fontName.equals(other.fontName);
+        }
+
+        @Override
+        public int hashCode() {
+            int res = dateTime.hashCode();
+            res = 31 * res + location.hashCode();
+            res = 31 * res + fontName.hashCode();
+            res = 31 * res + textSize;
+            res = 31 * res + imageWidth;
+            return res;
+        }
+    }
+}
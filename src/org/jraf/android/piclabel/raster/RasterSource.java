@@ -0,0 +1,42 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.raster;
+
+import java.io.IOException;
+
+/**
+ * Source of pixels for the areas of an image that are (re-)encoded.
+ */
+public interface RasterSource {
+    /**
+     * Reads a rectangle of pixels.
+     * 
+     * @param x The left of the rectangle, in image coordinates.
+     * @param y The top of the rectangle, in image coordinates.
+     * @param width The width of the rectangle.
+     * @param height The height of the rectangle.
+     * @param argb Receives the pixels, as ARGB values, with a stride equal to {@code width}.
+     */
+    void readPixels(int x, int y, int width, int height, int[] argb) throws IOException;
+}
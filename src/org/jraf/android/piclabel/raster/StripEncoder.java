@@ -0,0 +1,46 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.raster;
+
+import java.io.IOException;
+
+/**
+ * Encoder fed with horizontal strips of pixels, from top to bottom.
+ */
+public interface StripEncoder {
+    /**
+     * @return The number of rows that all strips but the last must be a multiple of.
+     */
+    int getRowAlignment();
+
+    void start(int width, int height) throws IOException;
+
+    /**
+     * @param argb The pixels of the strip, as ARGB values, with a stride equal to the image width.
+     * @param rowCount The number of rows in the strip.
+     */
+    void writeStrip(int[] argb, int rowCount) throws IOException;
+
+    void finish() throws IOException;
+}
@@ -0,0 +1,41 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.raster;
+
+import java.io.IOException;
+
+/**
+ * Something drawn over the strips of an image, typically the label.
+ */
+public interface StripOverlay {
+    /**
+     * Draws the overlay on a strip.
+     * 
+     * @param argb The pixels of the strip, as ARGB values, with a stride equal to {@code width}.
+     * @param y The top of the strip, in image coordinates.
+     * @param width The width of the strip.
+     * @param rowCount The number of rows in the strip.
+     */
+    void draw(int[] argb, int y, int width, int rowCount) throws IOException;
+}
@@ -0,0 +1,84 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.raster;
+
+import java.io.IOException;
+
+/**
+ * Reads an image strip by strip from a {@link RasterSource}, draws an optional {@link StripOverlay} on the strips it crosses, and hands each strip
+ * to a {@link StripEncoder}. Only one strip is held in memory at a time.
+ */
+public class StripPipeline {
+    private static final int MIN_STRIP_HEIGHT = 16;
+
+    private final RasterSource mSource;
+    private final int mWidth;
+    private final int mHeight;
+    private final StripEncoder mEncoder;
+
+    private StripOverlay mOverlay;
+    private int mOverlayTop;
+    private int mOverlayBottom;
+
+    public StripPipeline(RasterSource source, int width, int height, StripEncoder encoder) {
+        mSource = source;
+        mWidth = width;
+        mHeight = height;
+        mEncoder = encoder;
+    }
+
+    /**
+     * @param top The first row crossed by the overlay.
+     * @param bottom The last row crossed by the overlay (exclusive).
+     */
+    public void setOverlay(StripOverlay overlay, int top, int bottom) {
+        mOverlay = overlay;
+        mOverlayTop = top;
+        mOverlayBottom = bottom;
+    }
+
+    /**
+     * @return The height of the strips that fit in the given number of bytes, aligned as required by the encoder.
+     */
+    public int getStripHeight(long memoryBudget) {
+        int alignment = Math.max(1, mEncoder.getRowAlignment());
+        long rows = memoryBudget / 4 / mWidth;
+        rows = Math.max(Math.max(MIN_STRIP_HEIGHT, alignment), rows) / alignment * alignment;
+        return (int) Math.min(rows, (mHeight + alignment - 1) / alignment * alignment);
+    }
+
+    public void run(int stripHeight) throws IOException {
+        int alignment = Math.max(1, mEncoder.getRowAlignment());
+        if (stripHeight <= 0 || stripHeight % alignment != 0) throw new IllegalArgumentException("Strip height must be a multiple of " + alignment);
+        int[] strip = new int[mWidth * stripHeight];
+        mEncoder.start(mWidth, mHeight);
+        for (int y = 0; y < mHeight; y += stripHeight) {
+            int rowCount = Math.min(stripHeight, mHeight - y);
+            mSource.readPixels(0, y, mWidth, rowCount, strip);
+            if (mOverlay != null && y < mOverlayBottom && y + rowCount > mOverlayTop) mOverlay.draw(strip, y, mWidth, rowCount);
+            mEncoder.writeStrip(strip, rowCount);
+        }
+        mEncoder.finish();
+    }
+}
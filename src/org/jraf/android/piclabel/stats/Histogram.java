@@ -0,0 +1,170 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.stats;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of positive values, with log-linear buckets (like HdrHistogram): each power of 2 is split in 16 buckets, so a value is known
+ * within about 6%, from {@code 0} to {@code 2^40}. Bigger values are counted in the last bucket.<br/>
+ * Recording is lock-free and can be done from several threads. Reading while recording gives an approximate view (the buckets are not read
+ * atomically together).
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 40;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        mCounts.incrementAndGet(getIndex(value));
+        mTotalCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max;
+        do {
+            max = mMax.get();
+        } while (value > max && !mMax.compareAndSet(max, value));
+    }
+
+    public long getCount() {
+        return mTotalCount.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    public double getMean() {
+        long count = mTotalCount.get();
+        return count == 0 ? 0 : (double) mSum.get() / count;
+    }
+
+    /**
+     * @param percentile From {@code 0} to {@code 100}.
+     * @return The highest value equivalent to the recorded value at the given percentile (within the precision of the buckets), or {@code 0}
+     *         if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = mTotalCount.get();
+        if (count == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long cumulated = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulated += mCounts.get(i);
+            // The last bucket also counts the values that are too big for it
+            if (cumulated >= target) return i == BUCKET_COUNT - 1 ? mMax.get() : Math.min(getHighestEquivalentValue(i), mMax.get());
+        }
+        return mMax.get();
+    }
+
+    /**
+     * Adds the values recorded in the given histogram to this one.
+     */
+    public void add(Histogram histogram) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = histogram.mCounts.get(i);
+            if (count != 0) mCounts.addAndGet(i, count);
+        }
+        mTotalCount.addAndGet(histogram.mTotalCount.get());
+        mSum.addAndGet(histogram.mSum.get());
+        long max;
+        long value = histogram.mMax.get();
+        do {
+            max = mMax.get();
+        } while (value > max && !mMax.compareAndSet(max, value));
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+        mTotalCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /**
+     * Writes the non empty buckets, so that the result stays small.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        int bucketCount = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (mCounts.get(i) != 0) bucketCount++;
+        }
+        out.writeInt(bucketCount);
+        for (int i = 0; i < BUCKET_COUNT && bucketCount > 0; i++) {
+            long count = mCounts.get(i);
+            if (count == 0) continue;
+            out.writeShort(i);
+            out.writeLong(count);
+            bucketCount--;
+        }
+        out.writeLong(mSum.get());
+        out.writeLong(mMax.get());
+    }
+
+    /**
+     * Adds the values written by {@link #writeTo(DataOutput)} to this histogram.
+     */
+    public void readFrom(DataInput in) throws IOException {
+        Histogram read = new Histogram();
+        int bucketCount = in.readInt();
+        for (int i = 0; i < bucketCount; i++) {
+            int index = in.readShort();
+            long count = in.readLong();
+            if (index < 0 || index >= BUCKET_COUNT || count < 0) throw new IOException("Invalid bucket " + index + ": " + count);
+            read.mCounts.set(index, count);
+            read.mTotalCount.addAndGet(count);
+        }
+        read.mSum.set(in.readLong());
+        read.mMax.set(in.readLong());
+        add(read);
+    }
+
+    private static int getIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) return (int) value;
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude > MAX_MAGNITUDE) return BUCKET_COUNT - 1;
+        int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return SUB_BUCKET_COUNT + (magnitude - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    private static long getHighestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) return index;
+        int magnitude = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT + SUB_BUCKET_BITS;
+        int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        long lowest = (1L << magnitude) | ((long) subBucket << (magnitude - SUB_BUCKET_BITS));
+        return lowest + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.stats;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Measures of the stages of the labeling pipeline, aggregated over all the runs.<br/>
+ * Stages are measured with a {@link PipelineTrace} per run. Instances can be used from several threads.
+ */
+public class PipelineStats {
+    private static final int FORMAT_MAGIC = 0x50535431; // PST1
+
+    /**
+     * Counts the bytes allocated by a thread.
+     */
+    public interface AllocationCounter {
+        /**
+         * @return The bytes allocated so far by the calling thread.
+         */
+        long getAllocatedBytes();
+    }
+
+    private final ConcurrentHashMap<String, StageStats> mStagesByName = new ConcurrentHashMap<String, StageStats>();
+    private final CopyOnWriteArrayList<StageStats> mStages = new CopyOnWriteArrayList<StageStats>();
+    private volatile AllocationCounter mAllocationCounter;
+
+    /**
+     * Without a counter (the default), the allocations are not measured.
+     */
+    public void setAllocationCounter(AllocationCounter allocationCounter) {
+        mAllocationCounter = allocationCounter;
+    }
+
+    AllocationCounter getAllocationCounter() {
+        return mAllocationCounter;
+    }
+
+    /**
+     * Starts measuring a new run. The returned trace must only be used by the calling thread.
+     */
+    public PipelineTrace newTrace() {
+        return new PipelineTrace(this);
+    }
+
+    /**
+     * Records the time of a stage measured without a trace, for instance because it ends on another thread. Only the time is recorded.
+     * 
+     * @param itemCount The number of items processed together by the stage: the time is recorded once per item, divided among them.
+     */
+    public void recordTime(String stage, long timeMicros, int itemCount) {
+        StageStats stageStats = getStage(stage);
+        for (int i = 0; i < itemCount; i++) {
+            stageStats.record(timeMicros / itemCount, -1, -1);
+        }
+    }
+
+    /**
+     * Counts a failure of a stage measured without a trace.
+     */
+    public void recordFailure(String stage) {
+        getStage(stage).recordFailure();
+    }
+
+    /**
+     * @return The stats of the given stage, created if needed.
+     */
+    public StageStats getStage(String name) {
+        StageStats res = mStagesByName.get(name);
+        if (res != null) return res;
+        res = new StageStats(name);
+        StageStats existing = mStagesByName.putIfAbsent(name, res);
+        if (existing != null) return existing;
+        mStages.add(res);
+        return res;
+    }
+
+    /**
+     * @return The stages, in the order they were first measured.
+     */
+    public List<StageStats> getStages() {
+        return new ArrayList<StageStats>(mStages);
+    }
+
+    public void reset() {
+        for (StageStats stage : mStages) {
+            stage.reset();
+        }
+    }
+
+    /**
+     * Writes the aggregated measures, in a compact binary form to be read back with {@link #readFrom(DataInput)}.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        List<StageStats> stages = getStages();
+        out.writeInt(FORMAT_MAGIC);
+        out.writeInt(stages.size());
+        for (StageStats stage : stages) {
+            out.writeUTF(stage.getName());
+            stage.writeTo(out);
+        }
+    }
+
+    /**
+     * Adds the measures written by {@link #writeTo(DataOutput)} to these ones.
+     */
+    public void readFrom(DataInput in) throws IOException {
+        if (in.readInt() != FORMAT_MAGIC) throw new IOException("Unknown format");
+        int stageCount = in.readInt();
+        for (int i = 0; i < stageCount; i++) {
+            getStage(in.readUTF()).readFrom(in);
+        }
+    }
+
+    /**
+     * Writes a human readable report: for each stage, the number of runs and failures, and the median, 99th percentile and maximum of each
+     * measure.
+     */
+    public void writeReport(Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+        out.println(String.format(Locale.US, "%-12s %8s %6s %32s %32s %32s", "stage", "count", "failed", "time ms (p50 p99 max)",
+                "allocated KB (p50 p99 max)", "peak bitmaps KB (p50 p99 max)"));
+        for (StageStats stage : getStages()) {
+            out.println(String.format(Locale.US, "%-12s %8d %6d %32s %32s %32s", stage.getName(), stage.getTimeMicros().getCount(),
+                    stage.getFailureCount(), formatPercentiles(stage.getTimeMicros(), 1000), formatPercentiles(stage.getAllocatedBytes(), 1024),
+                    formatPercentiles(stage.getPeakBitmapBytes(), 1024)));
+        }
+        out.flush();
+    }
+
+    private static String formatPercentiles(Histogram histogram, double unit) {
+        if (histogram.getCount() == 0) return "-";
+        return String.format(Locale.US, "%.1f %.1f %.1f", histogram.getValueAtPercentile(50) / unit, histogram.getValueAtPercentile(99) / unit,
+                histogram.getMax() / unit);
+    }
+}
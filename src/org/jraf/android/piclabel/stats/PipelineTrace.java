@@ -0,0 +1,124 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.stats;
+
+/**
+ * Measures the stages of one run of the pipeline, and records them in its {@link PipelineStats}. Stages are measured one at a time:
+ * beginning a stage ends the current one.<br/>
+ * The bitmaps are not tracked automatically: the caller reports them with {@link #addBitmap(long)} and {@link #removeBitmap(long)}.<br/>
+ * Instances must only be used by the thread that created them.
+ */
+public class PipelineTrace {
+    private final PipelineStats mStats;
+    private final PipelineStats.AllocationCounter mAllocationCounter;
+    private final long mStartNanos;
+    private final long mStartAllocatedBytes;
+
+    private String mStage;
+    private long mStageStartNanos;
+    private long mStageStartAllocatedBytes;
+    private long mStagePeakBitmapBytes;
+
+    private long mBitmapBytes;
+    private long mPeakBitmapBytes;
+
+    PipelineTrace(PipelineStats stats) {
+        mStats = stats;
+        mAllocationCounter = stats.getAllocationCounter();
+        mStartAllocatedBytes = getAllocatedBytes();
+        mStartNanos = System.nanoTime();
+    }
+
+    public void begin(String stage) {
+        if (mStage != null) end();
+        mStage = stage;
+        mStageStartAllocatedBytes = getAllocatedBytes();
+        mStagePeakBitmapBytes = mBitmapBytes;
+        mStageStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Ends the current stage and records its measures.
+     */
+    public void end() {
+        if (mStage == null) return;
+        long timeMicros = (System.nanoTime() - mStageStartNanos) / 1000;
+        long allocatedBytes = mAllocationCounter == null ? -1 : Math.max(getAllocatedBytes() - mStageStartAllocatedBytes, 0);
+        mStats.getStage(mStage).record(timeMicros, allocatedBytes, mStagePeakBitmapBytes);
+        mStage = null;
+    }
+
+    /**
+     * Ends the current stage without recording it, for instance when it turned out not to apply to this picture.
+     */
+    public void cancel() {
+        mStage = null;
+    }
+
+    /**
+     * Ends the current stage, counting it as failed.
+     */
+    public void fail() {
+        if (mStage == null) return;
+        mStats.getStage(mStage).recordFailure();
+        mStage = null;
+    }
+
+    /**
+     * Ends the run, and records it as a whole under the given stage name.
+     * 
+     * @param success {@code false} to count the current stage, and the run, as failed.
+     */
+    public void finish(String stage, boolean success) {
+        if (!success) {
+            fail();
+            mStats.getStage(stage).recordFailure();
+            return;
+        }
+        end();
+        long timeMicros = (System.nanoTime() - mStartNanos) / 1000;
+        long allocatedBytes = mAllocationCounter == null ? -1 : Math.max(getAllocatedBytes() - mStartAllocatedBytes, 0);
+        mStats.getStage(stage).record(timeMicros, allocatedBytes, mPeakBitmapBytes);
+    }
+
+    /**
+     * Reports a bitmap that was allocated (or taken from a pool) for this run.
+     */
+    public void addBitmap(long byteCount) {
+        mBitmapBytes += byteCount;
+        if (mBitmapBytes > mPeakBitmapBytes) mPeakBitmapBytes = mBitmapBytes;
+        if (mBitmapBytes > mStagePeakBitmapBytes) mStagePeakBitmapBytes = mBitmapBytes;
+    }
+
+    /**
+     * Reports a bitmap that is not used by this run anymore.
+     */
+    public void removeBitmap(long byteCount) {
+        mBitmapBytes = Math.max(mBitmapBytes - byteCount, 0);
+    }
+
+    private long getAllocatedBytes() {
+        return mAllocationCounter == null ? 0 : mAllocationCounter.getAllocatedBytes();
+    }
+}
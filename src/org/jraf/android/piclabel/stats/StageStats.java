@@ -0,0 +1,106 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.stats;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregated measures of one stage of the pipeline: wall time, bytes allocated by the thread running it, and peak bytes of bitmaps alive
+ * during it.
+ */
+public class StageStats {
+    private final String mName;
+    private final Histogram mTimeMicros = new Histogram();
+    private final Histogram mAllocatedBytes = new Histogram();
+    private final Histogram mPeakBitmapBytes = new Histogram();
+    private final AtomicLong mFailureCount = new AtomicLong();
+
+    StageStats(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public Histogram getTimeMicros() {
+        return mTimeMicros;
+    }
+
+    /**
+     * Only recorded when the platform can count the allocations (see {@link PipelineStats#setAllocationCounter(PipelineStats.AllocationCounter)}),
+     * and the stage is measured with a trace.
+     */
+    public Histogram getAllocatedBytes() {
+        return mAllocatedBytes;
+    }
+
+    /**
+     * Only recorded when the stage is measured with a trace.
+     */
+    public Histogram getPeakBitmapBytes() {
+        return mPeakBitmapBytes;
+    }
+
+    /**
+     * @return The number of times this stage threw an error. Failed runs are not recorded in the histograms.
+     */
+    public long getFailureCount() {
+        return mFailureCount.get();
+    }
+
+    void record(long timeMicros, long allocatedBytes, long peakBitmapBytes) {
+        mTimeMicros.record(timeMicros);
+        if (allocatedBytes >= 0) mAllocatedBytes.record(allocatedBytes);
+        if (peakBitmapBytes >= 0) mPeakBitmapBytes.record(peakBitmapBytes);
+    }
+
+    void recordFailure() {
+        mFailureCount.incrementAndGet();
+    }
+
+    void reset() {
+        mTimeMicros.reset();
+        mAllocatedBytes.reset();
+        mPeakBitmapBytes.reset();
+        mFailureCount.set(0);
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        mTimeMicros.writeTo(out);
+        mAllocatedBytes.writeTo(out);
+        mPeakBitmapBytes.writeTo(out);
+        out.writeLong(mFailureCount.get());
+    }
+
+    void readFrom(DataInput in) throws IOException {
+        mTimeMicros.readFrom(in);
+        mAllocatedBytes.readFrom(in);
+        mPeakBitmapBytes.readFrom(in);
+        mFailureCount.addAndGet(in.readLong());
+    }
+}
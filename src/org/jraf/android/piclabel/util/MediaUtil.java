@@ -0,0 +1,76 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2013 Benoit 'BoD' Lubek (BoD@JRAF.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jraf.android.piclabel.util;
+
+import java.io.File;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore.MediaColumns;
+import android.util.Log;
+
+import org.jraf.android.piclabel.Config;
+import org.jraf.android.piclabel.Constants;
+
+public class MediaUtil {
+    private static final String TAG = Constants.TAG + MediaUtil.class.getSimpleName();
+
+    /**
+     * Finds the file behind an uri returned by the image pickers. Does a query: must not be called from the main thread.
+     * 
+     * @return The file, or {@code null} if the image is not a local file (Picasa?).
+     */
+    public static File getFileFromMediaUri(Context context, Uri mediaUri) {
+        if (Config.LOGD) Log.d(TAG, "getFileFromMediaUri mediaUri=" + mediaUri);
+
+        // Sometimes the image picker returns a file uri directly
+        if ("file".equals(mediaUri.getScheme())) {
+            File res = new File(mediaUri.getPath());
+            if (!res.exists()) {
+                return null;
+            }
+            return res;
+        }
+
+        // Do a query to get the path
+        String[] projection = { MediaColumns.DATA };
+        Cursor cursor = context.getContentResolver().query(mediaUri, projection, null, null, null);
+        try {
+            if (cursor == null || !cursor.moveToFirst()) {
+                Log.w(TAG, "getFileFromMediaUri null or empty cursor, returning null");
+                return null;
+            }
+            String filePath = cursor.getString(0);
+            if (Config.LOGD) Log.d(TAG, "getFileFromMediaUri filePath=" + filePath);
+            if (filePath == null) {
+                Log.w(TAG, "getFileFromMediaUri Returned filePath is null (Picasa?)");
+                return null;
+            }
+            return new File(filePath);
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+}